@@ -0,0 +1,734 @@
+package edu.ufl.cise.plc;
+
+import static edu.ufl.cise.plc.ClassFileWriter.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ufl.cise.plc.ClassFileWriter.Label;
+import edu.ufl.cise.plc.ClassFileWriter.MethodWriter;
+import edu.ufl.cise.plc.IToken.Kind;
+import edu.ufl.cise.plc.ast.ASTNode;
+import edu.ufl.cise.plc.ast.ASTVisitor;
+import edu.ufl.cise.plc.ast.AssignmentStatement;
+import edu.ufl.cise.plc.ast.BinaryExpr;
+import edu.ufl.cise.plc.ast.BooleanLitExpr;
+import edu.ufl.cise.plc.ast.ColorConstExpr;
+import edu.ufl.cise.plc.ast.ColorExpr;
+import edu.ufl.cise.plc.ast.ConditionalExpr;
+import edu.ufl.cise.plc.ast.ConsoleExpr;
+import edu.ufl.cise.plc.ast.Declaration;
+import edu.ufl.cise.plc.ast.Dimension;
+import edu.ufl.cise.plc.ast.Expr;
+import edu.ufl.cise.plc.ast.FloatLitExpr;
+import edu.ufl.cise.plc.ast.IdentExpr;
+import edu.ufl.cise.plc.ast.IntLitExpr;
+import edu.ufl.cise.plc.ast.NameDef;
+import edu.ufl.cise.plc.ast.NameDefWithDim;
+import edu.ufl.cise.plc.ast.PixelSelector;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.ast.ReadStatement;
+import edu.ufl.cise.plc.ast.ReturnStatement;
+import edu.ufl.cise.plc.ast.StringLitExpr;
+import edu.ufl.cise.plc.ast.UnaryExpr;
+import edu.ufl.cise.plc.ast.UnaryExprPostfix;
+import edu.ufl.cise.plc.ast.VarDeclaration;
+import edu.ufl.cise.plc.ast.WriteStatement;
+import edu.ufl.cise.plc.ast.Types.Type;
+
+// Back end that emits a class file directly from the decorated AST instead of generating Java source
+// for javac.  The generated class has the same shape as the one CodeGenVisitor produces: a public class
+// named after the program with a public static apply method.  visitProgram returns the class file bytes.
+//
+// Expression visits leave the value of the expression on the operand stack and return its Type before
+// any coercion; expr(...) applies the coercion recorded by the type checker.
+public class BytecodeGenVisitor implements ASTVisitor {
+
+    static final String COLOR_TUPLE = "edu/ufl/cise/plc/runtime/ColorTuple";
+    static final String COLOR_TUPLE_FLOAT = "edu/ufl/cise/plc/runtime/ColorTupleFloat";
+    static final String IMAGE_OPS = "edu/ufl/cise/plc/runtime/ImageOps";
+    static final String IMAGE_OPS_OP = "edu/ufl/cise/plc/runtime/ImageOps$OP";
+    static final String FILE_URL_IO = "edu/ufl/cise/plc/runtime/FileURLIO";
+    static final String CONSOLE_IO = "edu/ufl/cise/plc/runtime/ConsoleIO";
+    static final String RUNTIME_EXCEPTION = "edu/ufl/cise/plc/runtime/PLCRuntimeException";
+    static final String BUFFERED_IMAGE = "java/awt/image/BufferedImage";
+    static final String STRING = "java/lang/String";
+
+    record Local(int index, Type type) {}
+
+    interface Emitter {
+        void emit() throws Exception;
+    }
+
+    final String pkgName;
+    ClassFileWriter cw;
+    MethodWriter mw;
+    Program root;
+    final Map<String, Local> locals = new HashMap<>();
+    boolean returned;
+
+    public BytecodeGenVisitor(String packageName) {
+        pkgName = packageName;
+    }
+
+    static String descriptor(Type type) {
+        return switch (type) {
+            case INT -> "I";
+            case FLOAT -> "F";
+            case BOOLEAN -> "Z";
+            case VOID -> "V";
+            case STRING -> "L" + STRING + ";";
+            case COLOR -> "L" + COLOR_TUPLE + ";";
+            case COLORFLOAT -> "L" + COLOR_TUPLE_FLOAT + ";";
+            case IMAGE -> "L" + BUFFERED_IMAGE + ";";
+            default -> throw new UnsupportedOperationException("no JVM type for " + type);
+        };
+    }
+
+    // The type of the value an expression leaves on the stack after its coercion is applied.
+    // A pixel selection is typed INT but always produces a ColorTuple.
+    static Type valueType(Expr e) {
+        if (e.getCoerceTo() != null)
+            return e.getCoerceTo();
+        return e instanceof UnaryExprPostfix ? Type.COLOR : e.getType();
+    }
+
+    private Type expr(Expr e) throws Exception {
+        Type type = (Type) e.visit(this, null);
+        return convert(type, e.getCoerceTo());
+    }
+
+    private Local declare(String name, Type type) {
+        Local local = new Local(mw.newLocal(), type);
+        locals.put(name, local);
+        return local;
+    }
+
+    private void load(Local local) {
+        mw.varInsn(switch (local.type()) {
+            case INT, BOOLEAN -> ILOAD;
+            case FLOAT -> FLOAD;
+            default -> ALOAD;
+        }, local.index());
+    }
+
+    private void store(Local local) {
+        mw.varInsn(switch (local.type()) {
+            case INT, BOOLEAN -> ISTORE;
+            case FLOAT -> FSTORE;
+            default -> ASTORE;
+        }, local.index());
+    }
+
+    // Replaces the value on top of the stack with new owner(value).
+    private void wrap(String owner, String argDescriptor) {
+        mw.typeInsn(NEW, owner);
+        mw.insn(DUP_X1);
+        mw.insn(SWAP);
+        mw.methodInsn(INVOKESPECIAL, owner, "<init>", "(" + argDescriptor + ")V");
+    }
+
+    private Type convert(Type from, Type to) {
+        if (to == null || to == from)
+            return from;
+        switch (from) {
+            case INT -> {
+                switch (to) {
+                    case FLOAT -> mw.insn(I2F);
+                    case COLOR -> wrap(COLOR_TUPLE, "I");
+                    case COLORFLOAT -> {
+                        mw.insn(I2F);
+                        wrap(COLOR_TUPLE_FLOAT, "F");
+                    }
+                    default -> throw cannotConvert(from, to);
+                }
+            }
+            case FLOAT -> {
+                switch (to) {
+                    case INT -> mw.insn(F2I);
+                    case COLORFLOAT -> wrap(COLOR_TUPLE_FLOAT, "F");
+                    case COLOR -> {
+                        wrap(COLOR_TUPLE_FLOAT, "F");
+                        wrap(COLOR_TUPLE, "L" + COLOR_TUPLE_FLOAT + ";");
+                    }
+                    default -> throw cannotConvert(from, to);
+                }
+            }
+            case COLOR -> {
+                switch (to) {
+                    case INT -> mw.methodInsn(INVOKEVIRTUAL, COLOR_TUPLE, "pack", "()I");
+                    case COLORFLOAT -> wrap(COLOR_TUPLE_FLOAT, "L" + COLOR_TUPLE + ";");
+                    default -> throw cannotConvert(from, to);
+                }
+            }
+            case COLORFLOAT -> {
+                switch (to) {
+                    case COLOR -> wrap(COLOR_TUPLE, "L" + COLOR_TUPLE_FLOAT + ";");
+                    default -> throw cannotConvert(from, to);
+                }
+            }
+            default -> throw cannotConvert(from, to);
+        }
+        return to;
+    }
+
+    private static UnsupportedOperationException cannotConvert(Type from, Type to) {
+        return new UnsupportedOperationException("bytecode backend cannot convert " + from + " to " + to);
+    }
+
+    // Converts the Object on top of the stack, as returned by ConsoleIO or FileURLIO, to the given type.
+    private void unbox(Type type) {
+        switch (type) {
+            case INT -> {
+                mw.typeInsn(CHECKCAST, "java/lang/Integer");
+                mw.methodInsn(INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I");
+            }
+            case FLOAT -> {
+                mw.typeInsn(CHECKCAST, "java/lang/Float");
+                mw.methodInsn(INVOKEVIRTUAL, "java/lang/Float", "floatValue", "()F");
+            }
+            case BOOLEAN -> {
+                mw.typeInsn(CHECKCAST, "java/lang/Boolean");
+                mw.methodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+            }
+            case STRING -> mw.typeInsn(CHECKCAST, STRING);
+            case COLOR -> mw.typeInsn(CHECKCAST, COLOR_TUPLE);
+            default -> throw new UnsupportedOperationException("bytecode backend cannot read a value of type " + type);
+        }
+    }
+
+    // Boxes the value on top of the stack so it can be passed as an Object.
+    private void box(Type type) {
+        switch (type) {
+            case INT -> mw.methodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+            case FLOAT -> mw.methodInsn(INVOKESTATIC, "java/lang/Float", "valueOf", "(F)Ljava/lang/Float;");
+            case BOOLEAN -> mw.methodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            default -> {
+            }
+        }
+    }
+
+    private void readValueFromFile(Expr source, Type targetType) throws Exception {
+        expr(source);
+        mw.methodInsn(INVOKESTATIC, FILE_URL_IO, "readValueFromFile", "(Ljava/lang/String;)Ljava/lang/Object;");
+        unbox(targetType);
+    }
+
+    // Pushes the image read from the file or URL given by source, resized to dim if it is not null.
+    private void readImage(Expr source, Dimension dim) throws Exception {
+        if (source.getType() != Type.STRING)
+            throw new UnsupportedOperationException("bytecode backend can only read images from a file or URL");
+        expr(source);
+        if (dim != null) {
+            convert(expr(dim.getWidth()), Type.INT);
+            box(Type.INT);
+            convert(expr(dim.getHeight()), Type.INT);
+            box(Type.INT);
+            mw.methodInsn(INVOKESTATIC, FILE_URL_IO, "readImage",
+                    "(Ljava/lang/String;Ljava/lang/Integer;Ljava/lang/Integer;)L" + BUFFERED_IMAGE + ";");
+        }
+        else
+            mw.methodInsn(INVOKESTATIC, FILE_URL_IO, "readImage", "(Ljava/lang/String;)L" + BUFFERED_IMAGE + ";");
+    }
+
+    private void closeFiles() {
+        mw.methodInsn(INVOKESTATIC, FILE_URL_IO, "closeFiles", "()V");
+    }
+
+    private void resize(Dimension dim) throws Exception {
+        visitDimension(dim, null);
+        mw.methodInsn(INVOKESTATIC, IMAGE_OPS, "resize", "(L" + BUFFERED_IMAGE + ";II)L" + BUFFERED_IMAGE + ";");
+    }
+
+    // Emits the loops that run body once for every pixel of the image in the given local,
+    // with the coordinates in the locals x and y.  Pixels are visited in row-major order.
+    private void pixelLoop(Local image, Local x, Local y, Emitter body) throws Exception {
+        Label yLoop = new Label();
+        Label yEnd = new Label();
+        Label xLoop = new Label();
+        Label xEnd = new Label();
+        mw.pushInt(0);
+        store(y);
+        mw.mark(yLoop);
+        load(y);
+        load(image);
+        mw.methodInsn(INVOKEVIRTUAL, BUFFERED_IMAGE, "getHeight", "()I");
+        mw.jump(IF_ICMPGE, yEnd);
+        mw.pushInt(0);
+        store(x);
+        mw.mark(xLoop);
+        load(x);
+        load(image);
+        mw.methodInsn(INVOKEVIRTUAL, BUFFERED_IMAGE, "getWidth", "()I");
+        mw.jump(IF_ICMPGE, xEnd);
+        body.emit();
+        mw.iinc(x.index(), 1);
+        mw.jump(GOTO, xLoop);
+        mw.mark(xEnd);
+        mw.iinc(y.index(), 1);
+        mw.jump(GOTO, yLoop);
+        mw.mark(yEnd);
+    }
+
+    // Sets every pixel of image to the color given by expr, which is evaluated once per pixel.
+    private void fill(Local image, Expr expr) throws Exception {
+        Local x = new Local(mw.newLocal(), Type.INT);
+        Local y = new Local(mw.newLocal(), Type.INT);
+        pixelLoop(image, x, y, () -> setPixel(image, x, y, expr));
+    }
+
+    private void setPixel(Local image, Local x, Local y, Expr expr) throws Exception {
+        load(image);
+        load(x);
+        load(y);
+        convert(expr(expr), Type.COLOR);
+        mw.methodInsn(INVOKESTATIC, IMAGE_OPS, "setColor", "(L" + BUFFERED_IMAGE + ";IIL" + COLOR_TUPLE + ";)V");
+    }
+
+    private void throwRuntimeException(String message) {
+        mw.typeInsn(NEW, RUNTIME_EXCEPTION);
+        mw.insn(DUP);
+        mw.pushString(message);
+        mw.methodInsn(INVOKESPECIAL, RUNTIME_EXCEPTION, "<init>", "(Ljava/lang/String;)V");
+        mw.insn(ATHROW);
+    }
+
+    // Pushes 1 if the preceding comparison does not jump with the given opcode, 0 otherwise.
+    private void booleanFromJump(int jumpIfFalse) {
+        Label isFalse = new Label();
+        Label end = new Label();
+        mw.jump(jumpIfFalse, isFalse);
+        mw.pushInt(1);
+        mw.jump(GOTO, end);
+        mw.mark(isFalse);
+        mw.pushInt(0);
+        mw.mark(end);
+    }
+
+    @Override
+    public Object visitBooleanLitExpr(BooleanLitExpr booleanLitExpr, Object arg) throws Exception {
+        mw.pushInt(booleanLitExpr.getValue() ? 1 : 0);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) throws Exception {
+        mw.pushString(stringLitExpr.getValue());
+        return Type.STRING;
+    }
+
+    @Override
+    public Object visitIntLitExpr(IntLitExpr intLitExpr, Object arg) throws Exception {
+        mw.pushInt(intLitExpr.getValue());
+        return Type.INT;
+    }
+
+    @Override
+    public Object visitFloatLitExpr(FloatLitExpr floatLitExpr, Object arg) throws Exception {
+        mw.pushFloat(floatLitExpr.getValue());
+        return Type.FLOAT;
+    }
+
+    @Override
+    public Object visitColorConstExpr(ColorConstExpr colorConstExpr, Object arg) throws Exception {
+        mw.getStatic("java/awt/Color", colorConstExpr.getText(), "Ljava/awt/Color;");
+        mw.methodInsn(INVOKEVIRTUAL, "java/awt/Color", "getRGB", "()I");
+        mw.methodInsn(INVOKESTATIC, COLOR_TUPLE, "unpack", "(I)L" + COLOR_TUPLE + ";");
+        return Type.COLOR;
+    }
+
+    // The console is read when the value is needed, so the result already has the type it is coerced to.
+    @Override
+    public Object visitConsoleExpr(ConsoleExpr consoleExpr, Object arg) throws Exception {
+        Type type = consoleExpr.getCoerceTo();
+        if (type == null)
+            throw new UnsupportedOperationException("console used without a target type");
+        mw.pushString(type.toString());
+        mw.pushString("Enter " + type.toString().toLowerCase() + ":");
+        mw.methodInsn(INVOKESTATIC, CONSOLE_IO, "readValueFromConsole",
+                "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/Object;");
+        unbox(type);
+        return type;
+    }
+
+    @Override
+    public Object visitColorExpr(ColorExpr colorExpr, Object arg) throws Exception {
+        if (colorExpr.getType() == Type.COLORFLOAT) {
+            mw.typeInsn(NEW, COLOR_TUPLE_FLOAT);
+            mw.insn(DUP);
+            convert(expr(colorExpr.getRed()), Type.FLOAT);
+            convert(expr(colorExpr.getGreen()), Type.FLOAT);
+            convert(expr(colorExpr.getBlue()), Type.FLOAT);
+            mw.methodInsn(INVOKESPECIAL, COLOR_TUPLE_FLOAT, "<init>", "(FFF)V");
+            return Type.COLORFLOAT;
+        }
+        mw.typeInsn(NEW, COLOR_TUPLE);
+        mw.insn(DUP);
+        expr(colorExpr.getRed());
+        expr(colorExpr.getGreen());
+        expr(colorExpr.getBlue());
+        mw.methodInsn(INVOKESPECIAL, COLOR_TUPLE, "<init>", "(III)V");
+        return Type.COLOR;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr unaryExpression, Object arg) throws Exception {
+        Kind op = unaryExpression.getOp().getKind();
+        Type type = expr(unaryExpression.getExpr());
+        switch (op) {
+            case BANG -> {
+                mw.pushInt(1);
+                mw.insn(IXOR);
+                return Type.BOOLEAN;
+            }
+            case MINUS -> {
+                mw.insn(type == Type.FLOAT ? FNEG : INEG);
+                return type;
+            }
+            case COLOR_OP -> {
+                String name = unaryExpression.getOp().getText();
+                if (type == Type.IMAGE) {
+                    String extract = "extract" + name.substring(3);
+                    mw.methodInsn(INVOKESTATIC, IMAGE_OPS, extract, "(L" + BUFFERED_IMAGE + ";)L" + BUFFERED_IMAGE + ";");
+                    return Type.IMAGE;
+                }
+                mw.methodInsn(INVOKESTATIC, COLOR_TUPLE, name, "(" + (type == Type.INT ? "I" : descriptor(type)) + ")I");
+                return Type.INT;
+            }
+            case IMAGE_OP -> {
+                mw.methodInsn(INVOKEVIRTUAL, BUFFERED_IMAGE, unaryExpression.getOp().getText(), "()I");
+                return Type.INT;
+            }
+            default -> throw new UnsupportedOperationException("unexpected unary operator " + op);
+        }
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) throws Exception {
+        Kind op = binaryExpr.getOp().getKind();
+        Expr left = binaryExpr.getLeft();
+        Expr right = binaryExpr.getRight();
+        Type leftType = valueType(left);
+        Type rightType = valueType(right);
+        switch (op) {
+            case AND, OR -> {
+                expr(left);
+                expr(right);
+                mw.insn(op == Kind.AND ? IAND : IOR);
+                return Type.BOOLEAN;
+            }
+            case EQUALS, NOT_EQUALS -> {
+                boolean eq = op == Kind.EQUALS;
+                expr(left);
+                expr(right);
+                switch (leftType) {
+                    case INT, BOOLEAN -> booleanFromJump(eq ? IF_ICMPNE : IF_ICMPEQ);
+                    case FLOAT -> {
+                        mw.insn(FCMPL);
+                        booleanFromJump(eq ? IFNE : IFEQ);
+                    }
+                    case STRING, COLOR, COLORFLOAT -> {
+                        String owner = leftType == Type.STRING ? STRING
+                                : leftType == Type.COLOR ? COLOR_TUPLE : COLOR_TUPLE_FLOAT;
+                        mw.methodInsn(INVOKEVIRTUAL, owner, "equals", "(Ljava/lang/Object;)Z");
+                        if (!eq) {
+                            mw.pushInt(1);
+                            mw.insn(IXOR);
+                        }
+                    }
+                    default -> booleanFromJump(eq ? IF_ACMPNE : IF_ACMPEQ);
+                }
+                return Type.BOOLEAN;
+            }
+            case LT, LE, GT, GE -> {
+                expr(left);
+                expr(right);
+                if (leftType == Type.FLOAT) {
+                    mw.insn(op == Kind.LT || op == Kind.LE ? FCMPG : FCMPL);
+                    booleanFromJump(switch (op) {
+                        case LT -> IFGE;
+                        case LE -> IFGT;
+                        case GT -> IFLE;
+                        default -> IFLT;
+                    });
+                }
+                else
+                    booleanFromJump(switch (op) {
+                        case LT -> IF_ICMPGE;
+                        case LE -> IF_ICMPGT;
+                        case GT -> IF_ICMPLE;
+                        default -> IF_ICMPLT;
+                    });
+                return Type.BOOLEAN;
+            }
+            case PLUS, MINUS, TIMES, DIV, MOD -> {
+                if (leftType == Type.IMAGE) {
+                    mw.getStatic(IMAGE_OPS_OP, op.toString(), "L" + IMAGE_OPS_OP + ";");
+                    expr(left);
+                    expr(right);
+                    String image = "L" + BUFFERED_IMAGE + ";";
+                    if (rightType == Type.IMAGE)
+                        mw.methodInsn(INVOKESTATIC, IMAGE_OPS, "binaryImageImageOp",
+                                "(L" + IMAGE_OPS_OP + ";" + image + image + ")" + image);
+                    else
+                        mw.methodInsn(INVOKESTATIC, IMAGE_OPS, "binaryImageScalarOp",
+                                "(L" + IMAGE_OPS_OP + ";" + image + descriptor(rightType) + ")" + image);
+                    return Type.IMAGE;
+                }
+                if (leftType == Type.COLOR || leftType == Type.COLORFLOAT) {
+                    String tuple = descriptor(leftType);
+                    mw.getStatic(IMAGE_OPS_OP, op.toString(), "L" + IMAGE_OPS_OP + ";");
+                    expr(left);
+                    convert(expr(right), leftType);
+                    mw.methodInsn(INVOKESTATIC, IMAGE_OPS, "binaryTupleOp",
+                            "(L" + IMAGE_OPS_OP + ";" + tuple + tuple + ")" + tuple);
+                    return leftType;
+                }
+                expr(left);
+                expr(right);
+                boolean isFloat = leftType == Type.FLOAT;
+                mw.insn(switch (op) {
+                    case PLUS -> isFloat ? FADD : IADD;
+                    case MINUS -> isFloat ? FSUB : ISUB;
+                    case TIMES -> isFloat ? FMUL : IMUL;
+                    case DIV -> isFloat ? FDIV : IDIV;
+                    default -> isFloat ? FREM : IREM;
+                });
+                return leftType;
+            }
+            default -> throw new UnsupportedOperationException("unexpected binary operator " + op);
+        }
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws Exception {
+        Local local = locals.get(identExpr.getText());
+        if (local == null)
+            throw new UnsupportedOperationException("no local variable for " + identExpr.getText());
+        load(local);
+        return local.type();
+    }
+
+    @Override
+    public Object visitConditionalExpr(ConditionalExpr conditionalExpr, Object arg) throws Exception {
+        Label falseCase = new Label();
+        Label end = new Label();
+        expr(conditionalExpr.getCondition());
+        mw.jump(IFEQ, falseCase);
+        Type type = expr(conditionalExpr.getTrueCase());
+        mw.jump(GOTO, end);
+        mw.mark(falseCase);
+        convert(expr(conditionalExpr.getFalseCase()), type);
+        mw.mark(end);
+        return type;
+    }
+
+    // Pushes the width and height.
+    @Override
+    public Object visitDimension(Dimension dimension, Object arg) throws Exception {
+        convert(expr(dimension.getWidth()), Type.INT);
+        convert(expr(dimension.getHeight()), Type.INT);
+        return null;
+    }
+
+    // Pushes the x and y coordinates.
+    @Override
+    public Object visitPixelSelector(PixelSelector pixelSelector, Object arg) throws Exception {
+        convert(expr(pixelSelector.getX()), Type.INT);
+        convert(expr(pixelSelector.getY()), Type.INT);
+        return null;
+    }
+
+    @Override
+    public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws Exception {
+        Declaration target = assignmentStatement.getTargetDec();
+        Local local = locals.get(assignmentStatement.getName());
+        Expr expr = assignmentStatement.getExpr();
+        if (target.getType() != Type.IMAGE) {
+            convert(expr(expr), local.type());
+            store(local);
+        }
+        else if (assignmentStatement.getSelector() != null) {
+            // the selector names the loop variables, which are visible in expr
+            String xName = assignmentStatement.getSelector().getX().getText();
+            String yName = assignmentStatement.getSelector().getY().getText();
+            Local x = declare(xName, Type.INT);
+            Local y = declare(yName, Type.INT);
+            pixelLoop(local, x, y, () -> setPixel(local, x, y, expr));
+            locals.remove(xName);
+            locals.remove(yName);
+        }
+        else if (valueType(expr) == Type.IMAGE) {
+            expr(expr);
+            if (target.getDim() != null)
+                resize(target.getDim());
+            else if (expr instanceof IdentExpr)
+                mw.methodInsn(INVOKESTATIC, IMAGE_OPS, "clone", "(L" + BUFFERED_IMAGE + ";)L" + BUFFERED_IMAGE + ";");
+            store(local);
+        }
+        else
+            fill(local, expr);
+        return null;
+    }
+
+    @Override
+    public Object visitWriteStatement(WriteStatement writeStatement, Object arg) throws Exception {
+        Expr source = writeStatement.getSource();
+        Expr dest = writeStatement.getDest();
+        Type sourceType = valueType(source);
+        if (dest.getType() == Type.STRING) {
+            expr(source);
+            box(sourceType);
+            expr(dest);
+            if (sourceType == Type.IMAGE)
+                mw.methodInsn(INVOKESTATIC, FILE_URL_IO, "writeImage", "(L" + BUFFERED_IMAGE + ";Ljava/lang/String;)V");
+            else
+                mw.methodInsn(INVOKESTATIC, FILE_URL_IO, "writeValue", "(Ljava/io/Serializable;Ljava/lang/String;)V");
+            return null;
+        }
+        if (sourceType == Type.IMAGE) {
+            expr(source);
+            mw.methodInsn(INVOKESTATIC, CONSOLE_IO, "displayImageOnScreen", "(L" + BUFFERED_IMAGE + ";)V");
+        }
+        mw.getStatic(CONSOLE_IO, "console", "Ljava/io/PrintStream;");
+        expr(source);
+        String param = switch (sourceType) {
+            case INT -> "I";
+            case FLOAT -> "F";
+            case BOOLEAN -> "Z";
+            case STRING -> "Ljava/lang/String;";
+            default -> "Ljava/lang/Object;";
+        };
+        mw.methodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + param + ")V");
+        return null;
+    }
+
+    @Override
+    public Object visitReadStatement(ReadStatement readStatement, Object arg) throws Exception {
+        Declaration target = readStatement.getTargetDec();
+        Local local = locals.get(readStatement.getName());
+        Expr source = readStatement.getSource();
+        if (target.getType() == Type.IMAGE)
+            readImage(source, target.getDim());
+        else if (source.getType() == Type.STRING)
+            readValueFromFile(source, target.getType());
+        else
+            convert(expr(source), target.getType());
+        store(local);
+        return null;
+    }
+
+    @Override
+    public Object visitProgram(Program program, Object arg) throws Exception {
+        root = program;
+        String name = pkgName.length() != 0 ? pkgName.replace('.', '/') + '/' + program.getName() : program.getName();
+        cw = new ClassFileWriter(name);
+        List<NameDef> params = program.getParams();
+        StringBuilder desc = new StringBuilder("(");
+        for (NameDef param : params)
+            desc.append(descriptor(param.getType()));
+        desc.append(')').append(descriptor(program.getReturnType()));
+        mw = cw.method(ACC_PUBLIC | ACC_STATIC, "apply", desc.toString());
+        // parameters occupy the first local variable slots
+        for (int i = 0; i < params.size(); i++)
+            locals.put(params.get(i).getName(), new Local(i, params.get(i).getType()));
+
+        for (ASTNode node : program.getDecsAndStatements()) {
+            node.visit(this, arg);
+            if (returned)
+                break;
+        }
+        if (!returned) {
+            if (program.getReturnType() == Type.VOID)
+                mw.insn(RETURN);
+            else
+                throwRuntimeException("program " + program.getName() + " ended without returning a value");
+        }
+        return cw.toByteArray();
+    }
+
+    @Override
+    public Object visitNameDef(NameDef nameDef, Object arg) throws Exception {
+        declare(nameDef.getName(), nameDef.getType());
+        return null;
+    }
+
+    // Declares the image and initializes it to a new image of the given size.
+    @Override
+    public Object visitNameDefWithDim(NameDefWithDim nameDefWithDim, Object arg) throws Exception {
+        Local local = declare(nameDefWithDim.getName(), Type.IMAGE);
+        mw.typeInsn(NEW, BUFFERED_IMAGE);
+        mw.insn(DUP);
+        visitDimension(nameDefWithDim.getDim(), arg);
+        mw.pushInt(1); // BufferedImage.TYPE_INT_RGB
+        mw.methodInsn(INVOKESPECIAL, BUFFERED_IMAGE, "<init>", "(III)V");
+        store(local);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStatement(ReturnStatement returnStatement, Object arg) throws Exception {
+        Type returnType = root.getReturnType();
+        convert(expr(returnStatement.getExpr()), returnType);
+        mw.insn(switch (returnType) {
+            case INT, BOOLEAN -> IRETURN;
+            case FLOAT -> FRETURN;
+            default -> ARETURN;
+        });
+        returned = true;
+        return null;
+    }
+
+    @Override
+    public Object visitVarDeclaration(VarDeclaration declaration, Object arg) throws Exception {
+        NameDef nameDef = declaration.getNameDef();
+        Expr expr = declaration.getExpr();
+        boolean hasInitializer = declaration.getOp() != null;
+        if (nameDef.getType() != Type.IMAGE) {
+            Local local = declare(nameDef.getName(), nameDef.getType());
+            if (hasInitializer) {
+                if (declaration.getOp().getKind() == Kind.LARROW && expr.getType() == Type.STRING)
+                    readValueFromFile(expr, local.type());
+                else
+                    convert(expr(expr), local.type());
+                store(local);
+            }
+            return null;
+        }
+
+        Type exprType = hasInitializer ? valueType(expr) : null;
+        if (exprType == Type.STRING || exprType == Type.IMAGE) {
+            Local local = declare(nameDef.getName(), Type.IMAGE);
+            if (exprType == Type.STRING)
+                readImage(expr, nameDef.getDim());
+            else {
+                expr(expr);
+                if (nameDef.getDim() != null)
+                    resize(nameDef.getDim());
+            }
+            store(local);
+            if (exprType == Type.STRING || nameDef.getDim() != null)
+                closeFiles();
+        }
+        else if (nameDef.getDim() != null) {
+            nameDef.visit(this, arg);
+            if (hasInitializer)
+                fill(locals.get(nameDef.getName()), expr);
+        }
+        else
+            throw new UnsupportedOperationException("image " + nameDef.getName() + " declared without a size");
+        return null;
+    }
+
+    // Pushes the color of the selected pixel as a ColorTuple.
+    @Override
+    public Object visitUnaryExprPostfix(UnaryExprPostfix unaryExprPostfix, Object arg) throws Exception {
+        expr(unaryExprPostfix.getExpr());
+        visitPixelSelector(unaryExprPostfix.getSelector(), arg);
+        mw.methodInsn(INVOKEVIRTUAL, BUFFERED_IMAGE, "getRGB", "(II)I");
+        mw.methodInsn(INVOKESTATIC, COLOR_TUPLE, "unpack", "(I)L" + COLOR_TUPLE + ";");
+        return Type.COLOR;
+    }
+
+}
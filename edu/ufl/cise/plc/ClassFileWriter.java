@@ -0,0 +1,429 @@
+package edu.ufl.cise.plc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Minimal class file assembler used by BytecodeGenVisitor.  It supports only what generated
+// PLCLang classes need: a public class with public static methods.
+//
+// Class files are written with major version 49.  The JVM verifies classes of that version with
+// the type-inferencing verifier, so no StackMapTable has to be computed for branches.
+public class ClassFileWriter {
+
+    public static final int MAJOR_VERSION = 49;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_SUPER = 0x0020;
+
+    // opcodes
+    public static final int ACONST_NULL = 1, ICONST_M1 = 2, ICONST_0 = 3, ICONST_1 = 4, ICONST_2 = 5, ICONST_3 = 6,
+            ICONST_4 = 7, ICONST_5 = 8, FCONST_0 = 11,
+            FCONST_1 = 12, FCONST_2 = 13, BIPUSH = 16, SIPUSH = 17, LDC = 18, LDC_W = 19,
+            ILOAD = 21, FLOAD = 23, ALOAD = 25, IALOAD = 46, AALOAD = 50, ISTORE = 54, FSTORE = 56,
+            ASTORE = 58, IASTORE = 79, POP = 87, DUP = 89, DUP_X1 = 90, SWAP = 95,
+            IADD = 96, FADD = 98, ISUB = 100, FSUB = 102, IMUL = 104, FMUL = 106, IDIV = 108, FDIV = 110,
+            IREM = 112, FREM = 114, INEG = 116, FNEG = 118, ISHL = 120, ISHR = 122, IAND = 126, IOR = 128,
+            IXOR = 130, IINC = 132, I2F = 134, F2I = 139, FCMPL = 149, FCMPG = 150,
+            IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156, IFGT = 157, IFLE = 158,
+            IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162, IF_ICMPGT = 163, IF_ICMPLE = 164,
+            IF_ACMPEQ = 165, IF_ACMPNE = 166, GOTO = 167, IRETURN = 172, FRETURN = 174, ARETURN = 176,
+            RETURN = 177, GETSTATIC = 178, INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184,
+            NEW = 187, ARRAYLENGTH = 190, ATHROW = 191, CHECKCAST = 192, WIDE = 196;
+
+    private static final int CONSTANT_Utf8 = 1, CONSTANT_Integer = 3, CONSTANT_Float = 4, CONSTANT_Class = 7,
+            CONSTANT_String = 8, CONSTANT_Fieldref = 9, CONSTANT_Methodref = 10, CONSTANT_NameAndType = 12;
+
+    // Growable byte array written in the big endian order the class file format uses.
+    static class ByteVector {
+        byte[] data = new byte[64];
+        int length;
+
+        private void ensure(int n) {
+            if (length + n > data.length) {
+                byte[] bigger = new byte[Math.max(data.length * 2, length + n)];
+                System.arraycopy(data, 0, bigger, 0, length);
+                data = bigger;
+            }
+        }
+
+        ByteVector putByte(int b) {
+            ensure(1);
+            data[length++] = (byte) b;
+            return this;
+        }
+
+        ByteVector putShort(int s) {
+            ensure(2);
+            data[length++] = (byte) (s >>> 8);
+            data[length++] = (byte) s;
+            return this;
+        }
+
+        ByteVector putInt(int i) {
+            ensure(4);
+            data[length++] = (byte) (i >>> 24);
+            data[length++] = (byte) (i >>> 16);
+            data[length++] = (byte) (i >>> 8);
+            data[length++] = (byte) i;
+            return this;
+        }
+
+        ByteVector putBytes(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, data, length, len);
+            length += len;
+            return this;
+        }
+
+        // modified UTF-8, preceded by its length
+        ByteVector putUtf8(String s) {
+            int start = length;
+            putShort(0);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 0x0001 && c <= 0x007F)
+                    putByte(c);
+                else if (c <= 0x07FF) {
+                    putByte(0xC0 | ((c >> 6) & 0x1F));
+                    putByte(0x80 | (c & 0x3F));
+                }
+                else {
+                    putByte(0xE0 | ((c >> 12) & 0x0F));
+                    putByte(0x80 | ((c >> 6) & 0x3F));
+                    putByte(0x80 | (c & 0x3F));
+                }
+            }
+            int len = length - start - 2;
+            if (len > 0xFFFF)
+                throw new IllegalArgumentException("constant too long for class file");
+            data[start] = (byte) (len >>> 8);
+            data[start + 1] = (byte) len;
+            return this;
+        }
+
+        void putShortAt(int pos, int s) {
+            data[pos] = (byte) (s >>> 8);
+            data[pos + 1] = (byte) s;
+        }
+    }
+
+    // Target of a jump.  The operand stack depth at the label is taken from the first jump to it.
+    public static class Label {
+        int position = -1;
+        int stack = -1;
+        final List<int[]> refs = new ArrayList<>(); // {instruction position, operand position}
+    }
+
+    private final ByteVector pool = new ByteVector();
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final List<MethodWriter> methods = new ArrayList<>();
+    private final int thisClass;
+    private final int superClass;
+
+    // internalName uses '/' as the package separator, e.g. "pkg/Name"
+    public ClassFileWriter(String internalName) {
+        thisClass = classConst(internalName);
+        superClass = classConst("java/lang/Object");
+    }
+
+    private int utf8(String s) {
+        String key = "U" + s;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            pool.putByte(CONSTANT_Utf8).putUtf8(s);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    private int newEntry(String key, int size) {
+        int index = poolCount;
+        poolCount += size;
+        if (poolCount > 0xFFFF)
+            throw new IllegalStateException("too many constants for class file");
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    int classConst(String internalName) {
+        String key = "C" + internalName;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int name = utf8(internalName);
+            pool.putByte(CONSTANT_Class).putShort(name);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int stringConst(String s) {
+        String key = "S" + s;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int value = utf8(s);
+            pool.putByte(CONSTANT_String).putShort(value);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int intConst(int i) {
+        String key = "I" + i;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            pool.putByte(CONSTANT_Integer).putInt(i);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int floatConst(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        String key = "F" + bits;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            pool.putByte(CONSTANT_Float).putInt(bits);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + ' ' + descriptor;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int n = utf8(name);
+            int d = utf8(descriptor);
+            pool.putByte(CONSTANT_NameAndType).putShort(n).putShort(d);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = "M" + tag + owner + '.' + name + descriptor;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int c = classConst(owner);
+            int nt = nameAndType(name, descriptor);
+            pool.putByte(tag).putShort(c).putShort(nt);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    public MethodWriter method(int access, String name, String descriptor) {
+        MethodWriter mw = new MethodWriter(access, utf8(name), utf8(descriptor), descriptor);
+        methods.add(mw);
+        return mw;
+    }
+
+    public byte[] toByteArray() {
+        int codeAttribute = methods.isEmpty() ? 0 : utf8("Code");
+        ByteVector out = new ByteVector();
+        out.putInt(0xCAFEBABE).putShort(0).putShort(MAJOR_VERSION);
+        out.putShort(poolCount).putBytes(pool.data, 0, pool.length);
+        out.putShort(ACC_PUBLIC | ACC_SUPER).putShort(thisClass).putShort(superClass);
+        out.putShort(0); // interfaces
+        out.putShort(0); // fields
+        out.putShort(methods.size());
+        for (MethodWriter mw : methods)
+            mw.write(out, codeAttribute);
+        out.putShort(0); // attributes
+        byte[] bytes = new byte[out.length];
+        System.arraycopy(out.data, 0, bytes, 0, out.length);
+        return bytes;
+    }
+
+    // Number of stack slots taken by the arguments, and by the return value, of a method descriptor.
+    static int[] argAndReturnSizes(String descriptor) {
+        int args = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            args += (c == 'J' || c == 'D') ? 2 : 1;
+            while (descriptor.charAt(i) == '[')
+                i++;
+            if (descriptor.charAt(i) == 'L')
+                i = descriptor.indexOf(';', i);
+            i++;
+        }
+        char r = descriptor.charAt(i + 1);
+        return new int[] { args, r == 'V' ? 0 : (r == 'J' || r == 'D') ? 2 : 1 };
+    }
+
+    public class MethodWriter {
+        final int access;
+        final int name;
+        final int descriptor;
+        final ByteVector code = new ByteVector();
+        int stack;
+        int maxStack;
+        int maxLocals;
+
+        MethodWriter(int access, int name, int descriptor, String desc) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argAndReturnSizes(desc)[0] + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        // Returns the index of a new local variable slot.
+        public int newLocal() {
+            return maxLocals++;
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack)
+                maxStack = stack;
+        }
+
+        // Instructions without operands.
+        public void insn(int opcode) {
+            code.putByte(opcode);
+            switch (opcode) {
+                case ACONST_NULL, ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5,
+                        FCONST_0, FCONST_1, FCONST_2, DUP, DUP_X1 -> adjust(1);
+                case POP, IADD, FADD, ISUB, FSUB, IMUL, FMUL, IDIV, FDIV, IREM, FREM, ISHL, ISHR, IAND, IOR, IXOR,
+                        FCMPL, FCMPG, IALOAD, AALOAD, IRETURN, FRETURN, ARETURN, ATHROW -> adjust(-1);
+                case IASTORE -> adjust(-3);
+                case SWAP, INEG, FNEG, I2F, F2I, ARRAYLENGTH, RETURN -> {
+                }
+                default -> throw new IllegalArgumentException("unsupported opcode " + opcode);
+            }
+            if (opcode == ATHROW || (opcode >= IRETURN && opcode <= RETURN))
+                stack = 0;
+        }
+
+        public void pushInt(int value) {
+            if (value >= -1 && value <= 5)
+                insn(ICONST_0 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.putByte(BIPUSH).putByte(value);
+                adjust(1);
+            }
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.putByte(SIPUSH).putShort(value);
+                adjust(1);
+            }
+            else
+                ldc(intConst(value));
+        }
+
+        public void pushFloat(float value) {
+            if (Float.floatToRawIntBits(value) == 0)
+                insn(FCONST_0);
+            else if (value == 1.0f)
+                insn(FCONST_1);
+            else if (value == 2.0f)
+                insn(FCONST_2);
+            else
+                ldc(floatConst(value));
+        }
+
+        public void pushString(String value) {
+            ldc(stringConst(value));
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xFF)
+                code.putByte(LDC).putByte(index);
+            else
+                code.putByte(LDC_W).putShort(index);
+            adjust(1);
+        }
+
+        // ILOAD, FLOAD, ALOAD, ISTORE, FSTORE, ASTORE
+        public void varInsn(int opcode, int index) {
+            if (index > 0xFF)
+                code.putByte(WIDE).putByte(opcode).putShort(index);
+            else
+                code.putByte(opcode).putByte(index);
+            adjust(opcode < ISTORE ? 1 : -1);
+            if (index >= maxLocals)
+                maxLocals = index + 1;
+        }
+
+        public void iinc(int index, int increment) {
+            if (index > 0xFF || increment < Byte.MIN_VALUE || increment > Byte.MAX_VALUE)
+                code.putByte(WIDE).putByte(IINC).putShort(index).putShort(increment);
+            else
+                code.putByte(IINC).putByte(index).putByte(increment);
+        }
+
+        // NEW, CHECKCAST
+        public void typeInsn(int opcode, String internalName) {
+            code.putByte(opcode).putShort(classConst(internalName));
+            if (opcode == NEW)
+                adjust(1);
+        }
+
+        public void getStatic(String owner, String name, String descriptor) {
+            code.putByte(GETSTATIC).putShort(memberRef(CONSTANT_Fieldref, owner, name, descriptor));
+            adjust(1);
+        }
+
+        // INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC
+        public void methodInsn(int opcode, String owner, String name, String descriptor) {
+            code.putByte(opcode).putShort(memberRef(CONSTANT_Methodref, owner, name, descriptor));
+            int[] sizes = argAndReturnSizes(descriptor);
+            adjust(-sizes[0] - (opcode == INVOKESTATIC ? 0 : 1) + sizes[1]);
+        }
+
+        // conditional jumps and GOTO
+        public void jump(int opcode, Label label) {
+            int pos = code.length;
+            code.putByte(opcode);
+            if (opcode == IFEQ || opcode == IFNE || opcode == IFLT || opcode == IFGE || opcode == IFGT || opcode == IFLE)
+                adjust(-1);
+            else if (opcode != GOTO)
+                adjust(-2);
+            if (label.stack < 0)
+                label.stack = stack;
+            if (label.position >= 0)
+                code.putShort(branchOffset(label.position - pos));
+            else {
+                label.refs.add(new int[] { pos, code.length });
+                code.putShort(0);
+            }
+            if (opcode == GOTO)
+                stack = 0;
+        }
+
+        // branch offsets are signed 16 bit, forward and backward
+        private int branchOffset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                throw new IllegalStateException("generated method too large: branch offset " + offset + " does not fit in 16 bits");
+            return offset;
+        }
+
+        public void mark(Label label) {
+            label.position = code.length;
+            for (int[] ref : label.refs)
+                code.putShortAt(ref[1], branchOffset(label.position - ref[0]));
+            label.refs.clear();
+            if (label.stack >= 0)
+                stack = label.stack;
+            else
+                label.stack = stack;
+        }
+
+        void write(ByteVector out, int codeAttribute) {
+            if (code.length > 0xFFFF)
+                throw new IllegalStateException("generated method too large");
+            out.putShort(access).putShort(name).putShort(descriptor);
+            out.putShort(1);
+            out.putShort(codeAttribute).putInt(12 + code.length);
+            out.putShort(maxStack).putShort(maxLocals).putInt(code.length);
+            out.putBytes(code.data, 0, code.length);
+            out.putShort(0); // exception table
+            out.putShort(0); // attributes
+        }
+    }
+
+}
@@ -1,6 +1,8 @@
 package edu.ufl.cise.plc;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.platform.console.shadow.picocli.CommandLine.Spec.Target;
 
@@ -34,25 +36,33 @@ import edu.ufl.cise.plc.ast.Types.Type;
 
 public class CodeGenVisitor implements ASTVisitor {
     String pkgName;
-    StringBuilder imports;
+    // the classes the generated code uses, in the order they were first needed
+    final Set<String> imports = new LinkedHashSet<>();
+    int tempCount;
+    // methods generated for fused image expressions, added to the class after apply
+    StringBuilder fusedMethods = new StringBuilder();
+    int fusedCount;
+    // the scalar operands of the fused expressions, which are fields of the kernel, and the kernels themselves
+    StringBuilder kernelFields = new StringBuilder();
+    StringBuilder kernels = new StringBuilder();
+    String className;
 
     public CodeGenVisitor (String packageName) {
         pkgName = packageName;
-        imports = new StringBuilder();
     }
 
     @Override
     public Object visitBooleanLitExpr(BooleanLitExpr booleanLitExpr, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
         sb.append(booleanLitExpr.getValue());
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
         sb.append("\"\"\"\n" + stringLitExpr.getValue() + "\"\"\"");
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -60,8 +70,7 @@ public class CodeGenVisitor implements ASTVisitor {
         StringBuilder sb = (StringBuilder) arg;
         if (intLitExpr.getCoerceTo() != null && intLitExpr.getCoerceTo() != Type.INT) {
             if (intLitExpr.getCoerceTo() == Type.COLOR) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+                imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
                 sb.append("new ColorTuple(");
             }
             else
@@ -70,7 +79,7 @@ public class CodeGenVisitor implements ASTVisitor {
         sb.append(intLitExpr.getValue());
         if (intLitExpr.getCoerceTo() == Type.COLOR)
             sb.append(")");
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -78,8 +87,7 @@ public class CodeGenVisitor implements ASTVisitor {
         StringBuilder sb = (StringBuilder) arg;
         if (floatLitExpr.getCoerceTo() != null && floatLitExpr.getCoerceTo() != Type.FLOAT) {
             if (floatLitExpr.getCoerceTo() == Type.COLORFLOAT) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTupleFloat;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ColorTupleFloat;\n");
+                imports.add("edu.ufl.cise.plc.runtime.ColorTupleFloat");
                 sb.append("new ColorTupleFloat(");
             }
             else
@@ -88,28 +96,24 @@ public class CodeGenVisitor implements ASTVisitor {
         sb.append(floatLitExpr.getValue() + "f");
         if (floatLitExpr.getCoerceTo() == Type.COLORFLOAT)
             sb.append(")");
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitColorConstExpr(ColorConstExpr colorConstExpr, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
-        if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-            imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
-        if (!imports.toString().contains("java.awt.Color;"))
-            imports.append("import java.awt.Color;\n");
+        imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
+        imports.add("java.awt.Color");
         sb.append("ColorTuple.unpack(Color." + colorConstExpr.getText() + ".getRGB())");
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitConsoleExpr(ConsoleExpr consoleExpr, Object arg) throws Exception {
-        if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ConsoleIO;"))
-            imports.append("import edu.ufl.cise.plc.runtime.ConsoleIO;\n");
+        imports.add("edu.ufl.cise.plc.runtime.ConsoleIO");
         StringBuilder sb = (StringBuilder) arg;
         if (consoleExpr.getCoerceTo() == Type.COLOR) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
             sb.append("new ColorTuple(");
         }
         else if (consoleExpr.getCoerceTo() == Type.STRING)
@@ -120,18 +124,16 @@ public class CodeGenVisitor implements ASTVisitor {
         sb.append(consoleExpr.getCoerceTo().toString().toLowerCase() + ":\")");
         if (consoleExpr.getCoerceTo() == Type.COLOR)
             sb.append(")");
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitColorExpr(ColorExpr colorExpr, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
-        if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-            imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+        imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
         sb.append("new ColorTuple(");
         if (colorExpr.getType() == Type.COLORFLOAT) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTupleFloat;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ColorTupleFloat;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ColorTupleFloat");
             sb.append("new ColorTupleFloat(");
         }
         colorExpr.getRed().visit(this, sb);
@@ -142,23 +144,23 @@ public class CodeGenVisitor implements ASTVisitor {
         sb.append(")");
         if (colorExpr.getType() == Type.COLORFLOAT)
             sb.append(")");
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitUnaryExpr(UnaryExpr unaryExpression, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
+        if (ImageFusion.shouldFuse(unaryExpression))
+            return appendFused(sb, unaryExpression);
         if (unaryExpression.getOp().getKind() == Kind.COLOR_OP) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
             if (unaryExpression.getExpr().getType() == Type.INT || unaryExpression.getExpr().getType() == Type.COLOR) {
                 sb.append("ColorTuple." + unaryExpression.getOp().getText() + "(");
                 unaryExpression.getExpr().visit(this, sb);
                 sb.append(")");
             }
             else if (unaryExpression.getExpr().getType() == Type.IMAGE) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+                imports.add("edu.ufl.cise.plc.runtime.ImageOps");
                 sb.append("ImageOps.extract");
                 if (unaryExpression.getOp().getText().equals("getRed"))
                     sb.append("Red(");
@@ -179,7 +181,7 @@ public class CodeGenVisitor implements ASTVisitor {
             unaryExpression.getExpr().visit(this, sb);
             sb.append(")");
         }
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -187,9 +189,10 @@ public class CodeGenVisitor implements ASTVisitor {
         StringBuilder sb = (StringBuilder) arg;
         Expr left = binaryExpr.getLeft();
         Expr right = binaryExpr.getRight();
+        if (ImageFusion.shouldFuse(binaryExpr))
+            return appendFused(sb, binaryExpr);
         if ((left.getCoerceTo() == Type.IMAGE || left.getType() == Type.IMAGE) && (right.getType() == Type.IMAGE || right.getCoerceTo() == Type.IMAGE)) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ImageOps");
             if (binaryExpr.getOp().getKind() == Kind.EQUALS || binaryExpr.getOp().getKind() == Kind.NOT_EQUALS) {
                 left.visit(this, sb);
                 sb.append(" == ");
@@ -204,8 +207,7 @@ public class CodeGenVisitor implements ASTVisitor {
             }
         }
         else if ((left.getCoerceTo() == Type.COLORFLOAT || left.getCoerceTo() == Type.COLOR || left.getType() == Type.COLOR) && (right.getType() == Type.COLOR || right.getCoerceTo() == Type.COLOR || right.getCoerceTo() == Type.COLORFLOAT)) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ImageOps");
             if (binaryExpr.getOp().getKind() == Kind.EQUALS || binaryExpr.getOp().getKind() == Kind.NOT_EQUALS)
                 sb.append("(ImageOps.binaryTupleOp(ImageOps.BoolOP.");
             else
@@ -217,15 +219,12 @@ public class CodeGenVisitor implements ASTVisitor {
             sb.append("))");
         }
         else if (left.getType() == Type.IMAGE && right.getType() == Type.COLOR) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ImageOps");
+            imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
             sb.append("(ImageOps.binaryImageScalarOp(ImageOps.OP." + binaryExpr.getOp().getKind().toString() + ", " + left.getText() + ", ColorTuple.makePackedColor(ColorTuple.getRed(" + right.getText() + "), ColorTuple.getGreen(" + right.getText() + "), ColorTuple.getBlue(" + right.getText() + ")))");
         }
         else if (left.getType() == Type.IMAGE && right.getType() == Type.INT) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ImageOps");
             sb.append("(ImageOps.binaryImageScalarOp(ImageOps.OP." + binaryExpr.getOp().getKind().toString() + ", " + left.getText() + ", " + right.getText() + "))");
         }
         else {
@@ -233,8 +232,7 @@ public class CodeGenVisitor implements ASTVisitor {
                 if (binaryExpr.getCoerceTo() == Type.STRING)
                     sb.append("(String)");
                 else if (binaryExpr.getCoerceTo() == Type.COLOR) {
-                    if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                        imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+                    imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
                     sb.append("new ColorTuple(");
                 }
                 else
@@ -263,7 +261,7 @@ public class CodeGenVisitor implements ASTVisitor {
             if (binaryExpr.getCoerceTo() == Type.COLOR)
                 sb.append(")");
         }
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -275,8 +273,7 @@ public class CodeGenVisitor implements ASTVisitor {
             else if (identExpr.getCoerceTo() == Type.COLOR)
                 sb.append("");
             else if (identExpr.getCoerceTo() == Type.COLORFLOAT) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTupleFloat;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ColorTupleFloat;\n");
+                imports.add("edu.ufl.cise.plc.runtime.ColorTupleFloat");
                 sb.append("new ColorTupleFloat(");
             }
             else
@@ -285,7 +282,7 @@ public class CodeGenVisitor implements ASTVisitor {
         sb.append(identExpr.getText());
         if (identExpr.getCoerceTo() == Type.COLORFLOAT)
             sb.append(")");
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -298,7 +295,7 @@ public class CodeGenVisitor implements ASTVisitor {
         sb.append(" : ");
         conditionalExpr.getFalseCase().visit(this, sb);
         sb.append(")");
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -307,7 +304,7 @@ public class CodeGenVisitor implements ASTVisitor {
         dimension.getWidth().visit(this, sb);
         sb.append(", ");
         dimension.getHeight().visit(this, sb);
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -316,7 +313,162 @@ public class CodeGenVisitor implements ASTVisitor {
         pixelSelector.getX().visit(this, sb);
         sb.append(", ");
         pixelSelector.getY().visit(this, sb);
-        return sb.toString();
+        return null;
+    }
+
+    // Scalar replacement of colors in pixel loops.  lowerColor appends to prelude the statements that
+    // compute the red, green and blue components of a color expression into int locals, and returns the
+    // names of the locals.  Components keep the ColorTuple semantics: they are not truncated until the
+    // pixel is packed.  Returns null if the expression cannot be lowered; nothing is appended then except
+    // imports, and the ColorTuple form is used instead.
+    private String[] lowerColor(Expr e, StringBuilder prelude) throws Exception {
+        Type coerceTo = e.getCoerceTo();
+        if (e instanceof UnaryExprPostfix postfix && (coerceTo == null || coerceTo == Type.COLOR)) {
+            StringBuilder selector = new StringBuilder();
+            postfix.getSelector().visit(this, selector);
+            String pixel = newTemp();
+            prelude.append("\t\tint " + pixel + " = " + postfix.getText() + ".getRGB(" + selector + ");\n");
+            return declareChannels(prelude, "(" + pixel + " >> 16 & 0xFF)", "(" + pixel + " >> 8 & 0xFF)", "(" + pixel + " & 0xFF)");
+        }
+        if (coerceTo != null && coerceTo != Type.COLOR)
+            return null;
+        if (e instanceof IntLitExpr intLit && coerceTo == Type.COLOR) {
+            String value = String.valueOf(intLit.getValue());
+            return new String[] { value, value, value };
+        }
+        if (e.getType() != Type.COLOR && e.getType() != Type.COLORFLOAT)
+            return null;
+        if (e instanceof ColorConstExpr) {
+            int rgb = ((java.awt.Color) java.awt.Color.class.getField(e.getText()).get(null)).getRGB();
+            return new String[] { String.valueOf(rgb >> 16 & 0xFF), String.valueOf(rgb >> 8 & 0xFF), String.valueOf(rgb & 0xFF) };
+        }
+        if (e instanceof IdentExpr && e.getType() == Type.COLOR)
+            return new String[] { e.getText() + ".red", e.getText() + ".green", e.getText() + ".blue" };
+        if (e instanceof ColorExpr colorExpr) {
+            // a float color is converted to a ColorTuple by rounding its components
+            boolean isFloat = colorExpr.getType() == Type.COLORFLOAT;
+            String[] channels = new String[3];
+            Expr[] components = { colorExpr.getRed(), colorExpr.getGreen(), colorExpr.getBlue() };
+            for (int i = 0; i < 3; i++) {
+                StringBuilder component = new StringBuilder();
+                components[i].visit(this, component);
+                channels[i] = newTemp();
+                if (isFloat)
+                    prelude.append("\t\tint " + channels[i] + " = Math.round((float) (" + component + "));\n");
+                else
+                    prelude.append("\t\tint " + channels[i] + " = " + component + ";\n");
+            }
+            return channels;
+        }
+        if (e instanceof BinaryExpr binaryExpr && e.getType() == Type.COLOR) {
+            Kind op = binaryExpr.getOp().getKind();
+            if (op != Kind.PLUS && op != Kind.MINUS && op != Kind.TIMES && op != Kind.DIV && op != Kind.MOD)
+                return null;
+            StringBuilder operands = new StringBuilder();
+            String[] left = lowerColor(binaryExpr.getLeft(), operands);
+            String[] right = left == null ? null : lowerColor(binaryExpr.getRight(), operands);
+            if (right == null)
+                return null;
+            prelude.append(operands);
+            String text = " " + binaryExpr.getOp().getText() + " ";
+            return declareChannels(prelude, left[0] + text + right[0], left[1] + text + right[1], left[2] + text + right[2]);
+        }
+        if (e instanceof ConditionalExpr conditional && e.getType() == Type.COLOR) {
+            StringBuilder trueCase = new StringBuilder();
+            StringBuilder falseCase = new StringBuilder();
+            String[] t = lowerColor(conditional.getTrueCase(), trueCase);
+            String[] f = t == null ? null : lowerColor(conditional.getFalseCase(), falseCase);
+            if (f == null)
+                return null;
+            StringBuilder condition = new StringBuilder();
+            conditional.getCondition().visit(this, condition);
+            String[] channels = { newTemp(), newTemp(), newTemp() };
+            prelude.append("\t\tint " + channels[0] + ", " + channels[1] + ", " + channels[2] + ";\n");
+            prelude.append("\t\tif (" + condition + ") {\n" + trueCase);
+            for (int i = 0; i < 3; i++)
+                prelude.append("\t\t" + channels[i] + " = " + t[i] + ";\n");
+            prelude.append("\t\t} else {\n" + falseCase);
+            for (int i = 0; i < 3; i++)
+                prelude.append("\t\t" + channels[i] + " = " + f[i] + ";\n");
+            prelude.append("\t\t}\n");
+            return channels;
+        }
+        return null;
+    }
+
+    private String[] declareChannels(StringBuilder prelude, String red, String green, String blue) {
+        String[] channels = { newTemp(), newTemp(), newTemp() };
+        prelude.append("\t\tint " + channels[0] + " = " + red + ";\n");
+        prelude.append("\t\tint " + channels[1] + " = " + green + ";\n");
+        prelude.append("\t\tint " + channels[2] + " = " + blue + ";\n");
+        return channels;
+    }
+
+    // names of compiler generated locals start with $$ so they do not clash with program variables
+    private String newTemp() {
+        return "$$c" + tempCount++;
+    }
+
+    // Stores the color given by expr in pixel (x, y) of the named image, packing it once if it can be lowered.
+    private void appendSetColor(StringBuilder sb, String name, Expr expr) throws Exception {
+        StringBuilder prelude = new StringBuilder();
+        String[] channels = lowerColor(expr, prelude);
+        if (channels == null) {
+            sb.append("\t\tImageOps.setColor(" + name + ", x, y, ");
+            expr.visit(this, sb);
+            sb.append(");\n");
+            return;
+        }
+        imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
+        sb.append(prelude);
+        sb.append("\t\tImageOps.setColor(" + name + ", x, y, ColorTuple.makePackedColor(" + channels[0] + ", " + channels[1] + ", " + channels[2] + "));\n");
+    }
+
+    // Computes a tree of image operations in one pass over the pixels, without intermediate images.
+    // The loop goes in a generated method whose parameters are the source images and scalar operands.
+    // The generated class is the kernel passed to ImageOps.fuse, with one case of its apply(int[][], int)
+    // per fused expression and the scalar operands in fields, rather than a lambda: a lambda would be
+    // compiled to a class that refers to the generated class by name, which cannot be done once the
+    // class is loaded as a hidden class.
+    private String appendFused(StringBuilder sb, Expr root) throws Exception {
+        imports.add("edu.ufl.cise.plc.runtime.ImageOps");
+        imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
+        imports.add("java.awt.image.BufferedImage");
+        ImageFusion fusion = new ImageFusion(root);
+        int kernel = fusedCount++;
+        String name = "$$fused" + kernel;
+        StringBuilder method = new StringBuilder();
+        method.append("\tprivate static BufferedImage " + name + "(" + String.join(", ", fusion.parameters) + ") {\n");
+        method.append("\t\t" + className + " $$kernel = new " + className + "(" + kernel + ");\n");
+        kernels.append(kernel == 0 ? "" : "\t\t}\n").append("\t\tcase " + kernel + ": {\n");
+        for (String parameter : fusion.parameters) {
+            if (parameter.startsWith("BufferedImage "))
+                continue;
+            String scalar = parameter.substring(parameter.indexOf(' ') + 1);
+            String field = name + "_" + scalar.substring(2);
+            kernelFields.append("\t" + parameter.substring(0, parameter.indexOf(' ')) + " " + field + ";\n");
+            method.append("\t\t$$kernel." + field + " = " + scalar + ";\n");
+            kernels.append("\t\t\t" + parameter + " = " + field + ";\n");
+        }
+        method.append("\t\treturn ImageOps.fuse($$kernel, " + String.join(", ", fusion.sources) + ");\n\t}\n");
+        kernels.append(fusion.body);
+        kernels.append("\t\t\treturn " + fusion.result + ";\n");
+        sb.append(name + "(");
+        for (int i = 0; i < fusion.operands.size(); i++) {
+            if (i > 0)
+                sb.append(", ");
+            fusion.operands.get(i).visit(this, sb);
+        }
+        sb.append(")");
+        fusedMethods.append(method);
+        return null;
+    }
+
+    // Opens the loops over every pixel of the named image.  y is the outer loop so that pixels are
+    // visited in the row-major order they are stored in.
+    private void appendPixelLoops(StringBuilder sb, String name) {
+        sb.append("for (int y = 0; y < " + name + ".getHeight(); y++) {\n");
+        sb.append("\tfor (int x = 0; x < " + name + ".getWidth(); x++) {\n");
     }
 
     @Override
@@ -326,8 +478,7 @@ public class CodeGenVisitor implements ASTVisitor {
         if (assignmentStatement.getTargetDec().getType() == Type.IMAGE) {
             if (expr.getType() == Type.IMAGE) {
                 if (assignmentStatement.getTargetDec().getDim() != null) {
-                    if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                        imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+                    imports.add("edu.ufl.cise.plc.runtime.ImageOps");
                     sb.append(assignmentStatement.getName() + " = ImageOps.resize(");
                     expr.visit(this, sb);
                     sb.append(", ");
@@ -338,33 +489,26 @@ public class CodeGenVisitor implements ASTVisitor {
                 }
             }
             if ((expr.getType() == Type.COLOR || expr.getCoerceTo() == Type.COLOR) && assignmentStatement.getTargetDec().getDim() != null) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+                imports.add("edu.ufl.cise.plc.runtime.ImageOps");
                 //String x = assignmentStatement.getSelector().getX().getText();
                 //String y = assignmentStatement.getSelector().getY().getText();
-                sb.append("for (int x = 0; x < " + assignmentStatement.getName() + ".getWidth(); x++) {\n");
-                sb.append("\tfor (int y = 0; y < " + assignmentStatement.getName() + ".getHeight(); y++) {\n");
-                sb.append("\t\tImageOps.setColor(" + assignmentStatement.getName() + ", x, y, ");
-                expr.visit(this, sb);
-                sb.append(");\n\t}\n}\n");
+                appendPixelLoops(sb, assignmentStatement.getName());
+                appendSetColor(sb, assignmentStatement.getName(), expr);
+                sb.append("\t}\n}\n");
             }
             else if ((expr.getType() == Type.INT || expr.getCoerceTo() == Type.INT) && assignmentStatement.getTargetDec().getDim() != null) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+                imports.add("edu.ufl.cise.plc.runtime.ImageOps");
+                imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
                 //String x = assignmentStatement.getSelector().getX().getText();
                 //String y = assignmentStatement.getSelector().getY().getText();
-                sb.append("for (int x = 0; x < " + assignmentStatement.getName() + ".getWidth(); x++) {\n");
-                sb.append("\tfor (int y = 0; y < " + assignmentStatement.getName() + ".getHeight(); y++) {\n");
+                appendPixelLoops(sb, assignmentStatement.getName());
                 sb.append("\t\tImageOps.setColor(" + assignmentStatement.getName() + ", x, y, ColorTuple.unpack(ColorTuple.truncate(");
                 expr.visit(this, sb);
                 sb.append(")));\n\t}\n}\n");
             }
             else if (assignmentStatement.getTargetDec().getDim() == null) {
                 if (expr instanceof IdentExpr && expr.getType() == Type.IMAGE) {
-                    if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                        imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+                    imports.add("edu.ufl.cise.plc.runtime.ImageOps");
                     sb.append(assignmentStatement.getName() + " = ImageOps.clone(");
                     expr.visit(this, sb);
                     sb.append(");\n");
@@ -376,25 +520,22 @@ public class CodeGenVisitor implements ASTVisitor {
             expr.visit(this, sb);
             sb.append(";\n");
         }
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitWriteStatement(WriteStatement writeStatement, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
-        if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ConsoleIO;"))
-            imports.append("import edu.ufl.cise.plc.runtime.ConsoleIO;\n");
+        imports.add("edu.ufl.cise.plc.runtime.ConsoleIO");
         if (writeStatement.getSource().getType() == Type.IMAGE && writeStatement.getDest().getType() == Type.CONSOLE)
             sb.append("ConsoleIO.displayImageOnScreen(" + writeStatement.getSource().getText() + ");\n");
         if (writeStatement.getDest().getType() == Type.STRING) {
             if (writeStatement.getSource().getType() == Type.IMAGE) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.FileURLIO;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.FileURLIO;\n");
+                imports.add("edu.ufl.cise.plc.runtime.FileURLIO");
                 sb.append("FileURLIO.writeImage(" + writeStatement.getSource().getText() + ", " + writeStatement.getDest().getText() + ");\n");
             }
             else {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.FileURLIO;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.FileURLIO;\n");
+                imports.add("edu.ufl.cise.plc.runtime.FileURLIO");
                 sb.append("FileURLIO.writeValue(" + writeStatement.getSource().getText() + ", " + writeStatement.getDest().getText() + ");\n");
             }
         }
@@ -403,17 +544,15 @@ public class CodeGenVisitor implements ASTVisitor {
             writeStatement.getSource().visit(this, sb);
             sb.append(");\n");
         }
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitReadStatement(ReadStatement readStatement, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
-        if (!imports.toString().contains("edu.ufl.cise.plc.runtime.FileURLIO;"))
-            imports.append("import edu.ufl.cise.plc.runtime.FileURLIO;\n");
+        imports.add("edu.ufl.cise.plc.runtime.FileURLIO");
         if (readStatement.getTargetDec().getType() == Type.IMAGE) {
-            if (!imports.toString().contains("java.awt.image.BufferedImage;"))
-                imports.append("import java.awt.image.BufferedImage;\n");
+            imports.add("java.awt.image.BufferedImage");
             if (!readStatement.getTargetDec().isInitialized())
                 sb.append("BufferedImage ");
             sb.append(readStatement.getName() + " = FileURLIO.readImage(");
@@ -440,17 +579,16 @@ public class CodeGenVisitor implements ASTVisitor {
                 sb.append(")");
         }
         sb.append(";\n");
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitProgram(Program program, Object arg) throws Exception {
-        StringBuilder sb = new StringBuilder("");
-        if (pkgName.length() != 0) {
-            sb.append("package ");
-            sb.append(pkgName + ";\n");
-        }
-        sb.append("public class " + program.getName() + "{\n\tpublic static ");
+        // the class is emitted after apply, once the imports it needs are known
+        List<ASTNode> decsAndStatements = program.getDecsAndStatements();
+        className = program.getName();
+        StringBuilder sb = new StringBuilder(256 + 64 * decsAndStatements.size());
+        sb.append("\tpublic static ");
         if (program.getReturnType() == Type.STRING)
             sb.append("String apply(");
         else if (program.getReturnType() == Type.IMAGE)
@@ -468,15 +606,29 @@ public class CodeGenVisitor implements ASTVisitor {
             sb.deleteCharAt(sb.length() - 1);
         sb.append(") {\n");
         sb.append("\t\t");
-        List<ASTNode> decsAndStatements = program.getDecsAndStatements();
         for (ASTNode node : decsAndStatements)
             node.visit(this, sb);
-        
-        sb.append("\t}\n}\n");
-        // imports
-        int index = sb.indexOf("public class");
-        sb.insert(index - 1, imports);
-        return sb.toString();
+        sb.append("\t}\n").append(fusedMethods);
+        if (fusedCount > 0) {
+            // the kernel of the fused expressions; the last case is the default so every path returns
+            int last = kernels.lastIndexOf("\t\tcase ");
+            kernels.replace(last, kernels.indexOf("\n", last), "\t\tdefault: {");
+            sb.append("\tfinal int $$kernel;\n").append(kernelFields);
+            sb.append("\t" + className + "(int kernel) {\n\t\t$$kernel = kernel;\n\t}\n");
+            sb.append("\tpublic int apply(int[][] p, int i) {\n\t\tswitch ($$kernel) {\n");
+            sb.append(kernels).append("\t\t}\n\t\t}\n\t}\n");
+        }
+        sb.append("}\n");
+
+        StringBuilder header = new StringBuilder(pkgName.length() + 40 * imports.size() + 64);
+        if (pkgName.length() != 0)
+            header.append("package ").append(pkgName).append(";\n");
+        for (String name : imports)
+            header.append("import ").append(name).append(";\n");
+        header.append("public class " + className);
+        if (fusedCount > 0)
+            header.append(" implements ImageOps.PixelKernel");
+        return header.append("{\n").append(sb).toString();
     }
 
     @Override
@@ -488,29 +640,26 @@ public class CodeGenVisitor implements ASTVisitor {
         else if (nameDef.getType() == Type.BOOLEAN)
             sb.append("Boolean " + nameDef.getName());
         else if (nameDef.getType() == Type.COLOR) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
             sb.append("ColorTuple " + nameDef.getName());
         }
         else if (nameDef.getType() == Type.IMAGE) {
-            if (!imports.toString().contains("java.awt.image.BufferedImage;"))
-                imports.append("import java.awt.image.BufferedImage;\n");
+            imports.add("java.awt.image.BufferedImage");
             sb.append("BufferedImage " + nameDef.getName());
         }
         else
             sb.append(type.toLowerCase() + " " + nameDef.getName());
-        return sb.toString();
+        return null;
     }
 
     @Override
     public Object visitNameDefWithDim(NameDefWithDim nameDefWithDim, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
-        if (!imports.toString().contains("java.awt.image.BufferedImage;"))
-            imports.append("import java.awt.image.BufferedImage;\n");
+        imports.add("java.awt.image.BufferedImage");
         sb.append("BufferedImage " + nameDefWithDim.getName() + " = new BufferedImage(");
         nameDefWithDim.getDim().visit(this, sb);
         sb.append(", BufferedImage.TYPE_INT_RGB)");
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -520,7 +669,7 @@ public class CodeGenVisitor implements ASTVisitor {
         Expr expr = returnStatement.getExpr();
         expr.visit(this, sb);
         sb.append(";\n");
-        return sb.toString();
+        return null;
     }
 
     @Override
@@ -533,26 +682,21 @@ public class CodeGenVisitor implements ASTVisitor {
             else if (nameDef instanceof NameDefWithDim && declaration.getOp() != null && (declaration.getExpr().getType() == Type.COLOR || declaration.getExpr().getType() == Type.INT || declaration.getExpr().getType() == Type.COLORFLOAT)){
                 nameDef.visit(this, sb);
                 sb.append(";\n");
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+                imports.add("edu.ufl.cise.plc.runtime.ImageOps");
                 //String x = assignmentStatement.getSelector().getX().getText();
                 //String y = assignmentStatement.getSelector().getY().getText();
-                sb.append("for (int x = 0; x < " + declaration.getName() + ".getWidth(); x++) {\n");
-                sb.append("\tfor (int y = 0; y < " + declaration.getName() + ".getHeight(); y++) {\n");
-                sb.append("\t\tImageOps.setColor(" + declaration.getName() + ", x, y, ");
-                declaration.getExpr().visit(this, sb);
-                sb.append(");\n\t}\n}\n");
-                return sb.toString();
+                appendPixelLoops(sb, declaration.getName());
+                appendSetColor(sb, declaration.getName(), declaration.getExpr());
+                sb.append("\t}\n}\n");
+                return null;
             }
             else {
-                if (!imports.toString().contains("java.awt.image.BufferedImage;"))
-                    imports.append("import java.awt.image.BufferedImage;\n");
+                imports.add("java.awt.image.BufferedImage");
                 sb.append("BufferedImage " + nameDef.getName());
             }
         }
         else if (nameDef.getType() == Type.COLOR) {
-            if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-                imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+            imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
             sb.append("ColorTuple " + nameDef.getName());
         }
         else
@@ -560,15 +704,13 @@ public class CodeGenVisitor implements ASTVisitor {
         
         if (declaration.getOp() != null) {
             if (nameDef.getType() == Type.IMAGE) {
-                if (!imports.toString().contains("edu.ufl.cise.plc.runtime.FileURLIO;"))
-                    imports.append("import edu.ufl.cise.plc.runtime.FileURLIO;\n");
+                imports.add("edu.ufl.cise.plc.runtime.FileURLIO");
                 if (!(declaration.getExpr() instanceof BinaryExpr) && declaration.getExpr().getType() != Type.IMAGE)
                     sb.append(" = FileURLIO.readImage(");
                 else
                     sb.append(" = ");
                 if (nameDef instanceof NameDefWithDim && declaration.getExpr().getType() == Type.IMAGE) {
-                    if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ImageOps;"))
-                        imports.append("import edu.ufl.cise.plc.runtime.ImageOps;\n");
+                    imports.add("edu.ufl.cise.plc.runtime.ImageOps");
                     sb.append("ImageOps.resize(");
                 }
                 declaration.getExpr().visit(this, sb);
@@ -630,19 +772,18 @@ public class CodeGenVisitor implements ASTVisitor {
         }
         else
             sb.append(";\n");
-        return sb.toString();
+        return null;
     }
 
 
     @Override
     public Object visitUnaryExprPostfix(UnaryExprPostfix unaryExprPostfix, Object arg) throws Exception {
         StringBuilder sb = (StringBuilder) arg;
-        if (!imports.toString().contains("edu.ufl.cise.plc.runtime.ColorTuple;"))
-            imports.append("import edu.ufl.cise.plc.runtime.ColorTuple;\n");
+        imports.add("edu.ufl.cise.plc.runtime.ColorTuple");
         sb.append("ColorTuple.unpack(" + unaryExprPostfix.getText() + ".getRGB(");
         unaryExprPostfix.getSelector().visit(this, sb);
         sb.append("))");
-        return sb.toString();
+        return null;
     }
     
 }
@@ -1,5 +1,11 @@
 package edu.ufl.cise.plc;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
 import edu.ufl.cise.plc.ast.ASTVisitor;
 
 //This class eliminates hard coded dependencies on the actual Lexer class.  You can call your lexer whatever you
@@ -7,6 +13,20 @@ import edu.ufl.cise.plc.ast.ASTVisitor;
 
 
 public class CompilerComponentFactory {
+
+	//Back ends that turn a decorated AST into a class file.  JAVA_SOURCE generates Java source and runs javac,
+	//BYTECODE emits the class file directly.  The default can be chosen with -Dplc.backend=BYTECODE.
+	public enum Backend { JAVA_SOURCE, BYTECODE }
+
+	private static volatile Backend backend = Backend.valueOf(System.getProperty("plc.backend", Backend.JAVA_SOURCE.name()));
+
+	public static Backend getBackend() {
+		return backend;
+	}
+
+	public static void setBackend(Backend b) {
+		backend = b;
+	}
 	
 	//This method will be invoked to get an instance of your lexer.  
 	public static ILexer getLexer(String input) {
@@ -16,15 +36,69 @@ public class CompilerComponentFactory {
 				//"CompilerComponentFactory must be modified to return an instance of your lexer");
 	}
 
+	//Lexers that read the program as they go instead of from a String, so it is never held in memory all at once.
+	public static ILexer getLexer(Reader input) {
+		return new Lexer(input);
+	}
+
+	public static ILexer getLexer(CharBuffer input) {
+		return new Lexer(input);
+	}
+
+	//The file is memory mapped and decoded as UTF-8
+	public static ILexer getLexer(Path file) throws IOException {
+		return Lexer.fromFile(file);
+	}
+
 	public static IParser getParser(String input) {
 		return new Parser(input);
 	}
 
+	//Parsers of a program read as it goes.  The parser lexes the whole program into a TokenBuffer first, which
+	//keeps all of its text, so unlike the lexers these hold the program in memory at once, in a single char[] as
+	//large as it, grown by doubling as the program is read.  The AST they build is about as large anyway.
+	public static IParser getParser(Reader input) {
+		return new Parser(getLexer(input));
+	}
+
+	public static IParser getParser(CharBuffer input) {
+		return new Parser(getLexer(input));
+	}
+
+	public static IParser getParser(Path file) throws IOException {
+		return new Parser(getLexer(file));
+	}
+
+	//Keeps the AST of a program that is being edited up to date, parsing again only the edited region
+	public static IncrementalParser getIncrementalParser(String input) {
+		return new IncrementalParser(input);
+	}
+
 	public static TypeCheckVisitor getTypeChecker() {
 		return new TypeCheckVisitor();
 	}
 
+	//Recovery mode: instead of stopping at the first error, every error is added to errors.  The parser returns
+	//the declarations and statements that parsed, so they can be type checked.
+	public static IParser getParser(String input, List<PLCException> errors) {
+		return new Parser(input, errors);
+	}
+
+	public static TypeCheckVisitor getTypeChecker(List<PLCException> errors) {
+		return new TypeCheckVisitor(errors);
+	}
+
 	public static ASTVisitor getCodeGenerator(String packageName) {
 		return new CodeGenVisitor(packageName);
 	}
+
+	//Each call to Interpreter.interpret needs its own instance
+	public static Interpreter getInterpreter() {
+		return new Interpreter();
+	}
+
+	//visitProgram on the returned visitor returns the class file as a byte[]
+	public static ASTVisitor getBytecodeGenerator(String packageName) {
+		return new BytecodeGenVisitor(packageName);
+	}
 }
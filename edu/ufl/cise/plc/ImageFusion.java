@@ -0,0 +1,118 @@
+package edu.ufl.cise.plc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.ufl.cise.plc.IToken.Kind;
+import edu.ufl.cise.plc.ast.BinaryExpr;
+import edu.ufl.cise.plc.ast.Expr;
+import edu.ufl.cise.plc.ast.UnaryExpr;
+import edu.ufl.cise.plc.ast.Types.Type;
+
+// Turns a tree of whole image operations into the body of a single loop over the pixels of the result.
+//
+// The operations are image op image, image op int, image op float and getRed/getGreen/getBlue of an
+// image, as type checked by TypeCheckVisitor.  Every other image valued subexpression is a source of
+// the loop, and the scalar operands are evaluated once, before the loop.  The body computes the packed
+// pixel of each operation from the packed pixels of its operands, truncating the components the way
+// storing them in an intermediate image would, so the result is the same as that of the nested
+// ImageOps calls without allocating the intermediate images.
+//
+// Sources and scalars are listed in the order the nested calls would evaluate them.  The body reads
+// source k at pixel index i as p[k][i], see ImageOps.fuse.
+class ImageFusion {
+    // a single operation gains nothing, the ImageOps method for it already makes one pass
+    static final int MIN_OPERATIONS = 2;
+
+    final List<Expr> operands = new ArrayList<>();
+    final List<String> parameters = new ArrayList<>();
+    final List<String> sources = new ArrayList<>();
+    final StringBuilder body = new StringBuilder();
+    final String result;
+    int temps;
+
+    ImageFusion(Expr root) {
+        result = pixel(root);
+    }
+
+    static boolean shouldFuse(Expr e) {
+        return isOperation(e) && countOperations(e) >= MIN_OPERATIONS;
+    }
+
+    static boolean isOperation(Expr e) {
+        if (e.getType() != Type.IMAGE || (e.getCoerceTo() != null && e.getCoerceTo() != Type.IMAGE))
+            return false;
+        if (e instanceof UnaryExpr unaryExpr)
+            return unaryExpr.getOp().getKind() == Kind.COLOR_OP && unaryExpr.getExpr().getType() == Type.IMAGE;
+        if (e instanceof BinaryExpr binaryExpr) {
+            Kind op = binaryExpr.getOp().getKind();
+            if (op != Kind.PLUS && op != Kind.MINUS && op != Kind.TIMES && op != Kind.DIV && op != Kind.MOD)
+                return false;
+            Expr right = binaryExpr.getRight();
+            Type rightType = right.getCoerceTo() != null ? right.getCoerceTo() : right.getType();
+            return binaryExpr.getLeft().getType() == Type.IMAGE && (rightType == Type.IMAGE || rightType == Type.INT || rightType == Type.FLOAT);
+        }
+        return false;
+    }
+
+    static int countOperations(Expr e) {
+        if (!isOperation(e))
+            return 0;
+        if (e instanceof UnaryExpr unaryExpr)
+            return 1 + countOperations(unaryExpr.getExpr());
+        BinaryExpr binaryExpr = (BinaryExpr) e;
+        return 1 + countOperations(binaryExpr.getLeft()) + countOperations(binaryExpr.getRight());
+    }
+
+    // Returns a Java int expression for the packed pixel of e at index i.
+    private String pixel(Expr e) {
+        if (!isOperation(e)) {
+            String name = "$$i" + sources.size();
+            parameters.add("BufferedImage " + name);
+            sources.add(name);
+            operands.add(e);
+            return "p[" + (sources.size() - 1) + "][i]";
+        }
+        if (e instanceof UnaryExpr unaryExpr) {
+            String mask = switch (unaryExpr.getOp().getText()) {
+                case "getRed" -> "ColorTuple.SELECT_RED";
+                case "getGreen" -> "ColorTuple.SELECT_GRN";
+                default -> "ColorTuple.SELECT_BLU";
+            };
+            return "(" + pixel(unaryExpr.getExpr()) + " & " + mask + ")";
+        }
+        BinaryExpr binaryExpr = (BinaryExpr) e;
+        String op = " " + binaryExpr.getOp().getText() + " ";
+        String left = local(pixel(binaryExpr.getLeft()));
+        Expr right = binaryExpr.getRight();
+        String[] channels = new String[3];
+        if (right.getType() == Type.IMAGE) {
+            String r = local(pixel(right));
+            for (int c = 0; c < 3; c++)
+                channels[c] = channel(left, c) + op + channel(r, c);
+        }
+        else {
+            String name = "$$k" + (operands.size() - sources.size());
+            boolean isFloat = (right.getCoerceTo() != null ? right.getCoerceTo() : right.getType()) == Type.FLOAT;
+            parameters.add((isFloat ? "float " : "int ") + name);
+            operands.add(right);
+            // as in ImageOps.binaryImageScalarOp, float components are rounded to the nearest int
+            for (int c = 0; c < 3; c++)
+                channels[c] = isFloat ? "Math.round((float) " + channel(left, c) + op + name + ")" : channel(left, c) + op + name;
+        }
+        return local("ColorTuple.makePackedColor(" + channels[0] + ", " + channels[1] + ", " + channels[2] + ")");
+    }
+
+    private static String channel(String pixel, int c) {
+        return "(" + pixel + (c == 0 ? " >> 16" : c == 1 ? " >> 8" : "") + " & 0xFF)";
+    }
+
+    // Stores a value that is used more than once in a local, so each pixel is read and computed once.
+    private String local(String value) {
+        if (value.startsWith("$$p"))
+            return value;
+        String name = "$$p" + temps++;
+        body.append("\t\t\tint " + name + " = " + value + ";\n");
+        return name;
+    }
+}
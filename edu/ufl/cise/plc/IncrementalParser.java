@@ -0,0 +1,345 @@
+package edu.ufl.cise.plc;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import edu.ufl.cise.plc.ast.ASTNode;
+import edu.ufl.cise.plc.ast.Program;
+
+// Keeps the AST of a program that is being edited up to date, e.g. for an editor that shows diagnostics as the
+// user types.
+//
+// After an edit the text is lexed again from the end of the last declaration or statement before the edit up to
+// the first declaration or statement after it that starts at the same place as before, and only the declarations
+// and statements in between are parsed again.  The others are shared with the previous AST.  Edits to the header
+// of the program, or right after it, which may extend its last token, are handled by parsing the whole program
+// again.
+//
+// The text is kept in a gap buffer, and the positions of the declarations and statements after the last edit are
+// kept relative to a shift shared by all of them in the same way, so an edit that moves them only changes the
+// shift.  Apart from copying the list of nodes for the new Program, the work for an edit depends on the size of
+// the edited region and its distance from the previous edit, not on the size of the program.
+//
+// A shared node reports its new source location, so an AST returned before an edit should not be used after it.
+public class IncrementalParser {
+    private static final int WINDOW = 256; // initial size of the window when lexing a region
+
+    // a top-level declaration or statement and where its tokens start and end in the text.  For the elements
+    // from gap on, start, end, line and endLine are relative to suffixChars and suffixLines.
+    private static final class Element {
+        final ASTNode node;
+        final Token.Shift shift; // shared by all of node's tokens
+        int start, line, column;
+        int end, endLine, endColumn;
+
+        Element(ASTNode node) {
+            this.node = node;
+            // the parser gives no node for some statements it does not recognize
+            shift = node == null ? new Token.Shift() : ((Token) node.getFirstToken()).shift;
+        }
+    }
+
+    private final GapText text;
+    private Program header; // null if the header did not parse
+    private int headerEnd, headerEndLine, headerEndColumn;
+    private final List<Element> elements = new ArrayList<>();
+    private final List<ASTNode> nodes = new ArrayList<>(); // the nodes of elements
+    private int gap; // elements from gap on have moved by suffixChars and suffixLines
+    private int suffixChars;
+    private int suffixLines;
+    private Token.Shift suffixShift = new Token.Shift(); // the outer shift of the tokens of those elements
+    private int unparsed = -1; // index of the element that follows text that did not parse, or -1
+    private Program program; // the last program that parsed
+
+    public IncrementalParser(String input) {
+        text = new GapText(input);
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    // Returns the AST of the last version of the text that parsed, or null
+    public Program getProgram() {
+        return program;
+    }
+
+    // Parses the whole text
+    public Program parse() throws PLCException {
+        header = null;
+        elements.clear();
+        nodes.clear();
+        gap = 0;
+        suffixChars = 0;
+        suffixLines = 0;
+        suffixShift = new Token.Shift();
+        unparsed = -1;
+        TokenBuffer tokens = new Lexer(text.toString()).tokenize();
+        Parser parser = new Parser(tokens);
+        parser.ends = new ArrayList<>();
+        parser.begin();
+        Program parsedHeader = parser.header();
+        int rparen = parser.ends.get(0);
+        header = parsedHeader;
+        headerEnd = tokens.start(rparen) + tokens.length(rparen);
+        headerEndLine = tokens.line(rparen);
+        headerEndColumn = tokens.column(rparen) + tokens.length(rparen);
+        List<ASTNode> parsed = new ArrayList<>();
+        try {
+            parser.decsAndStatements(parsed);
+        } catch (PLCException e) {
+            replace(0, 0, parsed, parser.ends.subList(1, parsed.size() + 1), tokens, 0, rparen + 1, 0, 0);
+            unparsed = parsed.size();
+            throw e;
+        }
+        replace(0, 0, parsed, parser.ends.subList(1, parser.ends.size()), tokens, 0, rparen + 1, 0, 0);
+        return program = program();
+    }
+
+    // Replaces the length chars at offset by replacement and returns the AST of the new text.  If the new text
+    // does not parse, throws the exception that parsing all of it would throw.
+    public Program edit(int offset, int length, String replacement) throws PLCException {
+        Objects.checkFromIndexSize(offset, length, text.length());
+        text.replace(offset, length, replacement);
+        if (header == null || offset <= headerEnd)
+            return parse();
+        // the elements from the first that ends after the edit starts, up to the first that starts after the
+        // removed chars, are lexed again, together with any text that did not parse before
+        int from = firstEndingAfter(offset);
+        int kept = firstStartingAt(offset + length);
+        if (unparsed >= 0) {
+            from = Math.min(from, unparsed);
+            kept = Math.max(kept, unparsed);
+        }
+        return reparse(from, kept, replacement.length() - length);
+    }
+
+    // Lexes and parses the text from the end of element from - 1 to the first element, from kept on, whose
+    // first token is still lexed at the same place, now delta chars away.  That element and the ones after it
+    // are kept.
+    private Program reparse(int from, int kept, int delta) throws PLCException {
+        int regionStart = from == 0 ? headerEnd : end(from - 1);
+        int line = from == 0 ? headerEndLine : endLine(from - 1);
+        int column = from == 0 ? headerEndColumn : elements.get(from - 1).endColumn;
+        while (true) {
+            Resync resync = new Resync(regionStart, kept, delta);
+            TokenBuffer tokens = new Lexer(CharBuffer.wrap(text, regionStart, text.length()), WINDOW, line, column).tokenize(resync, false);
+            Parser parser = new Parser(tokens);
+            parser.ends = new ArrayList<>();
+            List<ASTNode> parsed = new ArrayList<>();
+            int to = resync.found >= 0 ? resync.found : elements.size();
+            try {
+                parser.begin();
+                parser.decsAndStatements(parsed);
+            } catch (PLCException e) {
+                if (resync.found >= 0 && parser.position() == tokens.size() - 1) {
+                    // the region ended in the middle of a declaration or statement that may go on into the next
+                    // element, so try again with the next one
+                    kept = resync.found + 1;
+                    continue;
+                }
+                replace(from, to, parsed, parser.ends, tokens, regionStart, 0, delta, resync.lines);
+                unparsed = from + parsed.size();
+                throw e;
+            }
+            replace(from, to, parsed, parser.ends, tokens, regionStart, 0, delta, resync.lines);
+            unparsed = -1;
+            return program = program();
+        }
+    }
+
+    // Stops lexing at the first token of an element that is where it was before the edit
+    private class Resync implements Lexer.StopAt {
+        final int base;
+        final int delta;
+        int next; // the first element that may still be found
+        int found = -1;
+        int lines; // lines added above the element found
+
+        Resync(int base, int next, int delta) {
+            this.base = base;
+            this.next = next;
+            this.delta = delta;
+        }
+
+        @Override
+        public boolean at(int start, int line, int column) {
+            int offset = base + start - delta;
+            while (next < elements.size() && start(next) < offset)
+                next++;
+            if (next == elements.size())
+                return false;
+            // the lexer carries only the line and column from one token to the next, so if the column is the
+            // same too, the element and everything after it are lexed exactly as before
+            if (start(next) != offset || elements.get(next).column != column)
+                return false;
+            found = next;
+            lines = line - line(next);
+            return true;
+        }
+    }
+
+    // Replaces elements [from, to) by the parsed ones, whose tokens are in tokens at base, starting at token first
+    // and ending at the given ends, and moves the elements after them by delta chars and lines lines.
+    private void replace(int from, int to, List<ASTNode> parsed, List<Integer> ends, TokenBuffer tokens, int base,
+            int first, int delta, int lines) {
+        moveGap(to);
+        suffixChars += delta;
+        suffixLines += lines;
+        suffixShift.lines += lines;
+        List<Element> added = new ArrayList<>(parsed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            int semi = ends.get(i);
+            Element e = new Element(parsed.get(i));
+            e.start = base + tokens.start(first);
+            e.line = tokens.line(first);
+            e.column = tokens.column(first);
+            e.end = base + tokens.start(semi) + tokens.length(semi);
+            e.endLine = tokens.line(semi);
+            e.endColumn = tokens.column(semi) + tokens.length(semi);
+            added.add(e);
+            first = semi + 1;
+        }
+        // set the elements that are replaced one for one, so the ones after them only move if the count changes
+        int common = Math.min(to - from, added.size());
+        for (int i = 0; i < common; i++) {
+            elements.set(from + i, added.get(i));
+            nodes.set(from + i, parsed.get(i));
+        }
+        if (common < to - from) {
+            elements.subList(from + common, to).clear();
+            nodes.subList(from + common, to).clear();
+        }
+        else {
+            elements.addAll(from + common, added.subList(common, added.size()));
+            nodes.addAll(from + common, parsed.subList(common, parsed.size()));
+        }
+        gap = from + added.size();
+    }
+
+    // Moves the elements between gap and index to the other side of it
+    private void moveGap(int index) {
+        for (; gap < index; gap++) {
+            Element e = elements.get(gap);
+            e.start += suffixChars;
+            e.end += suffixChars;
+            e.line += suffixLines;
+            e.endLine += suffixLines;
+            e.shift.lines += suffixShift.lines;
+            e.shift.outer = null;
+        }
+        for (; gap > index; gap--) {
+            Element e = elements.get(gap - 1);
+            e.start -= suffixChars;
+            e.end -= suffixChars;
+            e.line -= suffixLines;
+            e.endLine -= suffixLines;
+            e.shift.lines -= suffixShift.lines;
+            e.shift.outer = suffixShift;
+        }
+    }
+
+    private int start(int i) {
+        return i < gap ? elements.get(i).start : elements.get(i).start + suffixChars;
+    }
+
+    private int end(int i) {
+        return i < gap ? elements.get(i).end : elements.get(i).end + suffixChars;
+    }
+
+    private int line(int i) {
+        return i < gap ? elements.get(i).line : elements.get(i).line + suffixLines;
+    }
+
+    private int endLine(int i) {
+        return i < gap ? elements.get(i).endLine : elements.get(i).endLine + suffixLines;
+    }
+
+    private Program program() {
+        return new Program(header.getFirstToken(), header.getReturnType(), header.getName(), header.getParams(),
+                new ArrayList<>(nodes));
+    }
+
+    // index of the first element that ends after offset, or the number of elements
+    private int firstEndingAfter(int offset) {
+        int lo = 0, hi = elements.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (end(mid) > offset)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return lo;
+    }
+
+    // index of the first element that starts at or after offset, or the number of elements
+    private int firstStartingAt(int offset) {
+        int lo = 0, hi = elements.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (start(mid) >= offset)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return lo;
+    }
+
+    // The chars of the text are buf[0, gapStart) followed by buf[gapEnd, buf.length).  An edit moves the gap to
+    // where it is, so edits close to each other move few chars.
+    private static final class GapText implements CharSequence {
+        private char[] buf;
+        private int gapStart;
+        private int gapEnd;
+
+        GapText(String s) {
+            buf = new char[s.length() + 64];
+            s.getChars(0, s.length(), buf, 0);
+            gapStart = s.length();
+            gapEnd = buf.length;
+        }
+
+        void replace(int offset, int length, String replacement) {
+            if (offset < gapStart)
+                System.arraycopy(buf, offset, buf, gapEnd - (gapStart - offset), gapStart - offset);
+            else
+                System.arraycopy(buf, gapEnd, buf, gapStart, offset - gapStart);
+            gapEnd += offset - gapStart + length; // the removed chars join the gap
+            gapStart = offset;
+            if (gapEnd - gapStart < replacement.length()) {
+                int after = buf.length - gapEnd;
+                char[] grown = new char[Math.max(buf.length * 2, length() + replacement.length() + 64)];
+                System.arraycopy(buf, 0, grown, 0, gapStart);
+                System.arraycopy(buf, gapEnd, grown, grown.length - after, after);
+                buf = grown;
+                gapEnd = grown.length - after;
+            }
+            replacement.getChars(0, replacement.length(), buf, gapStart);
+            gapStart += replacement.length();
+        }
+
+        @Override
+        public int length() {
+            return buf.length - (gapEnd - gapStart);
+        }
+
+        @Override
+        public char charAt(int index) {
+            return index < gapStart ? buf[index] : buf[index + gapEnd - gapStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder(length()).append(buf, 0, gapStart).append(buf, gapEnd, buf.length - gapEnd)
+                    .toString();
+        }
+    }
+}
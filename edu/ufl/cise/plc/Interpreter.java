@@ -0,0 +1,505 @@
+package edu.ufl.cise.plc;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.ufl.cise.plc.IToken.Kind;
+import edu.ufl.cise.plc.ast.ASTNode;
+import edu.ufl.cise.plc.ast.ASTVisitor;
+import edu.ufl.cise.plc.ast.AssignmentStatement;
+import edu.ufl.cise.plc.ast.BinaryExpr;
+import edu.ufl.cise.plc.ast.BooleanLitExpr;
+import edu.ufl.cise.plc.ast.ColorConstExpr;
+import edu.ufl.cise.plc.ast.ColorExpr;
+import edu.ufl.cise.plc.ast.ConditionalExpr;
+import edu.ufl.cise.plc.ast.ConsoleExpr;
+import edu.ufl.cise.plc.ast.Declaration;
+import edu.ufl.cise.plc.ast.Dimension;
+import edu.ufl.cise.plc.ast.Expr;
+import edu.ufl.cise.plc.ast.FloatLitExpr;
+import edu.ufl.cise.plc.ast.IdentExpr;
+import edu.ufl.cise.plc.ast.IntLitExpr;
+import edu.ufl.cise.plc.ast.NameDef;
+import edu.ufl.cise.plc.ast.NameDefWithDim;
+import edu.ufl.cise.plc.ast.PixelSelector;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.ast.ReadStatement;
+import edu.ufl.cise.plc.ast.ReturnStatement;
+import edu.ufl.cise.plc.ast.StringLitExpr;
+import edu.ufl.cise.plc.ast.UnaryExpr;
+import edu.ufl.cise.plc.ast.UnaryExprPostfix;
+import edu.ufl.cise.plc.ast.VarDeclaration;
+import edu.ufl.cise.plc.ast.WriteStatement;
+import edu.ufl.cise.plc.ast.Types.Type;
+import edu.ufl.cise.plc.runtime.ColorTuple;
+import edu.ufl.cise.plc.runtime.ColorTupleFloat;
+import edu.ufl.cise.plc.runtime.ConsoleIO;
+import edu.ufl.cise.plc.runtime.FileURLIO;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.PLCRuntimeException;
+
+// Evaluates a decorated AST directly against the runtime library, without generating or loading any code.
+// Values are represented the way the compiled apply method passes them around: Integer, Float, Boolean,
+// String, ColorTuple, ColorTupleFloat and BufferedImage.
+//
+// An Interpreter holds the variables of one run, indexed by the slots the type checker gave their
+// declarations, so use a new one for each call of interpret.  The AST is only read, so any number of
+// interpreters may run the same Program concurrently.
+public class Interpreter implements ASTVisitor {
+
+    // packed RGB values of the java.awt.Color constants, looked up by name the first time they are used
+    static final Map<String, Integer> colorConstants = new ConcurrentHashMap<>();
+
+    Object[] vars;
+    Program root;
+    boolean returned;
+    Object returnValue;
+
+    // Runs the program with the given parameters, which may be null if it has none, and returns the value
+    // it returns, or null if it is void.
+    public Object interpret(Program program, Object[] params) throws Exception {
+        return program.visit(this, params);
+    }
+
+    static Type valueType(Expr e) {
+        if (e.getCoerceTo() != null)
+            return e.getCoerceTo();
+        return e instanceof UnaryExprPostfix ? Type.COLOR : e.getType();
+    }
+
+    private Object expr(Expr e) throws Exception {
+        return convert(e.visit(this, null), e.getCoerceTo());
+    }
+
+    private int intExpr(Expr e) throws Exception {
+        return (Integer) convert(expr(e), Type.INT);
+    }
+
+    static Object convert(Object value, Type to) {
+        if (to == null)
+            return value;
+        switch (to) {
+            case INT:
+                if (value instanceof Float f)
+                    return (int) f.floatValue();
+                if (value instanceof ColorTuple c)
+                    return c.pack();
+                break;
+            case FLOAT:
+                if (value instanceof Integer i)
+                    return (float) i.intValue();
+                break;
+            case COLOR:
+                if (value instanceof Integer i)
+                    return new ColorTuple(i);
+                if (value instanceof Float f)
+                    return new ColorTuple(new ColorTupleFloat(f));
+                if (value instanceof ColorTupleFloat c)
+                    return new ColorTuple(c);
+                break;
+            case COLORFLOAT:
+                if (value instanceof Integer i)
+                    return new ColorTupleFloat((float) i.intValue());
+                if (value instanceof Float f)
+                    return new ColorTupleFloat(f);
+                if (value instanceof ColorTuple c)
+                    return new ColorTupleFloat(c);
+                break;
+            default:
+                break;
+        }
+        return value;
+    }
+
+    private static Object defaultValue(Type type) {
+        return switch (type) {
+            case INT -> 0;
+            case FLOAT -> 0.0f;
+            case BOOLEAN -> false;
+            default -> null;
+        };
+    }
+
+    // Checks that a value read from a file has the type of the variable it is read into.
+    private static Object readValue(String name, Type type) {
+        Class<?> c = switch (type) {
+            case INT -> Integer.class;
+            case FLOAT -> Float.class;
+            case BOOLEAN -> Boolean.class;
+            case STRING -> String.class;
+            case COLOR -> ColorTuple.class;
+            default -> throw new UnsupportedOperationException("cannot read a value of type " + type);
+        };
+        return c.cast(FileURLIO.readValueFromFile(name));
+    }
+
+    private BufferedImage readImage(Expr source, Dimension dim) throws Exception {
+        if (source.getType() != Type.STRING)
+            throw new UnsupportedOperationException("images can only be read from a file or URL");
+        String name = (String) expr(source);
+        if (dim == null)
+            return FileURLIO.readImage(name);
+        return FileURLIO.readImage(name, intExpr(dim.getWidth()), intExpr(dim.getHeight()));
+    }
+
+    private BufferedImage resize(BufferedImage image, Dimension dim) throws Exception {
+        return ImageOps.resize(image, intExpr(dim.getWidth()), intExpr(dim.getHeight()));
+    }
+
+    // Sets every pixel of image to the color given by expr, which is evaluated once per pixel with the
+    // coordinates stored in xSlot and ySlot if they are not -1.  Pixels are visited in row-major order.
+    private void fill(BufferedImage image, Expr expr, int xSlot, int ySlot) throws Exception {
+        for (int y = 0; y < image.getHeight(); y++) {
+            if (ySlot >= 0)
+                vars[ySlot] = y;
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (xSlot >= 0)
+                    vars[xSlot] = x;
+                ImageOps.setColor(image, x, y, (ColorTuple) convert(expr(expr), Type.COLOR));
+            }
+        }
+    }
+
+    @Override
+    public Object visitBooleanLitExpr(BooleanLitExpr booleanLitExpr, Object arg) throws Exception {
+        return booleanLitExpr.getValue();
+    }
+
+    @Override
+    public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) throws Exception {
+        return stringLitExpr.getValue();
+    }
+
+    @Override
+    public Object visitIntLitExpr(IntLitExpr intLitExpr, Object arg) throws Exception {
+        return intLitExpr.getValue();
+    }
+
+    @Override
+    public Object visitFloatLitExpr(FloatLitExpr floatLitExpr, Object arg) throws Exception {
+        return floatLitExpr.getValue();
+    }
+
+    @Override
+    public Object visitColorConstExpr(ColorConstExpr colorConstExpr, Object arg) throws Exception {
+        String name = colorConstExpr.getText();
+        Integer rgb = colorConstants.get(name);
+        if (rgb == null) {
+            rgb = ((Color) Color.class.getField(name).get(null)).getRGB();
+            colorConstants.put(name, rgb);
+        }
+        return ColorTuple.unpack(rgb);
+    }
+
+    @Override
+    public Object visitConsoleExpr(ConsoleExpr consoleExpr, Object arg) throws Exception {
+        Type type = consoleExpr.getCoerceTo();
+        if (type == null)
+            throw new UnsupportedOperationException("console used without a target type");
+        return ConsoleIO.readValueFromConsole(type.toString(), "Enter " + type.toString().toLowerCase() + ":");
+    }
+
+    @Override
+    public Object visitColorExpr(ColorExpr colorExpr, Object arg) throws Exception {
+        if (colorExpr.getType() == Type.COLORFLOAT)
+            return new ColorTupleFloat((Float) convert(expr(colorExpr.getRed()), Type.FLOAT),
+                    (Float) convert(expr(colorExpr.getGreen()), Type.FLOAT),
+                    (Float) convert(expr(colorExpr.getBlue()), Type.FLOAT));
+        return new ColorTuple(intExpr(colorExpr.getRed()), intExpr(colorExpr.getGreen()), intExpr(colorExpr.getBlue()));
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr unaryExpression, Object arg) throws Exception {
+        Kind op = unaryExpression.getOp().getKind();
+        String name = unaryExpression.getOp().getText();
+        Object value = expr(unaryExpression.getExpr());
+        switch (op) {
+            case BANG:
+                return !(Boolean) value;
+            case MINUS:
+                if (value instanceof Float f)
+                    return -f;
+                return -(Integer) value;
+            case COLOR_OP:
+                if (value instanceof BufferedImage image)
+                    return switch (name) {
+                        case "getRed" -> ImageOps.extractRed(image);
+                        case "getGreen" -> ImageOps.extractGreen(image);
+                        default -> ImageOps.extractBlue(image);
+                    };
+                if (value instanceof Integer i)
+                    return switch (name) {
+                        case "getRed" -> ColorTuple.getRed(i);
+                        case "getGreen" -> ColorTuple.getGreen(i);
+                        default -> ColorTuple.getBlue(i);
+                    };
+                ColorTuple color = (ColorTuple) value;
+                return switch (name) {
+                    case "getRed" -> ColorTuple.getRed(color);
+                    case "getGreen" -> ColorTuple.getGreen(color);
+                    default -> ColorTuple.getBlue(color);
+                };
+            case IMAGE_OP:
+                BufferedImage image = (BufferedImage) value;
+                return name.equals("getWidth") ? image.getWidth() : image.getHeight();
+            default:
+                throw new UnsupportedOperationException("unexpected unary operator " + op);
+        }
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) throws Exception {
+        Kind op = binaryExpr.getOp().getKind();
+        Type leftType = valueType(binaryExpr.getLeft());
+        // both operands are always evaluated, as in the generated code
+        Object left = expr(binaryExpr.getLeft());
+        Object right = expr(binaryExpr.getRight());
+        switch (op) {
+            case AND:
+                return (Boolean) left & (Boolean) right;
+            case OR:
+                return (Boolean) left | (Boolean) right;
+            case EQUALS, NOT_EQUALS: {
+                boolean eq = switch (leftType) {
+                    case FLOAT -> (Float) left == ((Float) right).floatValue();
+                    case IMAGE -> left == right;
+                    default -> Objects.equals(left, right);
+                };
+                return eq == (op == Kind.EQUALS);
+            }
+            case LT, LE, GT, GE: {
+                if (leftType == Type.FLOAT) {
+                    float l = (Float) left;
+                    float r = (Float) right;
+                    return switch (op) {
+                        case LT -> l < r;
+                        case LE -> l <= r;
+                        case GT -> l > r;
+                        default -> l >= r;
+                    };
+                }
+                int cmp = Integer.compare((Integer) left, (Integer) right);
+                return switch (op) {
+                    case LT -> cmp < 0;
+                    case LE -> cmp <= 0;
+                    case GT -> cmp > 0;
+                    default -> cmp >= 0;
+                };
+            }
+            case PLUS, MINUS, TIMES, DIV, MOD: {
+                ImageOps.OP imageOp = ImageOps.OP.valueOf(op.toString());
+                if (left instanceof BufferedImage image) {
+                    if (right instanceof BufferedImage other)
+                        return ImageOps.binaryImageImageOp(imageOp, image, other);
+                    if (right instanceof Float f)
+                        return ImageOps.binaryImageScalarOp(imageOp, image, f.floatValue());
+                    return ImageOps.binaryImageScalarOp(imageOp, image, (Integer) right);
+                }
+                if (leftType == Type.COLOR)
+                    return ImageOps.binaryTupleOp(imageOp, (ColorTuple) left, (ColorTuple) convert(right, Type.COLOR));
+                if (leftType == Type.COLORFLOAT)
+                    return ImageOps.binaryTupleOp(imageOp, (ColorTupleFloat) left,
+                            (ColorTupleFloat) convert(right, Type.COLORFLOAT));
+                if (leftType == Type.FLOAT) {
+                    float l = (Float) left;
+                    float r = (Float) right;
+                    return switch (op) {
+                        case PLUS -> l + r;
+                        case MINUS -> l - r;
+                        case TIMES -> l * r;
+                        case DIV -> l / r;
+                        default -> l % r;
+                    };
+                }
+                int l = (Integer) left;
+                int r = (Integer) right;
+                return switch (op) {
+                    case PLUS -> l + r;
+                    case MINUS -> l - r;
+                    case TIMES -> l * r;
+                    case DIV -> l / r;
+                    default -> l % r;
+                };
+            }
+            default:
+                throw new UnsupportedOperationException("unexpected binary operator " + op);
+        }
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws Exception {
+        return vars[identExpr.getSlot()];
+    }
+
+    @Override
+    public Object visitConditionalExpr(ConditionalExpr conditionalExpr, Object arg) throws Exception {
+        if ((Boolean) expr(conditionalExpr.getCondition()))
+            return expr(conditionalExpr.getTrueCase());
+        return convert(expr(conditionalExpr.getFalseCase()), valueType(conditionalExpr.getTrueCase()));
+    }
+
+    @Override
+    public Object visitDimension(Dimension dimension, Object arg) throws Exception {
+        throw new UnsupportedOperationException("dimensions are evaluated by their declaration");
+    }
+
+    @Override
+    public Object visitPixelSelector(PixelSelector pixelSelector, Object arg) throws Exception {
+        throw new UnsupportedOperationException("pixel selectors are evaluated by their expression or statement");
+    }
+
+    @Override
+    public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws Exception {
+        Declaration target = assignmentStatement.getTargetDec();
+        int slot = target.getSlot();
+        Expr expr = assignmentStatement.getExpr();
+        if (target.getType() != Type.IMAGE)
+            vars[slot] = convert(expr(expr), target.getType());
+        else if (assignmentStatement.getSelector() != null) {
+            int xSlot = ((IdentExpr) assignmentStatement.getSelector().getX()).getSlot();
+            int ySlot = ((IdentExpr) assignmentStatement.getSelector().getY()).getSlot();
+            fill((BufferedImage) vars[slot], expr, xSlot, ySlot);
+        }
+        else if (valueType(expr) == Type.IMAGE) {
+            BufferedImage image = (BufferedImage) expr(expr);
+            if (target.getDim() != null)
+                image = resize(image, target.getDim());
+            else if (expr instanceof IdentExpr)
+                image = ImageOps.clone(image);
+            vars[slot] = image;
+        }
+        else
+            fill((BufferedImage) vars[slot], expr, -1, -1);
+        return null;
+    }
+
+    @Override
+    public Object visitWriteStatement(WriteStatement writeStatement, Object arg) throws Exception {
+        Object value = expr(writeStatement.getSource());
+        Expr dest = writeStatement.getDest();
+        if (dest.getType() == Type.STRING) {
+            String name = (String) expr(dest);
+            if (value instanceof BufferedImage image)
+                FileURLIO.writeImage(image, name);
+            else
+                FileURLIO.writeValue((Serializable) value, name);
+            return null;
+        }
+        if (value instanceof BufferedImage image)
+            ConsoleIO.displayImageOnScreen(image);
+        ConsoleIO.console.println(value);
+        return null;
+    }
+
+    @Override
+    public Object visitReadStatement(ReadStatement readStatement, Object arg) throws Exception {
+        Declaration target = readStatement.getTargetDec();
+        Expr source = readStatement.getSource();
+        Object value;
+        if (target.getType() == Type.IMAGE)
+            value = readImage(source, target.getDim());
+        else if (source.getType() == Type.STRING)
+            value = readValue((String) expr(source), target.getType());
+        else
+            value = convert(expr(source), target.getType());
+        vars[target.getSlot()] = value;
+        return null;
+    }
+
+    // arg is the array of parameter values, or null if there are none.
+    @Override
+    public Object visitProgram(Program program, Object arg) throws Exception {
+        root = program;
+        vars = new Object[program.getSlotCount()];
+        Object[] params = (Object[]) arg;
+        int count = params == null ? 0 : params.length;
+        if (count != program.getParams().size())
+            throw new IllegalArgumentException(
+                    "program " + program.getName() + " expects " + program.getParams().size() + " parameters, got " + count);
+        for (int i = 0; i < count; i++) {
+            NameDef param = program.getParams().get(i);
+            vars[param.getSlot()] = convert(params[i], param.getType());
+        }
+        for (ASTNode node : program.getDecsAndStatements()) {
+            node.visit(this, null);
+            if (returned)
+                return returnValue;
+        }
+        if (program.getReturnType() != Type.VOID)
+            throw new PLCRuntimeException("program " + program.getName() + " ended without returning a value");
+        return null;
+    }
+
+    @Override
+    public Object visitNameDef(NameDef nameDef, Object arg) throws Exception {
+        vars[nameDef.getSlot()] = defaultValue(nameDef.getType());
+        return null;
+    }
+
+    @Override
+    public Object visitNameDefWithDim(NameDefWithDim nameDefWithDim, Object arg) throws Exception {
+        Dimension dim = nameDefWithDim.getDim();
+        vars[nameDefWithDim.getSlot()] =
+                new BufferedImage(intExpr(dim.getWidth()), intExpr(dim.getHeight()), BufferedImage.TYPE_INT_RGB);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStatement(ReturnStatement returnStatement, Object arg) throws Exception {
+        returnValue = convert(expr(returnStatement.getExpr()), root.getReturnType());
+        returned = true;
+        return null;
+    }
+
+    @Override
+    public Object visitVarDeclaration(VarDeclaration declaration, Object arg) throws Exception {
+        NameDef nameDef = declaration.getNameDef();
+        int slot = nameDef.getSlot();
+        Expr expr = declaration.getExpr();
+        boolean hasInitializer = declaration.getOp() != null;
+        if (nameDef.getType() != Type.IMAGE) {
+            if (!hasInitializer)
+                nameDef.visit(this, arg);
+            else if (declaration.getOp().getKind() == Kind.LARROW && expr.getType() == Type.STRING)
+                vars[slot] = readValue((String) expr(expr), nameDef.getType());
+            else
+                vars[slot] = convert(expr(expr), nameDef.getType());
+            return null;
+        }
+
+        Type exprType = hasInitializer ? valueType(expr) : null;
+        if (exprType == Type.STRING) {
+            vars[slot] = readImage(expr, nameDef.getDim());
+            FileURLIO.closeFiles();
+        }
+        else if (exprType == Type.IMAGE) {
+            BufferedImage image = (BufferedImage) expr(expr);
+            if (nameDef.getDim() != null) {
+                vars[slot] = resize(image, nameDef.getDim());
+                FileURLIO.closeFiles();
+            }
+            else
+                vars[slot] = image;
+        }
+        else if (nameDef.getDim() != null) {
+            nameDef.visit(this, arg);
+            if (hasInitializer)
+                fill((BufferedImage) vars[slot], expr, -1, -1);
+        }
+        else
+            throw new UnsupportedOperationException("image " + nameDef.getName() + " declared without a size");
+        return null;
+    }
+
+    @Override
+    public Object visitUnaryExprPostfix(UnaryExprPostfix unaryExprPostfix, Object arg) throws Exception {
+        BufferedImage image = (BufferedImage) expr(unaryExprPostfix.getExpr());
+        PixelSelector selector = unaryExprPostfix.getSelector();
+        return ColorTuple.unpack(image.getRGB(intExpr(selector.getX()), intExpr(selector.getY())));
+    }
+
+}
@@ -1,91 +1,301 @@
 package edu.ufl.cise.plc;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import edu.ufl.cise.plc.IToken.Kind;
 
 public class Lexer implements ILexer {
     private enum State {
         START, IN_IDENT, IN_COMMENT, IN_STRING, HAVE_ZERO, HAVE_DOT, IN_FLOAT, IN_NUM,
         HAVE_EQ, HAVE_MINUS, HAVE_LT, HAVE_GT, HAVE_EX, HAVE_BSLASH}
 
-    private final Map<String, IToken.Kind> reserved = new HashMap<String, IToken.Kind>();
-
     private State state;
+    // Number of chars read at a time when the input comes from a Reader.
+    public static final int DEFAULT_WINDOW = 1 << 16;
+
+    // chars[0, limit) is the part of the input currently in memory.  When the input is a String it is all
+    // there; when it comes from a Reader, chars is a window that is refilled as the lexer advances.
     private char[] chars;
+    private int limit;
+    private Reader reader; // null once the whole input has been read
+    private CharBuffer source; // chars as a CharSequence, for parsing without copying
     private int pos = 0; // position in input aka the index of chars[]
+    private int start = 0; // index of the first char of the current token
+    private int mark = -1; // index that peek will return to, or -1
+    private int tokenColumn; // column of the token found by scan
+    private boolean retainAll; // set by tokenize, which needs the offsets of all tokens to stay valid
     private int line = 0; // first char of token position
     private int col = 0; // where the token starts
 
-    private void initMap() {
-        reserved.put("string", IToken.Kind.TYPE);
-        reserved.put("int", IToken.Kind.TYPE);
-        reserved.put("float", IToken.Kind.TYPE);
-        reserved.put("boolean", IToken.Kind.TYPE);
-        reserved.put("color", IToken.Kind.TYPE);
-        reserved.put("image", IToken.Kind.TYPE);
+    // Returns the kind of the reserved word in chars[start, start + length), or null if it is an identifier.
+    // The candidates are picked by length and first char, so an identifier is classified with a few char
+    // comparisons and without creating a String.
+    static Kind reservedKind(char[] chars, int start, int length) {
+        return switch (length) {
+            case 2 -> is(chars, start, "if") ? Kind.KW_IF : is(chars, start, "fi") ? Kind.KW_FI : null;
+            case 3 -> is(chars, start, "int") ? Kind.TYPE : is(chars, start, "RED") ? Kind.COLOR_CONST : null;
+            case 4 -> switch (chars[start]) {
+                case 'e' -> is(chars, start, "else") ? Kind.KW_ELSE : null;
+                case 'v' -> is(chars, start, "void") ? Kind.KW_VOID : null;
+                case 't' -> is(chars, start, "true") ? Kind.BOOLEAN_LIT : null;
+                case 'B' -> is(chars, start, "BLUE") ? Kind.COLOR_CONST : null;
+                case 'C' -> is(chars, start, "CYAN") ? Kind.COLOR_CONST : null;
+                case 'G' -> is(chars, start, "GRAY") ? Kind.COLOR_CONST : null;
+                case 'P' -> is(chars, start, "PINK") ? Kind.COLOR_CONST : null;
+                default -> null;
+            };
+            case 5 -> switch (chars[start]) {
+                case 'f' -> is(chars, start, "float") ? Kind.TYPE : is(chars, start, "false") ? Kind.BOOLEAN_LIT : null;
+                case 'c' -> is(chars, start, "color") ? Kind.TYPE : null;
+                case 'i' -> is(chars, start, "image") ? Kind.TYPE : null;
+                case 'w' -> is(chars, start, "write") ? Kind.KW_WRITE : null;
+                case 'B' -> is(chars, start, "BLACK") ? Kind.COLOR_CONST : null;
+                case 'G' -> is(chars, start, "GREEN") ? Kind.COLOR_CONST : null;
+                case 'W' -> is(chars, start, "WHITE") ? Kind.COLOR_CONST : null;
+                default -> null;
+            };
+            case 6 -> switch (chars[start]) {
+                case 's' -> is(chars, start, "string") ? Kind.TYPE : null;
+                case 'g' -> is(chars, start, "getRed") ? Kind.COLOR_OP : null;
+                case 'O' -> is(chars, start, "ORANGE") ? Kind.COLOR_CONST : null;
+                case 'Y' -> is(chars, start, "YELLOW") ? Kind.COLOR_CONST : null;
+                default -> null;
+            };
+            case 7 -> switch (chars[start]) {
+                case 'b' -> is(chars, start, "boolean") ? Kind.TYPE : null;
+                case 'c' -> is(chars, start, "console") ? Kind.KW_CONSOLE : null;
+                case 'g' -> is(chars, start, "getBlue") ? Kind.COLOR_OP : null;
+                case 'M' -> is(chars, start, "MAGENTA") ? Kind.COLOR_CONST : null;
+                default -> null;
+            };
+            case 8 -> is(chars, start, "getWidth") ? Kind.IMAGE_OP : is(chars, start, "getGreen") ? Kind.COLOR_OP : null;
+            case 9 -> is(chars, start, "getHeight") ? Kind.IMAGE_OP : is(chars, start, "DARK_GRAY") ? Kind.COLOR_CONST : null;
+            case 10 -> is(chars, start, "LIGHT_GRAY") ? Kind.COLOR_CONST : null;
+            default -> null;
+        };
+    }
 
-        reserved.put("getWidth", IToken.Kind.IMAGE_OP);
-        reserved.put("getHeight", IToken.Kind.IMAGE_OP);
+    // true if chars[start, start + word.length()) is word
+    private static boolean is(char[] chars, int start, String word) {
+        for (int i = 0; i < word.length(); i++)
+            if (chars[start + i] != word.charAt(i))
+                return false;
+        return true;
+    }
+
+    public Lexer(String input) {
+        chars = input.toCharArray();
+        limit = chars.length;
+        source = CharBuffer.wrap(chars);
+    }
 
-        reserved.put("getRed", IToken.Kind.COLOR_OP);
-        reserved.put("getGreen", IToken.Kind.COLOR_OP);
-        reserved.put("getBlue", IToken.Kind.COLOR_OP);
+    // Lexes the chars read from reader, holding windowSize chars of the input at a time, or more if a
+    // single token is longer than that.  The reader is closed when its end is reached.
+    public Lexer(Reader reader, int windowSize) {
+        this.reader = reader;
+        chars = new char[Math.max(2, windowSize)];
+        source = CharBuffer.wrap(chars);
+    }
 
-        reserved.put("BLACK", IToken.Kind.COLOR_CONST);
-        reserved.put("BLUE", IToken.Kind.COLOR_CONST);
-        reserved.put("CYAN", IToken.Kind.COLOR_CONST);
-        reserved.put("DARK_GRAY", IToken.Kind.COLOR_CONST);
-        reserved.put("GRAY", IToken.Kind.COLOR_CONST);
-        reserved.put("GREEN", IToken.Kind.COLOR_CONST);
-        reserved.put("LIGHT_GRAY", IToken.Kind.COLOR_CONST);
-        reserved.put("MAGENTA", IToken.Kind.COLOR_CONST);
-        reserved.put("ORANGE", IToken.Kind.COLOR_CONST);
-        reserved.put("PINK", IToken.Kind.COLOR_CONST);
-        reserved.put("RED", IToken.Kind.COLOR_CONST);
-        reserved.put("WHITE", IToken.Kind.COLOR_CONST);
-        reserved.put("YELLOW", IToken.Kind.COLOR_CONST);
+    public Lexer(Reader reader) {
+        this(reader, DEFAULT_WINDOW);
+    }
 
-        reserved.put("true", IToken.Kind.BOOLEAN_LIT);
-        reserved.put("false", IToken.Kind.BOOLEAN_LIT);
+    // Lexes part of a program: buffer holds the chars from a point where a token may start, at the given line
+    // and column, onwards.  Used by IncrementalParser to lex the region around an edit.
+    Lexer(CharBuffer buffer, int windowSize, int line, int column) {
+        this(new CharBufferReader(buffer), windowSize);
+        this.line = line;
+        this.col = column;
+    }
 
-        reserved.put("if", IToken.Kind.KW_IF);
-        reserved.put("else", IToken.Kind.KW_ELSE);
-        reserved.put("fi", IToken.Kind.KW_FI);
-        reserved.put("write", IToken.Kind.KW_WRITE);
-        reserved.put("console", IToken.Kind.KW_CONSOLE);
-        reserved.put("void", IToken.Kind.KW_VOID);
+    // Lexes the remaining chars of buffer without copying them into a String first.
+    public Lexer(CharBuffer buffer) {
+        this(new CharBufferReader(buffer));
     }
-    public Lexer(String input) {
-        chars = input.toCharArray();
-        initMap();
+
+    // Lexes a UTF-8 source file.  The file is memory mapped and decoded a window at a time, so the program
+    // is never held in memory as a String.
+    public static Lexer fromFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Lexer(new MappedFileReader(bytes));
+        }
+    }
+
+    // Makes chars[pos + ahead] available, reading more of the input if necessary, and returns false if
+    // the input ends before it.
+    //
+    // Chars from the start of the current token (or the position peek will return to) onwards are kept.
+    // They are copied into a new array rather than moved within chars, because tokens that have already
+    // been returned refer to chars; a window is garbage collected once no token refers to it.
+    private boolean available(int ahead) throws LexicalException {
+        while (pos + ahead >= limit) {
+            if (reader == null)
+                return false;
+            int keep = retainAll ? 0 : mark >= 0 ? Math.min(start, mark) : start;
+            if (keep > 0 || chars.length - limit < 2) { // room for at least a surrogate pair
+                int size = limit - keep;
+                char[] window = new char[size < chars.length / 2 ? chars.length : chars.length * 2];
+                System.arraycopy(chars, keep, window, 0, size);
+                chars = window;
+                source = CharBuffer.wrap(chars);
+                limit = size;
+                pos -= keep;
+                start -= keep;
+                if (mark >= 0)
+                    mark -= keep;
+            }
+            try {
+                int n = reader.read(chars, limit, chars.length - limit);
+                if (n < 0) {
+                    reader.close();
+                    reader = null;
+                }
+                else
+                    limit += n;
+            } catch (IOException e) {
+                throw new LexicalException(e);
+            }
+        }
+        return true;
+    }
+
+    private static class CharBufferReader extends Reader {
+        private final CharBuffer buffer;
+
+        CharBufferReader(CharBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(cbuf, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Decodes UTF-8 from a mapped file straight into the lexer's window.
+    private static class MappedFileReader extends Reader {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+        private boolean done;
+
+        MappedFileReader(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (done)
+                return -1;
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            CoderResult result = decoder.decode(bytes, out, true);
+            if (result.isError())
+                result.throwException();
+            if (result.isUnderflow()) { // all bytes decoded
+                decoder.flush(out);
+                done = true;
+            }
+            int n = out.position() - off;
+            return n == 0 && done ? -1 : n;
+        }
+
+        @Override
+        public void close() {
+        }
     }
     @Override
     public IToken next() throws LexicalException {
+        Kind kind = scan();
+        return new Token(kind, line, tokenColumn, chars, start, pos - start);
+    }
+
+    // Lexes the rest of the input into a TokenBuffer.  If there is a lexical error, the buffer ends with an
+    // ERROR token at that point instead of an EOF token, so a parser sees any syntax errors before it.
+    public TokenBuffer tokenize() {
+        return tokenize(null, false);
+    }
+
+    // If recover is true, lexing goes on after a lexical error: the buffer gets an ERROR token for the chars
+    // read for the bad token, and lexing starts again after them, so all the lexical errors are found.
+    public TokenBuffer tokenize(boolean recover) {
+        return tokenize(null, recover);
+    }
+
+    // Where tokenize stops before the end of the input
+    interface StopAt {
+        // true to end the buffer with an EOF token in place of the token at chars[start], line, column
+        boolean at(int start, int line, int column);
+    }
+
+    TokenBuffer tokenize(StopAt stop, boolean recover) {
+        retainAll = true;
+        TokenBuffer buffer = new TokenBuffer();
+        Kind kind = null;
+        do {
+            try {
+                kind = scan();
+            } catch (LexicalException e) {
+                buffer.addError(e, start, Math.max(pos - start, 1), line, col);
+                if (!recover || e.getCause() instanceof IOException)
+                    break;
+                // the bad token did not contain a line break, or the lexer did not count it
+                col += Math.max(pos - start, 1);
+                pos = Math.max(pos, start + 1);
+                continue;
+            }
+            if (kind != Kind.EOF && stop != null && stop.at(start, line, tokenColumn)) {
+                buffer.add(Kind.EOF, start, 0, line, tokenColumn);
+                break;
+            }
+            buffer.add(kind, start, pos - start, line, tokenColumn);
+        } while (kind != Kind.EOF);
+        buffer.setChars(chars);
+        return buffer;
+    }
+
+    // Finds the next token and returns its kind.  The token is chars[start, pos) and starts at line, tokenColumn.
+    private Kind scan() throws LexicalException {
         int tokenLength = 0; // to keep track where next token starts
-        String ss = "";
         state = State.START;
-        if (chars.length == 0)
-            return new Token(IToken.Kind.EOF, 0, 0, "");
-
-        while (pos < chars.length) {
+        start = pos;
+        while (available(0)) {
             char ch = chars[pos];
             switch (state){
                 case START -> {
+                    start = pos;
                     if (Character.isJavaIdentifierStart(ch)) {
-                        ss = ss.concat(String.valueOf(ch));
                         pos++;
                         tokenLength++;
                         state = State.IN_IDENT;
                     } else {
                         switch (ch) {
                             case '0' -> {
-                                ss = ss.concat(String.valueOf(ch));
                                 pos++;
                                 tokenLength++;
                                 state = State.HAVE_ZERO;
                             }
                             case '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
-                                ss = ss.concat(String.valueOf(ch));
                                 pos++;
                                 tokenLength++;
                                 state = State.IN_NUM;
@@ -102,7 +312,6 @@ public class Lexer implements ILexer {
                                 state = State.START;
                             }
                             case '"' -> {
-                                ss += '"';
                                 pos++;
                                 tokenLength++;
                                 state = State.IN_STRING;
@@ -113,125 +322,107 @@ public class Lexer implements ILexer {
                                 col++;
                             }
                             case '=' -> {
-                                ss = ss.concat("=");
                                 state = State.HAVE_EQ;
                                 pos++;
                                 tokenLength++;
                             }
                             case '>' -> {
-                                ss = ss.concat(">");
                                 state = State.HAVE_GT;
                                 pos++;
                                 tokenLength++;
                             }
                             case '<' -> {
-                                ss = ss.concat("<");
                                 state = State.HAVE_LT;
                                 pos++;
                                 tokenLength++;
                             }
                             case '-' -> {
-                                ss = ss.concat("-");
                                 state = State.HAVE_MINUS;
                                 pos++;
                                 tokenLength++;
                             }
                             case '!' -> {
-                                ss = ss.concat("!");
                                 state = State.HAVE_EX;
                                 pos++;
                                 tokenLength++;
                             }
                             case '|' -> {
-                                ss = ss.concat("|");
                                 pos++;
-                                Token t = new Token(IToken.Kind.OR, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.OR;
                             }
                             case '&' -> {
-                                ss = ss.concat("&");
                                 pos++;
-                                Token t = new Token(IToken.Kind.AND, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.AND;
                             }
                             case '(' -> {
-                                ss = ss.concat("(");
                                 pos++;
-                                Token t = new Token(IToken.Kind.LPAREN, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.LPAREN;
                             }
                             case ')' -> {
-                                ss = ss.concat(")");
                                 pos++;
-                                Token t = new Token(IToken.Kind.RPAREN, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.RPAREN;
                             }
                             case '[' -> {
-                                ss = ss.concat("[");
                                 pos++;
-                                Token t = new Token(IToken.Kind.LSQUARE, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.LSQUARE;
                             }
                             case ']' -> {
-                                ss = ss.concat("]");
                                 pos++;
-                                Token t = new Token(IToken.Kind.RSQUARE, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.RSQUARE;
                             }
                             case '+' -> {
-                                ss = ss.concat("+");
                                 pos++;
-                                Token t = new Token(IToken.Kind.PLUS, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.PLUS;
                             }
                             case '*' -> {
-                                ss = ss.concat("*");
                                 pos++;
-                                Token t = new Token(IToken.Kind.TIMES, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.TIMES;
                             }
                             case '/' -> {
-                                ss = ss.concat("/");
                                 pos++;
-                                Token t = new Token(IToken.Kind.DIV, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.DIV;
                             }
                             case '%' -> {
-                                ss = ss.concat("%");
                                 pos++;
-                                Token t = new Token(IToken.Kind.MOD, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.MOD;
                             }
                             case ';' -> {
-                                ss = ss.concat(";");
                                 pos++;
-                                Token t = new Token(IToken.Kind.SEMI, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.SEMI;
                             }
                             case ',' -> {
-                                ss = ss.concat(",");
                                 pos++;
-                                Token t = new Token(IToken.Kind.COMMA, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.COMMA;
                             }
                             case '^' -> {
-                                ss = ss.concat("^");
                                 pos++;
-                                Token t = new Token(IToken.Kind.RETURN, line, col, ss);
+                                tokenColumn = col;
                                 col += tokenLength + 1;
-                                return t;
+                                return IToken.Kind.RETURN;
                             }
                             default -> {
                                 throw new LexicalException("Invalid char");
@@ -241,18 +432,18 @@ public class Lexer implements ILexer {
                 }
                 case IN_IDENT -> {
                     if (Character.isJavaIdentifierPart(ch)) {
-                        ss = ss.concat(String.valueOf(ch));
                         pos++;
                         tokenLength++;
                     } else {
-                        if (reserved.containsKey(ss)) { // if it's a reserved word
-                            Token t = new Token(reserved.get(ss), line, col, ss);
+                        Kind kind = reservedKind(chars, start, pos - start);
+                        if (kind != null) { // if it's a reserved word
+                            tokenColumn = col;
                             col += tokenLength;
-                            return t;
+                            return kind;
                         } else {
-                            Token t = new Token(IToken.Kind.IDENT, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength;
-                            return t;
+                            return IToken.Kind.IDENT;
                         }
                     }
                 }
@@ -279,19 +470,17 @@ public class Lexer implements ILexer {
                             state = State.HAVE_BSLASH;
                         }
                         case '"' -> { // end of string_lit
-                            ss += '\"';
                             pos++;
-                            Token t = new Token(IToken.Kind.STRING_LIT, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.STRING_LIT;
                         }
                         default -> {
-                            if (pos == chars.length - 1 && ch != '"')
+                            if (!available(1) && ch != '"')
                                 throw new LexicalException("Invalid string");
                             else {
                                 pos++;
                                 tokenLength++;
-                                ss += ch;
                             }
                         }
                     }
@@ -301,49 +490,41 @@ public class Lexer implements ILexer {
                 case HAVE_BSLASH -> {
                     switch (ch) {
                         case 'b' -> {
-                            ss += '\b';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
                         }
                         case 't' -> {
-                            ss += '\t';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
                         }
                         case 'n' -> {
-                            ss += '\n';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
                         }
                         case 'f' -> {
-                            ss += '\f';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
                         }
                         case 'r' -> {
-                            ss += '\r';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
                         }
                         case '"' -> {
-                            ss += '"';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
                         }
                         case '\'' -> {
-                            ss += '\'';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
                         }
                         case '\\' -> {
-                            ss += '\\';
                             pos++;
                             tokenLength++;
                             state = State.IN_STRING;
@@ -353,44 +534,36 @@ public class Lexer implements ILexer {
                 }
                 case IN_NUM -> {
                     if (Character.isDigit(ch)) {
-                        ss = ss.concat(String.valueOf(ch));
                         pos++;
                         tokenLength++;
                     } else if (ch == '.') {
-                        ss = ss.concat(String.valueOf(ch));
                         pos++;
                         tokenLength++;
                         state = State.HAVE_DOT;
                     } else {
                         try {
-                            Integer.parseInt(ss);
+                            Integer.parseInt(source, start, pos, 10);
                         } catch (NumberFormatException e) {
                             throw new LexicalException(e);
                         }
-                        Token t = new Token(IToken.Kind.INT_LIT, line, col, ss);
+                        tokenColumn = col;
                         col += tokenLength;
-                        return t;
+                        return IToken.Kind.INT_LIT;
                     }
                 }
                 case IN_FLOAT -> {
                     if (Character.isDigit(ch)) {
-                        ss = ss.concat(String.valueOf(ch));
                         pos++;
                         tokenLength++;
                     } else {
-                        try {
-                            Float.parseFloat(ss);
-                        } catch (NumberFormatException e) {
-                            throw new LexicalException(e);
-                        }
-                        Token t = new Token(IToken.Kind.FLOAT_LIT, line, col, ss);
+                        // digits '.' digits is always a valid float, so it is parsed when the value is needed
+                        tokenColumn = col;
                         col += tokenLength;
-                        return t;
+                        return IToken.Kind.FLOAT_LIT;
                     }
                 }
                 case HAVE_DOT -> {
                     if (Character.isDigit(ch)) {
-                        ss = ss.concat(String.valueOf(ch));
                         pos++;
                         tokenLength++;
                         state = State.IN_FLOAT;
@@ -401,114 +574,105 @@ public class Lexer implements ILexer {
                 case HAVE_EQ -> {
                     switch (ch) {
                         case '=' -> {
-                            ss = ss.concat("=");
                             pos++;
-                            Token t = new Token(IToken.Kind.EQUALS, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.EQUALS;
                         }
                         default -> {
-                            Token t = new Token(IToken.Kind.ASSIGN, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength;
-                            return t;
+                            return IToken.Kind.ASSIGN;
                         }
                     }
                 }
                 case HAVE_GT -> {
                     switch (ch) {
                         case '>' -> {
-                            ss = ss.concat(">");
                             pos++;
-                            Token t = new Token(IToken.Kind.RANGLE, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.RANGLE;
                         }
                         case '=' -> {
-                            ss = ss.concat("=");
                             pos++;
-                            Token t = new Token(IToken.Kind.GE, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.GE;
                         }
                         default -> {
-                            Token t = new Token(IToken.Kind.GT, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength;
-                            return t;
+                            return IToken.Kind.GT;
                         }
                     }
                 }
                 case HAVE_LT -> {
                     switch (ch) {
                         case '<' -> {
-                            ss = ss.concat("<");
                             pos++;
-                            Token t = new Token(IToken.Kind.LANGLE, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.LANGLE;
                         }
                         case '=' -> {
-                            ss = ss.concat("=");
                             pos++;
-                            Token t = new Token(IToken.Kind.LE, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.LE;
                         }
                         case '-' -> {
-                            ss = ss.concat("-");
                             pos++;
-                            Token t = new Token(IToken.Kind.LARROW, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.LARROW;
                         }
                         default -> {
-                            Token t = new Token(IToken.Kind.LT, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength;
-                            return t;
+                            return IToken.Kind.LT;
                         }
                     }
                 }
                 case HAVE_MINUS -> {
                     switch (ch) {
                         case '>' -> {
-                            ss = ss.concat(">");
                             pos++;
-                            Token t = new Token(IToken.Kind.RARROW, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.RARROW;
                         }
                         default -> {
-                            Token t = new Token(IToken.Kind.MINUS, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength;
-                            return t;
+                            return IToken.Kind.MINUS;
                         }
                     }
                 }
                 case HAVE_EX -> {
                     switch (ch) {
                         case '=' -> {
-                            ss = ss.concat("=");
                             pos++;
-                            Token t = new Token(IToken.Kind.NOT_EQUALS, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength + 1;
-                            return t;
+                            return IToken.Kind.NOT_EQUALS;
                         }
                         default -> {
-                            Token t = new Token(IToken.Kind.BANG, line, col, ss);
+                            tokenColumn = col;
                             col += tokenLength;
-                            return t;
+                            return IToken.Kind.BANG;
                         }
                     }
                 }
                 case HAVE_ZERO -> {
                     if (ch == '.') {
-                        ss = ss.concat(".");
                         pos++;
                         tokenLength++;
                         state = State.HAVE_DOT;
                     } else {
-                        Token t = new Token(IToken.Kind.INT_LIT, line, col, ss);
+                        tokenColumn = col;
                         col += tokenLength;
-                        return t;
+                        return IToken.Kind.INT_LIT;
                     }
                 }
                 default -> {
@@ -516,16 +680,19 @@ public class Lexer implements ILexer {
                 }
             }
         }
-        return new Token(IToken.Kind.EOF, line, col, "");
+        start = pos;
+        tokenColumn = col;
+        return IToken.Kind.EOF;
     }
 
     @Override
     public IToken peek() throws LexicalException {
-        int pos_ = pos;
+        mark = pos;
         int col_ = col;
         int line_ = line;
         IToken a = next();
-        pos = pos_;
+        pos = mark;
+        mark = -1;
         col = col_;
         line = line_;
         return a;
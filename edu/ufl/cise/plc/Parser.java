@@ -1,6 +1,7 @@
 package edu.ufl.cise.plc;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import edu.ufl.cise.plc.IToken.Kind;
@@ -10,113 +11,268 @@ import edu.ufl.cise.plc.ast.Types.Type;
 public class Parser implements IParser {
     final String input;
     private final ILexer lexer;
-    private IToken t;
+    private TokenBuffer tokens;
+    private int t; // index of the current token in tokens
+    // In recovery mode, receives the lexical and syntax errors; null otherwise
+    private final List<PLCException> errors;
+    private int reported = -1; // index of the last ERROR token whose error has been reported
+    // Set by IncrementalParser to receive the index of the RPAREN that ends the header and of the SEMI that ends
+    // each declaration and statement.  The tokens of each declaration and statement then share a Token.Shift.
+    List<Integer> ends;
     
     public Parser(String input) {
+        this(input, null);
+    }
+
+    // Parses in recovery mode if errors is not null.  A declaration or statement with an error is skipped up to the
+    // next semicolon or statement start and parsing goes on, so errors receives every lexical and syntax error, with
+    // its location.  parse() then returns the program with the declarations and statements that parsed, or null if
+    // its header did not parse, instead of throwing.
+    public Parser(String input, List<PLCException> errors) {
         this.input = input;
         lexer = CompilerComponentFactory.getLexer(input);
+        this.errors = errors;
+    }
+
+    // Parses the tokens of the given lexer, e.g. one that streams its input from a Reader.  input is null.  begin()
+    // still lexes the whole input into the TokenBuffer, so its text is then all held in memory.
+    public Parser(ILexer lexer) {
+        this.input = null;
+        this.lexer = lexer;
+        this.errors = null;
+    }
+
+    // Parses tokens that have already been lexed.  input is null.
+    public Parser(TokenBuffer tokens) {
+        this.input = null;
+        this.lexer = null;
+        this.tokens = tokens;
+        this.errors = null;
     }
 
     @Override
     public ASTNode parse() throws PLCException {
-        t = lexer.next();
+        try {
+            begin();
+        } catch (LexicalException e) {
+            if (errors == null)
+                throw e;
+            report(e);
+        }
         return program();
     }
 
+    // Moves to the first token.  The whole input is lexed first; the parser then indexes into the buffer and
+    // only creates Token objects for the tokens that go into the AST.
+    void begin() throws LexicalException {
+        if (tokens == null)
+            tokens = TokenBuffer.of(lexer, errors != null);
+        t = -1;
+        next();
+    }
+
+    // Moves to the next token.  Reaching a lexical error throws it, so errors are reported in input order.
+    private void next() throws LexicalException {
+        if (t < tokens.size() - 1)
+            t++;
+        if (tokens.kind(t) == Kind.ERROR)
+            throw tokens.error(t);
+    }
+
+    private Kind kind() {
+        return tokens.kind(t);
+    }
+
+    private IToken token() {
+        return tokens.token(t);
+    }
+
+    // index of the current token, which is where a syntax error was found
+    int position() {
+        return t;
+    }
+
     private Program program() throws PLCException {
-        if (t.getKind() == Kind.TYPE || t.getKind() == Kind.KW_VOID) {
+        Program program;
+        try {
+            program = header();
+        } catch (SyntaxException | LexicalException e) {
+            if (errors == null)
+                throw e;
+            report(e);
+            // look for errors in the declarations and statements too
+            while (kind() != Kind.EOF && kind() != Kind.RPAREN)
+                skip();
+            skip();
+            decsAndStatements(new ArrayList<>());
+            return null;
+        }
+        decsAndStatements(program.getDecsAndStatements());
+        return program;
+    }
+
+    // Parses the return type, name and parameters, and returns a Program to add the declarations and statements to
+    Program header() throws PLCException {
+        if (kind() == Kind.TYPE || kind() == Kind.KW_VOID) {
             // convert to Type
-            Type returnType = Types.Type.toType(t.getText());
-            IToken firstToken = t;
+            Type returnType = Types.Type.toType(tokens.text(t));
+            int firstToken = t;
 
-            t = lexer.next();
-            if (t.getKind() != Kind.IDENT)
+            next();
+            if (kind() != Kind.IDENT)
                 throw new SyntaxException("you dumb bitch");
             
-            String name = t.getText();
-            t = lexer.next();
-            if (t.getKind() != Kind.LPAREN)
+            String name = tokens.text(t);
+            next();
+            if (kind() != Kind.LPAREN)
                 throw new SyntaxException("you dumb bitch pt 2");
             
-            t = lexer.next();
-            if (t.getKind() == Kind.EOF)
+            next();
+            if (kind() == Kind.EOF)
                 throw new SyntaxException("you dumb bitch pt 3");
             
             List<NameDef> params = new ArrayList<>();
-            List<ASTNode> decsNStatements = new ArrayList<>();
-            if (t.getKind() != Kind.RPAREN) {
+            if (kind() != Kind.RPAREN) {
                 params.add(nameDef());
-                t = lexer.next();
-                while (t.getKind() == Kind.COMMA) {
-                    t = lexer.next();
-                    if (t.getKind() == Kind.EOF || t.getKind() == Kind.RPAREN)
+                next();
+                while (kind() == Kind.COMMA) {
+                    next();
+                    if (kind() == Kind.EOF || kind() == Kind.RPAREN)
                         throw new SyntaxException("comma cant end it all my dude");
                     
                     params.add(nameDef());
-                    t = lexer.next();
+                    next();
                 }
             }
-            //else {
-                t = lexer.next();
-                while (t.getKind() != Kind.EOF) {
-                    if (t.getKind() == Kind.TYPE) {
-                        decsNStatements.add(declare());
-                    }
-                    else
-                        decsNStatements.add(statement());
-                    
-                    if (t.getKind() != Kind.SEMI)
-                        throw new SyntaxException("no semicolon dumbass");
-                    t = lexer.next();
-                }
-            //}
-            return new Program(firstToken, returnType, name, params, decsNStatements);
+            if (ends != null)
+                ends.add(t);
+            next();
+            return new Program(tokens.token(firstToken), returnType, name, params, new ArrayList<>());
         }
         else
             throw new SyntaxException("this can't work out man i'm sowwy");
     }
 
+    // Parses declarations and statements, each ended by a semicolon, up to EOF.  Each one is added to
+    // decsNStatements once its semicolon has been found.
+    void decsAndStatements(List<ASTNode> decsNStatements) throws PLCException {
+        while (kind() != Kind.EOF) {
+            int first = t;
+            try {
+                if (ends != null)
+                    tokens.shift = new Token.Shift();
+                ASTNode decOrStatement;
+                if (kind() == Kind.TYPE) {
+                    decOrStatement = declare();
+                }
+                else
+                    decOrStatement = statement();
+                
+                if (decOrStatement == null && errors != null)
+                    throw new SyntaxException("expected a declaration or statement");
+                if (kind() != Kind.SEMI)
+                    throw new SyntaxException("no semicolon dumbass");
+                decsNStatements.add(decOrStatement);
+                if (ends != null)
+                    ends.add(t);
+                next();
+            } catch (SyntaxException | LexicalException e) {
+                if (errors == null)
+                    throw e;
+                report(e);
+                synchronize(first);
+            }
+        }
+    }
+
+    // Adds e to errors with the location of the current token.  A syntax error found at a lexical error is not
+    // added, as the lexical error explains it.
+    private void report(PLCException e) {
+        if (kind() == Kind.ERROR) {
+            if (t == reported)
+                return;
+            reported = t;
+            errors.add(new LexicalException(e.getMessage(), token().getSourceLocation()));
+        }
+        else
+            errors.add(new SyntaxException(e.getMessage(), token().getSourceLocation()));
+    }
+
+    // Moves to the next token without throwing, reporting any lexical error
+    private void skip() {
+        if (t < tokens.size() - 1)
+            t++;
+        if (kind() == Kind.ERROR)
+            report(tokens.error(t));
+    }
+
+    // After an error in the declaration or statement starting at token first, skips to the token after the next
+    // semicolon, or to the next token that starts a declaration or statement, whichever comes first.
+    private void synchronize(int first) {
+        while (kind() != Kind.EOF) {
+            if (kind() == Kind.SEMI) {
+                skip();
+                return;
+            }
+            if (t > first && startsDecOrStatement())
+                return;
+            skip();
+        }
+    }
+
+    // true if the current token can only be the start of a declaration or statement: a type not in a cast, write,
+    // ^, or a name at the start of a line followed by =, <- or [
+    private boolean startsDecOrStatement() {
+        return switch (kind()) {
+            case TYPE -> tokens.kind(t - 1) != Kind.LPAREN;
+            case KW_WRITE, RETURN -> true;
+            case IDENT -> tokens.line(t) > tokens.line(t - 1) && t + 1 < tokens.size()
+                    && (tokens.kind(t + 1) == Kind.ASSIGN || tokens.kind(t + 1) == Kind.LARROW || tokens.kind(t + 1) == Kind.LSQUARE);
+            default -> false;
+        };
+    }
+
     private Declaration declare() throws PLCException {
-        IToken firstToken = t;
+        int firstToken = t;
         NameDef nameDef = nameDef();
         IToken op = null;
         Expr a = null;
-        t = lexer.next();
-        if (t.getKind() == Kind.ASSIGN || t.getKind() == Kind.LARROW) {
-            op = t;
-            t = lexer.next();
+        next();
+        if (kind() == Kind.ASSIGN || kind() == Kind.LARROW) {
+            op = token();
+            next();
             a = expr();
         }
-        return new VarDeclaration(firstToken, nameDef, op, a);
+        return new VarDeclaration(tokens.token(firstToken), nameDef, op, a);
     }
 
     private NameDef nameDef() throws PLCException {
-        if (t.getKind() == Kind.TYPE) {
-            IToken type = t;
+        if (kind() == Kind.TYPE) {
+            IToken type = token();
             IToken name;
-            t = lexer.next();
-            if (t.getKind() == Kind.IDENT) {
-                name = t;
+            next();
+            if (kind() == Kind.IDENT) {
+                name = token();
                 return new NameDef(type, type, name);
             }
-            if (t.getKind() == Kind.LSQUARE) {
-                IToken firstToken = t;
-                t = lexer.next();
-                if (t.getKind() == Kind.EOF)
+            if (kind() == Kind.LSQUARE) {
+                int firstToken = t;
+                next();
+                if (kind() == Kind.EOF)
                     throw new SyntaxException("there's nothing here dude");
                 Expr width = expr();
-                if (t.getKind() != IToken.Kind.COMMA)
+                if (kind() != IToken.Kind.COMMA)
                     throw new SyntaxException("Bad Dimension. Bad.");
                 else {
-                    t = lexer.next();
+                    next();
                     Expr height = expr();
-                    if (t.getKind() != IToken.Kind.RSQUARE)
+                    if (kind() != IToken.Kind.RSQUARE)
                         throw new SyntaxException("Very Bad Dimension. Very Bad.");
                     
-                    Dimension dim = new Dimension(firstToken, width, height);
-                    t = lexer.next();
-                    if (t.getKind() == Kind.IDENT)
-                        return new NameDefWithDim(type, type, t, dim);
+                    Dimension dim = new Dimension(tokens.token(firstToken), width, height);
+                    next();
+                    if (kind() == Kind.IDENT)
+                        return new NameDefWithDim(type, type, token(), dim);
                     else
                         throw new SyntaxException("ya can't do that");
                 }
@@ -128,292 +284,283 @@ public class Parser implements IParser {
     }
 
     private Statement statement() throws PLCException {
-        IToken firstToken = t;
+        int firstToken = t;
         Expr e;
-        if (t.getKind() == Kind.IDENT) {
-            e = new IdentExpr(t);
-            t = lexer.next();
+        if (kind() == Kind.IDENT) {
+            e = new IdentExpr(token());
+            next();
             PixelSelector p = null;
-            if (t.getKind() == Kind.LSQUARE) {
+            if (kind() == Kind.LSQUARE) {
                 p = pixel();
-                t = lexer.next();
+                next();
             }
             
-            //t = lexer.next();
-            if (t.getKind() == Kind.ASSIGN) {
-                t = lexer.next();
+            //next();
+            if (kind() == Kind.ASSIGN) {
+                next();
                 Expr expr = expr();
-                return new AssignmentStatement(firstToken, e.getText(), p, expr);
+                return new AssignmentStatement(tokens.token(firstToken), e.getText(), p, expr);
             }
-            else if (t.getKind() == Kind.LARROW) {
-                t = lexer.next();
+            else if (kind() == Kind.LARROW) {
+                next();
                 Expr expr = expr();
-                return new ReadStatement(firstToken, e.getText(), p, expr);
+                return new ReadStatement(tokens.token(firstToken), e.getText(), p, expr);
             }
         }
-        else if (t.getKind() == Kind.RETURN) {
-            t = lexer.next();
+        else if (kind() == Kind.RETURN) {
+            next();
             e = expr();
-            return new ReturnStatement(firstToken, e);
+            return new ReturnStatement(tokens.token(firstToken), e);
         }
-        else if (t.getKind() == Kind.KW_WRITE) {
-            t = lexer.next();
+        else if (kind() == Kind.KW_WRITE) {
+            next();
             e = expr();
             
-            if (t.getKind() == Kind.RARROW)
-                t = lexer.next();
+            if (kind() == Kind.RARROW)
+                next();
             else
                 throw new SyntaxException("no right arrow dumbass");
             Expr dest = expr();
-            return new WriteStatement(firstToken, e, dest);
+            return new WriteStatement(tokens.token(firstToken), e, dest);
         }
         return null;
     }
 
     private Expr expr() throws PLCException {
-        if (t.getKind() == IToken.Kind.EOF)
+        if (kind() == IToken.Kind.EOF)
             return null;
 
-        if (t.getKind() == IToken.Kind.KW_IF)
+        if (kind() == IToken.Kind.KW_IF)
             return conditional();
         else
-            return logicalOr();
+            return binary();
     }
     // ConditionalExpr ::= 'if' '(' Expr ')' Expr 'else'  Expr 'fi'
     private ConditionalExpr conditional() throws PLCException {
-        IToken firstToken = t;
-        t = lexer.next();
-        if (t.getKind() == IToken.Kind.LPAREN) {
-            t = lexer.next();
+        int firstToken = t;
+        next();
+        if (kind() == IToken.Kind.LPAREN) {
+            next();
             Expr condition = expr();
-            if (t.getKind() != IToken.Kind.RPAREN)
+            if (kind() != IToken.Kind.RPAREN)
                 throw new SyntaxException("No right paren for condition dumbass");
-            t = lexer.next();
+            next();
             Expr trueCase = expr();
-            if (t.getKind() != IToken.Kind.KW_ELSE)
+            if (kind() != IToken.Kind.KW_ELSE)
                 throw new SyntaxException("No else dumbass");
-            t = lexer.next();
+            next();
             Expr falseCase = expr();
-            if (t.getKind() != IToken.Kind.KW_FI)
+            if (kind() != IToken.Kind.KW_FI)
                 throw new SyntaxException("No fi dumbass");
                          
-            ConditionalExpr c = new ConditionalExpr(firstToken, condition, trueCase, falseCase);
-            t = lexer.next();
+            ConditionalExpr c = new ConditionalExpr(tokens.token(firstToken), condition, trueCase, falseCase);
+            next();
             return c;
         }
         else
             throw new SyntaxException("No left paren for condition dumbass");
     }
 
-    private Expr logicalOr() throws PLCException {
-        IToken firstToken = t;
-        Expr a = logicalAnd();
-        Expr b = null;
-        IToken op = null;
-        BinaryExpr binary = null;
-        if (t.getKind() == IToken.Kind.OR) {
-            op = t;
-            t = lexer.next();
-            b = logicalAnd();
-            binary = new BinaryExpr(firstToken, a, op, b);
-        }
-        while (t.getKind() == IToken.Kind.OR) {
-            op = t;
-            t = lexer.next();
-            b = logicalAnd();
-            binary = new BinaryExpr(firstToken, binary, op, b);
-        }
-        if (op == null)
-            return a;
-        return binary;
+    // The precedence of each binary operator, indexed by the ordinal of its kind, from | (1) up to * / % (5).
+    // 0 for the kinds that are not binary operators.  All of them associate to the left.
+    private static final byte[] PRECEDENCE = new byte[Kind.values().length];
+    static {
+        PRECEDENCE[Kind.OR.ordinal()] = 1;
+        PRECEDENCE[Kind.AND.ordinal()] = 2;
+        for (Kind k : new Kind[] { Kind.LT, Kind.GT, Kind.EQUALS, Kind.NOT_EQUALS, Kind.LE, Kind.GE })
+            PRECEDENCE[k.ordinal()] = 3;
+        PRECEDENCE[Kind.PLUS.ordinal()] = 4;
+        PRECEDENCE[Kind.MINUS.ordinal()] = 4;
+        PRECEDENCE[Kind.TIMES.ordinal()] = 5;
+        PRECEDENCE[Kind.DIV.ordinal()] = 5;
+        PRECEDENCE[Kind.MOD.ordinal()] = 5;
     }
+    private static final byte GROUP = 0; // the precedence of a left paren on the operator stack
+    private static final byte PREFIX = 6; // and of a prefix operator
 
-    private Expr logicalAnd() throws PLCException {
-        IToken firstToken = t;
-        Expr a = comparison();
-        Expr b = null;
-        IToken op = null;
-        BinaryExpr binary = null;
-        if (t.getKind() == IToken.Kind.AND) {
-            op = t;
-            t = lexer.next();
-            b = comparison();
-            binary = new BinaryExpr(firstToken, a, op, b);
-        }
-        while (t.getKind() == IToken.Kind.AND) {
-            op = t;
-            t = lexer.next();
-            b = comparison();
-            binary = new BinaryExpr(firstToken, binary, op, b);
-        }
-        if (op == null)
-            return a;
-        return binary;
-    }
+    // The operators and operands that binary() has not combined yet, as the token index and precedence of each
+    // operator, and each operand with the index of its first token.  They are shared by the nested calls for the
+    // expressions in a ConditionalExpr, ColorExpr or PixelSelector, each of which uses the top of the stacks.
+    private int[] opTokens = new int[16];
+    private byte[] opPrecedences = new byte[16];
+    private int ops;
+    private Expr[] operands = new Expr[16];
+    private int[] operandFirsts = new int[16];
+    private int operandCount;
 
-    private Expr comparison() throws PLCException {
-        IToken firstToken = t;
-        Expr a = additive();
-        Expr b = null;
-        IToken op = null;
-        BinaryExpr binary = null;
-        if (t.getKind() == Kind.LE||t.getKind() == Kind.LT||t.getKind() == Kind.EQUALS||t.getKind() == Kind.GE||t.getKind() == Kind.GT||t.getKind() == Kind.NOT_EQUALS) {
-            op = t;
-            t = lexer.next();
-            b = additive();
-            binary = new BinaryExpr(firstToken, a, op, b);
-        }
-        while (t.getKind() == Kind.LE||t.getKind() == Kind.LT||t.getKind() == Kind.EQUALS||t.getKind() == Kind.GE||t.getKind() == Kind.GT||t.getKind() == Kind.NOT_EQUALS) {
-            op = t;
-            t = lexer.next();
-            b = additive();
-            binary = new BinaryExpr(firstToken, binary, op, b);
+    // LogicalOrExpr down to UnaryExpr, with the parenthesized expressions in them, parsed by operator precedence
+    // with explicit stacks instead of a call per level of the grammar: prefix operators and left parens are
+    // pushed, each operand is pushed when it is complete, and a binary operator first combines the operators on
+    // the stack with the same or higher precedence.  Long operator chains and deep nesting take no extra calls.
+    // A BinaryExpr's first token is the first token of its left operand.
+    private Expr binary() throws PLCException {
+        int opBase = ops, operandBase = operandCount;
+        int open = 0; // left parens on the stack
+        try {
+            while (true) {
+                // UnaryExpr ::= ('!'|'-'| COLOR_OP | IMAGE_OP) UnaryExpr  |  UnaryExprPostfix
+                // PrimaryExpr ::= '(' Expr ')' | ...
+                while (kind() == IToken.Kind.BANG || kind() == IToken.Kind.MINUS || kind() == IToken.Kind.COLOR_OP || kind() == IToken.Kind.IMAGE_OP || kind() == IToken.Kind.LPAREN) {
+                    if (kind() == IToken.Kind.LPAREN) {
+                        pushOp(t, GROUP);
+                        open++;
+                        next();
+                        if (kind() == IToken.Kind.KW_IF || kind() == IToken.Kind.EOF)
+                            break;
+                    }
+                    else {
+                        pushOp(t, PREFIX);
+                        next();
+                    }
+                }
+                int firstToken = t;
+                // a ConditionalExpr is only allowed as the whole Expr in parens
+                if (open > 0 && opPrecedences[ops - 1] == GROUP && (kind() == IToken.Kind.KW_IF || kind() == IToken.Kind.EOF)) {
+                    Expr c = expr();
+                    if (kind() != IToken.Kind.RPAREN)
+                        throw new SyntaxException("No right paren for expr dumbass");
+                    pushOperand(opBase, c, firstToken);
+                }
+                else
+                    pushOperand(opBase, unaryPostfix(), firstToken);
+                // after an operand: close parens until a binary operator or the end of the expression
+                int precedence;
+                while ((precedence = PRECEDENCE[kind().ordinal()]) == 0) {
+                    if (kind() != IToken.Kind.RPAREN || open == 0) {
+                        if (open > 0)
+                            throw new SyntaxException("No right paren for expr dumbass");
+                        reduce(opBase, 1);
+                        return operands[--operandCount];
+                    }
+                    reduce(opBase, 1);
+                    int lparen = opTokens[--ops];
+                    open--;
+                    Expr a = operands[--operandCount];
+                    next();
+                    if (kind() == IToken.Kind.LSQUARE) {
+                        PixelSelector b = pixel();
+                        next();
+                        a = new UnaryExprPostfix(tokens.token(lparen), a, b);
+                    }
+                    pushOperand(opBase, a, lparen);
+                }
+                reduce(opBase, precedence);
+                pushOp(t, (byte) precedence);
+                next();
+            }
+        } finally {
+            ops = opBase;
+            while (operandCount > operandBase)
+                operands[--operandCount] = null;
         }
-        if (op == null)
-            return a;
-        return binary;
     }
 
-    private Expr additive() throws PLCException {
-        IToken firstToken = t;
-        Expr a = multipl();
-        Expr b = null;
-        IToken op = null;
-        BinaryExpr binary = null;
-        if (t.getKind() == IToken.Kind.PLUS || t.getKind() == IToken.Kind.MINUS) {
-            op = t;
-            t = lexer.next();
-            b = multipl();
-            binary = new BinaryExpr(firstToken, a, op, b);
+    private void pushOp(int token, byte precedence) {
+        if (ops == opTokens.length) {
+            opTokens = Arrays.copyOf(opTokens, ops * 2);
+            opPrecedences = Arrays.copyOf(opPrecedences, ops * 2);
         }
-        while (t.getKind() == IToken.Kind.PLUS || t.getKind() == IToken.Kind.MINUS) {
-            op = t;
-            t = lexer.next();
-            b = multipl();
-            binary = new BinaryExpr(firstToken, binary, op, b);
-        }
-        if (op == null)
-            return a;
-        return binary;
+        opTokens[ops] = token;
+        opPrecedences[ops++] = precedence;
     }
 
-    private Expr multipl() throws PLCException {
-        IToken firstToken = t;
-        Expr a = unary();
-        Expr b = null;
-        IToken op = null;
-        BinaryExpr binary = null;
-        if (t.getKind() == IToken.Kind.TIMES || t.getKind() == IToken.Kind.DIV || t.getKind() == IToken.Kind.MOD) {
-            op = t;
-            t = lexer.next();
-            b = unary();
-            binary = new BinaryExpr(firstToken, a, op, b);
+    // Pushes a complete operand, after applying the prefix operators above opBase in front of it from the last
+    // one back
+    private void pushOperand(int opBase, Expr e, int firstToken) {
+        while (ops > opBase && opPrecedences[ops - 1] == PREFIX) {
+            firstToken = opTokens[--ops];
+            IToken op = tokens.token(firstToken);
+            e = new UnaryExpr(op, op, e);
         }
-        while (t.getKind() == IToken.Kind.TIMES || t.getKind() == IToken.Kind.DIV || t.getKind() == IToken.Kind.MOD) {
-            op = t;
-            t = lexer.next();
-            b = unary();
-            binary = new BinaryExpr(firstToken, binary, op, b);
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+            operandFirsts = Arrays.copyOf(operandFirsts, operandCount * 2);
         }
-        if (op == null)
-            return a;
-        return binary;
+        operands[operandCount] = e;
+        operandFirsts[operandCount++] = firstToken;
     }
 
-    // UnaryExpr ::= ('!'|'-'| COLOR_OP | IMAGE_OP) UnaryExpr  |  UnaryExprPostfix
-    private Expr unary() throws PLCException {
-        IToken op = null;
-        Expr a = null;
-        while (t.getKind() == IToken.Kind.BANG || t.getKind() == IToken.Kind.MINUS || t.getKind() == IToken.Kind.COLOR_OP || t.getKind() == IToken.Kind.IMAGE_OP) {
-            op = t;
-            t = lexer.next();
-            a = unary();
-        }
-        if (op == null) {
-            return unaryPostfix();
+    // Combines the binary operators above opBase with at least the given precedence with their operands
+    private void reduce(int opBase, int minPrecedence) {
+        while (ops > opBase && opPrecedences[ops - 1] >= minPrecedence) {
+            IToken op = tokens.token(opTokens[--ops]);
+            Expr b = operands[--operandCount];
+            Expr a = operands[operandCount - 1];
+            operands[operandCount - 1] = new BinaryExpr(tokens.token(operandFirsts[operandCount - 1]), a, op, b);
         }
-        return new UnaryExpr(op, op, a);
     }
 
     // UnaryExprPostfix::= PrimaryExpr PixelSelector?
     // PixelSelector::= '[' Expr ',' Expr ']'
     private Expr unaryPostfix() throws PLCException {
-        IToken firstToken = t;
+        int firstToken = t;
         Expr a = primary();
-        t = lexer.next();
-        if (t.getKind() == IToken.Kind.EOF)
+        next();
+        if (kind() == IToken.Kind.EOF)
             return a;
         PixelSelector b = null;
-        //while (t.getKind() != IToken.Kind.EOF) {
-            if (t.getKind() == IToken.Kind.LSQUARE) {
+        //while (kind() != IToken.Kind.EOF) {
+            if (kind() == IToken.Kind.LSQUARE) {
                 b = pixel();
-                t = lexer.next();
+                next();
             }
         //}
         if (b == null)
             return a;
         else
-            return new UnaryExprPostfix(firstToken, a, b);
+            return new UnaryExprPostfix(tokens.token(firstToken), a, b);
     }
 
     private Expr primary() throws PLCException {
-        switch (t.getKind()) {
+        switch (kind()) {
             case BOOLEAN_LIT -> {
-                return new BooleanLitExpr(t);
+                return new BooleanLitExpr(token());
             }
             case IDENT -> {
-                return new IdentExpr(t);
+                return new IdentExpr(token());
             }
             case INT_LIT -> {
-                return new IntLitExpr(t);
+                return new IntLitExpr(token());
             }
             case FLOAT_LIT -> {
-                return new FloatLitExpr(t);
+                return new FloatLitExpr(token());
             }
             case STRING_LIT -> {
-                return new StringLitExpr(t);
-            }
-            case LPAREN -> {
-                t = lexer.next();
-                Expr a = expr();
-                if (t.getKind() == IToken.Kind.RPAREN)
-                    return a;
-                else
-                    throw new SyntaxException("No right paren for expr dumbass");
+                return new StringLitExpr(token());
             }
             case COLOR_CONST -> {
-                return new ColorConstExpr(t);
+                return new ColorConstExpr(token());
             }
             case LANGLE -> {
-                IToken firstToken = t;
-                t = lexer.next();
+                int firstToken = t;
+                next();
                 Expr a, b, c;
-                if (t.getKind() != Kind.EOF)
+                if (kind() != Kind.EOF)
                     a = expr();
                 else
                     throw new SyntaxException("bruh why");
 
-                if (t.getKind() == Kind.COMMA) {
-                    t = lexer.next();
+                if (kind() == Kind.COMMA) {
+                    next();
                     b = expr();
                 }
                 else
                     throw new SyntaxException("bruh why x2");
                 
-                if (t.getKind() == Kind.COMMA) {
-                    t = lexer.next();
+                if (kind() == Kind.COMMA) {
+                    next();
                     c = expr();
                 }
                 else
                     throw new SyntaxException("bruh why x3");
                 
-                if (t.getKind() == Kind.RANGLE)
-                    return new ColorExpr(firstToken, a, b, c);
+                if (kind() == Kind.RANGLE)
+                    return new ColorExpr(tokens.token(firstToken), a, b, c);
                 else
                     throw new SyntaxException("ya forgot rangle dumbass");
             }
             case KW_CONSOLE -> {
-                return new ConsoleExpr(t);
+                return new ConsoleExpr(token());
             }
             default -> {
                 throw new SyntaxException("it's none of the above lil dumdum");
@@ -422,18 +569,18 @@ public class Parser implements IParser {
     }
 
     private PixelSelector pixel() throws PLCException {
-        IToken firstToken = t;
-        t = lexer.next();
+        int firstToken = t;
+        next();
         Expr a = expr(); // expr x
-        if (t.getKind() != IToken.Kind.COMMA)
+        if (kind() != IToken.Kind.COMMA)
             throw new SyntaxException("Bad PixelSelector. Bad.");
         else {
-            t = lexer.next();
+            next();
             Expr b = expr(); // expr y
-            if (t.getKind() != IToken.Kind.RSQUARE)
+            if (kind() != IToken.Kind.RSQUARE)
                 throw new SyntaxException("Very Bad PixelSelector. Very Bad.");
             else {
-                return new PixelSelector(firstToken, a, b);
+                return new PixelSelector(tokens.token(firstToken), a, b);
             }
         }
     }
@@ -1,20 +1,79 @@
 package edu.ufl.cise.plc;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import edu.ufl.cise.plc.ast.Declaration;
 
+// Maps names to their declarations in nested scopes, and numbers the declarations as they are inserted.
+//
+// Each declaration gets the next slot, 0, 1, 2, ..., which is never given to another one, also after its scope is
+// left, so the slots of a program are dense and a later pass can keep the value of every variable in an array of
+// getSlotCount() elements instead of a map from names.
 public class SymbolTable {
 
-//TODO:  Implement a symbol table class that is appropriate for this language.
-    HashMap<String, Declaration> entries = new HashMap<>();
+    // the declaration of a name in the innermost scope that has one, and the one it hides in an outer scope
+    record Entry(String name, Declaration dec, int depth, Entry shadowed) {}
 
-    //returns true if name successfully inserted in symbol table, false if already present
+    final HashMap<String, Entry> entries = new HashMap<>();
+    // the entries of the open scopes in the order they were inserted; scope d starts at scopeStarts[d - 1]
+    final ArrayList<Entry> declared = new ArrayList<>();
+    int[] scopeStarts = new int[4];
+    int depth;
+    int slotCount;
+
+    public void enterScope() {
+        if (depth == scopeStarts.length)
+            scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+        scopeStarts[depth++] = declared.size();
+    }
+
+    // Removes the names declared since the matching enterScope, so the declarations they hid are visible again
+    public void leaveScope() {
+        if (depth == 0)
+            throw new IllegalStateException("no scope to leave");
+        int start = scopeStarts[--depth];
+        for (int i = declared.size() - 1; i >= start; i--) {
+            Entry e = declared.remove(i);
+            if (e.shadowed() == null)
+                entries.remove(e.name());
+            else
+                entries.put(e.name(), e.shadowed());
+        }
+    }
+
+    //returns true if name successfully inserted in the current scope, false if already declared in it.
+    //A declaration that is inserted gets the next slot; dec may be null for a name that is not a variable.
     public boolean insert(String name, Declaration dec) {
-        return (entries.putIfAbsent(name, dec) == null);
+        Entry outer = entries.get(name);
+        if (outer != null && outer.depth() == depth)
+            return false;
+        Entry e = new Entry(name, dec, depth, outer);
+        entries.put(name, e);
+        declared.add(e);
+        if (dec != null)
+            dec.setSlot(slotCount++);
+        return true;
     }
 
+    //returns the declaration of name in the innermost scope that has one, or null
     public Declaration lookup(String name) {
-        return entries.get(name);
+        Entry e = entries.get(name);
+        return e == null ? null : e.dec();
+    }
+
+    //returns true if name is declared in any open scope, also if it was inserted without a declaration
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    //the number of slots given out, so every slot is less than it
+    public int getSlotCount() {
+        return slotCount;
     }
 }
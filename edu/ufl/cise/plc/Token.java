@@ -3,13 +3,48 @@ package edu.ufl.cise.plc;
 public class Token implements IToken {
 
     private final Kind kind;
-    private SourceLocation s;
-    private String str;
-    
-    public Token(Kind k, int l, int c, String ss){
+    private final int line;
+    private final int column;
+    // the characters of the token are chars[start, start + length), shared with the lexer
+    private final char[] chars;
+    private final int start;
+    private final int length;
+    // shared by the tokens of a top-level declaration or statement parsed by IncrementalParser, so that an edit
+    // that adds or removes lines above it can move all of them at once.  null if the line never changes.
+    final Shift shift;
+    // computed the first time they are asked for
+    private String text;
+    private String stringValue;
+    private boolean hasIntValue, hasFloatValue;
+    private int intValue;
+    private float floatValue;
+
+    static final class Shift {
+        int lines;
+        Shift outer; // moves the tokens too, if not null
+
+        int lines() {
+            return outer == null ? lines : lines + outer.lines;
+        }
+    }
+
+    public Token(Kind k, int l, int c, char[] chars, int start, int length) {
+        this(k, l, c, chars, start, length, null);
+    }
+
+    Token(Kind k, int l, int c, char[] chars, int start, int length, Shift shift) {
         kind = k;
-        s = new SourceLocation(l,c);
-        str = ss;
+        line = l;
+        column = c;
+        this.chars = chars;
+        this.start = start;
+        this.length = length;
+        this.shift = shift;
+    }
+
+    public Token(Kind k, int l, int c, String ss) {
+        this(k, l, c, ss.toCharArray(), 0, ss.length());
+        text = ss;
     }
 
     @Override
@@ -17,71 +52,64 @@ public class Token implements IToken {
 
     @Override
     public String getText() {
-        StringBuilder strText = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            if (i == 0 || i == str.length() - 1) {
-                if (str.charAt(i) == '\"') {
-                    strText.append('"');
-                    continue;
-                }
-            }
-            switch (str.charAt(i)) {
-                case '\b' -> {
-                    strText.append("\\b");
-                }
-                case '\t' -> {
-                    strText.append("\\t");
-                }
-                case '\n' -> {
-                    strText.append("\\n");
-                }
-                case '\f' -> {
-                    strText.append("\\f");
-                }
-                case '\r' -> {
-                    strText.append("\\r");
-                }
-                case '\"' -> {
-                    strText.append("\\\"");
-                }
-                case '\'' -> {
-                    strText.append("\\'");
-                }
-                case '\\' -> {
-                    strText.append("\\\\");
-                }
-                default -> strText.append(str.charAt(i));
-            }
-        }
-        return strText.toString();
+        if (text == null)
+            text = new String(chars, start, length);
+        return text;
     }
 
     @Override
     public SourceLocation getSourceLocation() {
-        return s;
+        return new SourceLocation(shift == null ? line : line + shift.lines(), column);
     }
 
     @Override
-    public int getIntValue() { return Integer.parseInt(str);}
+    public int getIntValue() {
+        if (!hasIntValue) {
+            // the lexer has checked that the digits fit in an int
+            int value = 0;
+            for (int i = start; i < start + length; i++)
+                value = value * 10 + Character.digit(chars[i], 10);
+            intValue = value;
+            hasIntValue = true;
+        }
+        return intValue;
+    }
 
     @Override
     public float getFloatValue() {
-        return Float.parseFloat(str);
+        if (!hasFloatValue) {
+            floatValue = Float.parseFloat(getText());
+            hasFloatValue = true;
+        }
+        return floatValue;
     }
 
     @Override
     public boolean getBooleanValue() {
-        if (str.equals("true"))
-            return true;
-        else
-            return false;
+        return length == 4 && chars[start] == 't';
     }
 
     @Override
     public String getStringValue() {
-        StringBuilder strVal = new StringBuilder(str);
-        strVal.deleteCharAt(0);
-        strVal.deleteCharAt(strVal.length() - 1);
-        return strVal.toString();
+        if (stringValue == null) {
+            // drop the delimiting "s and replace escape sequences by the characters they represent
+            StringBuilder strVal = new StringBuilder(length);
+            for (int i = start + 1; i < start + length - 1; i++) {
+                char ch = chars[i];
+                if (ch == '\\') {
+                    ch = switch (chars[++i]) {
+                        case 'b' -> '\b';
+                        case 't' -> '\t';
+                        case 'n' -> '\n';
+                        case 'f' -> '\f';
+                        case 'r' -> '\r';
+                        default -> chars[i]; // '"', '\'' and '\\' stand for themselves
+                    };
+                }
+                strVal.append(ch);
+            }
+            stringValue = strVal.toString();
+        }
+        return stringValue;
     }
 }
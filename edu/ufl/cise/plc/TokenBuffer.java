@@ -0,0 +1,141 @@
+package edu.ufl.cise.plc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.ufl.cise.plc.IToken.Kind;
+
+// The tokens of a whole program, stored in parallel arrays with one entry per token: the kind as the
+// ordinal of its Kind, and the offset and length in chars, line and column.  Token objects are only
+// created when token(i) is called, e.g. for the tokens the parser keeps in the AST.
+//
+// The last entry is an EOF token, or an ERROR token if lexing stopped at a lexical error; error() then
+// returns the exception.  A buffer made by Lexer.tokenize(true) instead has an ERROR token for every lexical
+// error and goes on to EOF.  Tools such as a formatter or highlighter can walk the buffer without lexing again.
+public class TokenBuffer {
+    private static final Kind[] KINDS = Kind.values();
+
+    private char[] chars;
+    private byte[] kinds = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int[] lines = new int[64];
+    private int[] columns = new int[64];
+    private int size;
+    private IToken[] tokens; // created on first use by token(i)
+    private LexicalException error;
+    private final Map<Integer, LexicalException> errors = new HashMap<>(); // by the index of their ERROR token
+    Token.Shift shift; // given to the tokens created by token(i), set by the parser for IncrementalParser
+
+    // Lexes all of input.
+    public static TokenBuffer tokenize(String input) {
+        return new Lexer(input).tokenize();
+    }
+
+    // Pulls the remaining tokens from any ILexer.  Their text is copied into the buffer's own chars.
+    public static TokenBuffer of(ILexer lexer) {
+        return of(lexer, false);
+    }
+
+    // If recover is true and lexer is a Lexer, the buffer has all the lexical errors, see Lexer.tokenize(boolean)
+    public static TokenBuffer of(ILexer lexer, boolean recover) {
+        if (lexer instanceof Lexer l)
+            return l.tokenize(recover);
+        TokenBuffer buffer = new TokenBuffer();
+        StringBuilder text = new StringBuilder();
+        try {
+            IToken t;
+            do {
+                t = lexer.next();
+                buffer.add(t.getKind(), text.length(), t.getText().length(), t.getSourceLocation().line(), t.getSourceLocation().column());
+                text.append(t.getText());
+            } while (t.getKind() != Kind.EOF);
+        } catch (LexicalException e) {
+            buffer.addError(e, text.length(), 0, -1, -1);
+        }
+        buffer.setChars(text.toString().toCharArray());
+        return buffer;
+    }
+
+    void add(Kind kind, int start, int length, int line, int column) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        columns[size] = column;
+        size++;
+    }
+
+    void addError(LexicalException e, int start, int length, int line, int column) {
+        if (error == null)
+            error = e;
+        errors.put(size, e);
+        add(Kind.ERROR, start, length, line, column);
+    }
+
+    void setChars(char[] chars) {
+        this.chars = chars;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Kind kind(int i) {
+        return KINDS[kinds[i]];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public int column(int i) {
+        return columns[i];
+    }
+
+    // The chars that start(i) and length(i) index into
+    public char[] chars() {
+        return chars;
+    }
+
+    public String text(int i) {
+        return token(i).getText();
+    }
+
+    // Returns token i as an IToken.  The same object is returned each time.
+    public IToken token(int i) {
+        if (tokens == null)
+            tokens = new IToken[size];
+        IToken t = tokens[i];
+        if (t == null)
+            t = tokens[i] = new Token(kind(i), lines[i], columns[i], chars, starts[i], lengths[i], shift);
+        return t;
+    }
+
+    // The exception that ended lexing, or the first one if lexing recovered from errors, or null if there was none
+    public LexicalException error() {
+        return error;
+    }
+
+    // The exception for the ERROR token i
+    public LexicalException error(int i) {
+        return errors.get(i);
+    }
+}
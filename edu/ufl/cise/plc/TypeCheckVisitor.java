@@ -1,5 +1,6 @@
 package edu.ufl.cise.plc;
 
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,8 +43,100 @@ public class TypeCheckVisitor implements ASTVisitor {
 
 	SymbolTable symbolTable = new SymbolTable();  
 	Program root;
+	//In recovery mode, receives the type errors; null otherwise
+	final List<PLCException> errors;
+
+	public TypeCheckVisitor() {
+		this(null);
+	}
+
+	//Checks in recovery mode if errors is not null: a type error in a parameter, declaration or statement is added
+	//to errors and checking goes on with the next one, so all of them are found in one pass.
+	public TypeCheckVisitor(List<PLCException> errors) {
+		this.errors = errors;
+	}
 	
-	record Pair<T0,T1>(T0 t0, T1 t1){};  //may be useful for constructing lookup tables.
+	//The result type of an operator and the coercions of its operands, null if the operand is not coerced
+	record Rule(Type result, Type coerceLeft, Type coerceRight) {}
+
+	static final Type[] TYPES = Type.values();
+
+	//Lookup tables that map an operator and its operand types to the result type, as an array indexed by the
+	//ordinal of the type (left.ordinal() * TYPES.length + right.ordinal() for binary operators).
+	//This is more convenient than a long chain of if-else statements, and a lookup is two array accesses.
+	//A combination that has no entry is an error.
+	static final Map<Kind, Type[]> UNARY_RULES = new EnumMap<>(Kind.class);
+	static final Map<Kind, Rule[]> BINARY_RULES = new EnumMap<>(Kind.class);
+	//The coercion of the right hand side of an assignment or declaration, indexed like a binary rule by the target
+	//and right hand side types.  The rule's result is the target type; a missing rule means they are incompatible.
+	static final Rule[] ASSIGNMENT_RULES = new Rule[TYPES.length * TYPES.length];
+
+	static {
+		unary(Kind.BANG, BOOLEAN, BOOLEAN);
+		unary(Kind.MINUS, FLOAT, FLOAT);
+		unary(Kind.MINUS, INT, INT);
+		unary(Kind.COLOR_OP, INT, INT);
+		unary(Kind.COLOR_OP, COLOR, INT);
+		unary(Kind.COLOR_OP, IMAGE, IMAGE);
+		unary(Kind.IMAGE_OP, IMAGE, INT);
+
+		for (Kind op : List.of(Kind.AND, Kind.OR))
+			binary(op, BOOLEAN, BOOLEAN, BOOLEAN, null, null);
+		for (Kind op : List.of(Kind.EQUALS, Kind.NOT_EQUALS))
+			for (Type type : TYPES)
+				binary(op, type, type, BOOLEAN, null, null);
+		for (Kind op : List.of(Kind.PLUS, Kind.MINUS, Kind.TIMES, Kind.DIV, Kind.MOD)) {
+			binary(op, INT, INT, INT, null, null);
+			binary(op, FLOAT, FLOAT, FLOAT, null, null);
+			binary(op, INT, FLOAT, FLOAT, FLOAT, null);
+			binary(op, FLOAT, INT, FLOAT, null, FLOAT);
+			binary(op, COLOR, COLOR, COLOR, null, null);
+			binary(op, COLORFLOAT, COLORFLOAT, COLORFLOAT, null, null);
+			binary(op, COLOR, COLORFLOAT, COLORFLOAT, COLORFLOAT, null);
+			binary(op, COLORFLOAT, COLOR, COLORFLOAT, null, COLORFLOAT);
+			binary(op, IMAGE, IMAGE, IMAGE, null, null);
+		}
+		for (Kind op : List.of(Kind.TIMES, Kind.DIV, Kind.MOD)) {
+			binary(op, IMAGE, INT, IMAGE, null, null);
+			binary(op, IMAGE, FLOAT, IMAGE, null, null);
+			binary(op, INT, COLOR, COLOR, COLOR, null);
+			binary(op, COLOR, INT, COLOR, null, COLOR);
+			binary(op, FLOAT, COLOR, COLORFLOAT, COLORFLOAT, COLORFLOAT);
+			binary(op, COLOR, FLOAT, COLORFLOAT, COLORFLOAT, COLORFLOAT);
+		}
+		for (Kind op : List.of(Kind.LT, Kind.LE, Kind.GT, Kind.GE)) {
+			binary(op, INT, INT, BOOLEAN, null, null);
+			binary(op, FLOAT, FLOAT, BOOLEAN, null, null);
+			binary(op, INT, FLOAT, BOOLEAN, FLOAT, null);
+			binary(op, FLOAT, INT, BOOLEAN, null, FLOAT);
+		}
+
+		for (Type type : TYPES)
+			assignment(type, type, null);
+		assignment(INT, FLOAT, INT);
+		assignment(FLOAT, INT, FLOAT);
+		assignment(COLOR, INT, COLOR);
+		assignment(INT, COLOR, INT);
+		//any value can be assigned to an image; ints and floats are coerced to a color for every pixel
+		for (Type type : TYPES)
+			if (type != IMAGE)
+				assignment(IMAGE, type, null);
+		assignment(IMAGE, INT, COLOR);
+		assignment(IMAGE, FLOAT, COLORFLOAT);
+	}
+
+	private static void unary(Kind op, Type exprType, Type result) {
+		UNARY_RULES.computeIfAbsent(op, k -> new Type[TYPES.length])[exprType.ordinal()] = result;
+	}
+
+	private static void binary(Kind op, Type left, Type right, Type result, Type coerceLeft, Type coerceRight) {
+		BINARY_RULES.computeIfAbsent(op, k -> new Rule[TYPES.length * TYPES.length])[left.ordinal() * TYPES.length + right.ordinal()]
+				= new Rule(result, coerceLeft, coerceRight);
+	}
+
+	private static void assignment(Type target, Type rhs, Type coerceTo) {
+		ASSIGNMENT_RULES[target.ordinal() * TYPES.length + rhs.ordinal()] = new Rule(target, null, coerceTo);
+	}
 	
 	private void check(boolean condition, ASTNode node, String message) throws TypeCheckException {
 		if (!condition) {
@@ -106,19 +199,6 @@ public class TypeCheckVisitor implements ASTVisitor {
 
 	
 	
-	//Maps forms a lookup table that maps an operator expression pair into result type.  
-	//This more convenient than a long chain of if-else statements. 
-	//Given combinations are legal; if the operator expression pair is not in the map, it is an error. 
-	Map<Pair<Kind,Type>, Type> unaryExprs = Map.of(
-			new Pair<Kind,Type>(Kind.BANG,BOOLEAN), BOOLEAN,
-			new Pair<Kind,Type>(Kind.MINUS, FLOAT), FLOAT,
-			new Pair<Kind,Type>(Kind.MINUS, INT),INT,
-			new Pair<Kind,Type>(Kind.COLOR_OP,INT), INT,
-			new Pair<Kind,Type>(Kind.COLOR_OP,COLOR), INT,
-			new Pair<Kind,Type>(Kind.COLOR_OP,IMAGE), IMAGE,
-			new Pair<Kind,Type>(Kind.IMAGE_OP,IMAGE), INT
-			);
-	
 	//Visits the child expression to get the type, then uses the above table to determine the result type
 	//and check that this node represents a legal combination of operator and expression type. 
 	@Override
@@ -127,7 +207,8 @@ public class TypeCheckVisitor implements ASTVisitor {
 		Kind op = unaryExpr.getOp().getKind();
 		Type exprType = (Type) unaryExpr.getExpr().visit(this, arg);
 		//Use the lookup table above to both check for a legal combination of operator and expression, and to get result type.
-		Type resultType = unaryExprs.get(new Pair<Kind,Type>(op,exprType));
+		Type[] results = UNARY_RULES.get(op);
+		Type resultType = results == null ? null : results[exprType.ordinal()];
 		check(resultType != null, unaryExpr, "incompatible types for unaryExpr");
 		//Save the type of the unary expression in the AST node for use in code generation later. 
 		unaryExpr.setType(resultType);
@@ -142,112 +223,17 @@ public class TypeCheckVisitor implements ASTVisitor {
 		Kind op = binaryExpr.getOp().getKind();
 		Type leftType = (Type) binaryExpr.getLeft().visit(this, arg);
 		Type rightType = (Type) binaryExpr.getRight().visit(this, arg);
-		Type resultType = null;
-
-		switch(op) {//AND, OR, PLUS, MINUS, TIMES, DIV, MOD, EQUALS, NOT_EQUALS, LT, LE, GT,GE 
-			case AND, OR -> {
-				if (leftType == Type.BOOLEAN && rightType == Type.BOOLEAN)
-					resultType = Type.BOOLEAN;
-				else
-					check(false, binaryExpr, "incompatible types for operator");
-			}
-			case EQUALS,NOT_EQUALS -> {
-				check(leftType == rightType, binaryExpr, "incompatible types for comparison");
-				resultType = Type.BOOLEAN;
-			}
-			case PLUS, MINUS -> {
-				if (leftType == Type.INT && rightType == Type.INT)
-					resultType = Type.INT;
-				else if (leftType == Type.FLOAT && rightType == Type.FLOAT)
-					resultType = Type.FLOAT;
-				else if (leftType == Type.INT && rightType == Type.FLOAT) {
-					binaryExpr.getLeft().setCoerceTo(FLOAT);
-					resultType = Type.FLOAT;
-				}
-				else if (leftType == Type.FLOAT && rightType == Type.INT) {
-					binaryExpr.getRight().setCoerceTo(FLOAT);
-					resultType = Type.FLOAT;
-				}
-				else if (leftType == Type.COLOR && rightType == Type.COLOR)
-					resultType = Type.COLOR;
-				else if (leftType == Type.COLORFLOAT && rightType == Type.COLORFLOAT)
-					resultType = Type.COLORFLOAT;
-				else if (leftType == Type.COLOR && rightType == Type.COLORFLOAT) {
-					binaryExpr.getLeft().setCoerceTo(COLORFLOAT);
-					resultType = Type.COLORFLOAT;
-				}
-				else if (leftType == Type.COLORFLOAT && rightType == Type.COLOR) {
-					binaryExpr.getRight().setCoerceTo(COLORFLOAT);
-					resultType = Type.COLORFLOAT;
-				}
-				else if (leftType == Type.IMAGE && rightType == Type.IMAGE)
-					resultType = Type.IMAGE;
-				else 
-					check(false, binaryExpr, "incompatible types for operator");
-			}
-			case TIMES, DIV, MOD -> {
-				if (leftType == Type.INT && rightType == Type.INT)
-					resultType = Type.INT;
-				else if (leftType == Type.FLOAT && rightType == Type.FLOAT)
-					resultType = Type.FLOAT;
-				else if (leftType == Type.INT && rightType == Type.FLOAT) {
-					binaryExpr.getLeft().setCoerceTo(FLOAT);
-					resultType = Type.FLOAT;
-				}
-				else if (leftType == Type.FLOAT && rightType == Type.INT) {
-					binaryExpr.getRight().setCoerceTo(FLOAT);
-					resultType = Type.FLOAT;
-				}
-				else if (leftType == Type.COLOR && rightType == Type.COLOR)
-					resultType = Type.COLOR;
-				else if (leftType == Type.COLORFLOAT && rightType == Type.COLORFLOAT)
-					resultType = Type.COLORFLOAT;
-				else if (leftType == Type.COLOR && rightType == Type.COLORFLOAT) {
-					binaryExpr.getLeft().setCoerceTo(COLORFLOAT);
-					resultType = Type.COLORFLOAT;
-				}
-				else if (leftType == Type.COLORFLOAT && rightType == Type.COLOR) {
-					binaryExpr.getRight().setCoerceTo(COLORFLOAT);
-					resultType = Type.COLORFLOAT;
-				}
-				else if (leftType == Type.IMAGE && rightType == Type.IMAGE)
-					resultType = Type.IMAGE;
-				else if ((leftType == Type.IMAGE && rightType == Type.INT) || (leftType == Type.IMAGE && rightType == Type.FLOAT))
-					resultType = Type.IMAGE;
-				else if (leftType == Type.INT && rightType == Type.COLOR) {
-					binaryExpr.getLeft().setCoerceTo(COLOR);
-					resultType = Type.COLOR;
-				}
-				else if (leftType == Type.COLOR && rightType == Type.INT) {
-					binaryExpr.getRight().setCoerceTo(COLOR);
-					resultType = Type.COLOR;
-				}
-				else if ((leftType == Type.FLOAT && rightType == Type.COLOR) || (leftType == Type.COLOR && rightType == Type.FLOAT)) {
-					binaryExpr.getLeft().setCoerceTo(COLORFLOAT);
-					binaryExpr.getRight().setCoerceTo(COLORFLOAT);
-					resultType = Type.COLORFLOAT;
-				}
-				else
-					check(false, binaryExpr, "incompatible types for operator");
-			}
-			case LT, LE, GT, GE -> {
-				if ((leftType == Type.INT && rightType == Type.INT) || (leftType == Type.FLOAT && rightType == Type.FLOAT))
-					resultType = Type.BOOLEAN;
-				else if (leftType == Type.INT && rightType == Type.FLOAT) {
-					binaryExpr.getLeft().setCoerceTo(FLOAT);
-					resultType = Type.BOOLEAN;
-				}
-				else if (leftType == Type.FLOAT && rightType == Type.INT) {
-					binaryExpr.getRight().setCoerceTo(FLOAT);
-					resultType = Type.BOOLEAN;
-				}
-				else 
-					check(false, binaryExpr, "incompatible types for operator");
-			}
-			default -> {
-				throw new Exception("compiler error");
-			}
-		}
+		//AND, OR, PLUS, MINUS, TIMES, DIV, MOD, EQUALS, NOT_EQUALS, LT, LE, GT, GE
+		Rule[] rules = BINARY_RULES.get(op);
+		if (rules == null)
+			throw new Exception("compiler error");
+		Rule rule = rules[leftType.ordinal() * TYPES.length + rightType.ordinal()];
+		check(rule != null, binaryExpr, op == Kind.EQUALS || op == Kind.NOT_EQUALS ? "incompatible types for comparison" : "incompatible types for operator");
+		if (rule.coerceLeft() != null)
+			binaryExpr.getLeft().setCoerceTo(rule.coerceLeft());
+		if (rule.coerceRight() != null)
+			binaryExpr.getRight().setCoerceTo(rule.coerceRight());
+		Type resultType = rule.result();
 		binaryExpr.setType(resultType);
 		return resultType;
 	}
@@ -259,6 +245,7 @@ public class TypeCheckVisitor implements ASTVisitor {
 		check(dec != null, identExpr, "undefined identifier " + name);
 		check(dec.isInitialized(), identExpr, "using uninitialized variable");
 		identExpr.setDec(dec);  //save declaration--will be useful later. 
+		identExpr.setSlot(dec.getSlot());
 		Type type = dec.getType();
 		identExpr.setType(type);
 		return type;
@@ -330,22 +317,29 @@ public class TypeCheckVisitor implements ASTVisitor {
 				decX.setInitialized(true);
 				VarDeclaration decY = new VarDeclaration(dummy, new NameDef(dummy, "int", y.getText()), new Token(Kind.ASSIGN, -1, -1, ""), y);
 				decY.setInitialized(true);
-				Boolean insertedX = symbolTable.insert(x.getText(), decX);
-				Boolean insertedY = symbolTable.insert(y.getText(), decY);
-				check(insertedX && insertedY, assignmentStatement, "we stan uniqueness in this household");
-				x.setType(INT);
-				y.setType(INT);
-				assignmentStatement.getExpr().visit(this, arg);
-				switch (assignmentStatement.getExpr().getType()) {
-					case COLOR, COLORFLOAT, FLOAT, INT -> {
-						assignmentStatement.getExpr().setCoerceTo(COLOR);
-					}
-					default -> {
-						throw new TypeCheckException("excuse you", assignmentStatement.getSourceLoc());
+				//x and y are only in scope in this statement, also when checking goes on after an error in it
+				symbolTable.enterScope();
+				try {
+					//they may not hide a name declared outside it
+					boolean unique = !symbolTable.contains(x.getText()) && !symbolTable.contains(y.getText())
+							&& symbolTable.insert(x.getText(), decX) && symbolTable.insert(y.getText(), decY);
+					check(unique, assignmentStatement, "we stan uniqueness in this household");
+					x.setType(INT);
+					y.setType(INT);
+					((IdentExpr) x).setSlot(decX.getSlot());
+					((IdentExpr) y).setSlot(decY.getSlot());
+					assignmentStatement.getExpr().visit(this, arg);
+					switch (assignmentStatement.getExpr().getType()) {
+						case COLOR, COLORFLOAT, FLOAT, INT -> {
+							assignmentStatement.getExpr().setCoerceTo(COLOR);
+						}
+						default -> {
+							throw new TypeCheckException("excuse you", assignmentStatement.getSourceLoc());
+						}
 					}
+				} finally {
+					symbolTable.leaveScope();
 				}
-				symbolTable.entries.remove(x.getText());
-				symbolTable.entries.remove(y.getText());
 			}
 		}
 		return null;
@@ -375,25 +369,12 @@ public class TypeCheckVisitor implements ASTVisitor {
 	}
 
 	private boolean assignmentCompatible(Declaration target, Expr rhs) {
-		Type targetType = target.getType();
-		Type rhsType = rhs.getType();
-		if (targetType == rhsType)
-			return true;
-		else if ((targetType == Type.INT && rhsType == Type.FLOAT) || (targetType == Type.FLOAT && rhsType == Type.INT)
-		|| (targetType == Type.COLOR && rhsType == Type.INT) || (targetType == Type.INT && rhsType == Type.COLOR)) {
-			rhs.setCoerceTo(targetType);
-			return true;
-		}
-		else if (targetType == Type.IMAGE) {
-			if (rhsType == Type.INT)
-				rhs.setCoerceTo(COLOR);
-			else if (rhsType == Type.FLOAT)
-				rhs.setCoerceTo(COLORFLOAT);
-			else if (rhsType == COLOR || rhsType == COLORFLOAT)
-				return true;
-			return true;
-		}
-		return false;
+		Rule rule = ASSIGNMENT_RULES[target.getType().ordinal() * TYPES.length + rhs.getType().ordinal()];
+		if (rule == null)
+			return false;
+		if (rule.coerceRight() != null)
+			rhs.setCoerceTo(rule.coerceRight());
+		return true;
 	}
 	
 	@Override
@@ -439,17 +420,34 @@ public class TypeCheckVisitor implements ASTVisitor {
 		List<NameDef> params = program.getParams();
 		for (NameDef node : params) {
 			node.setInitialized(true);
-			node.visit(this, arg);
+			visitOrReport(node, arg);
 		}
 
 		//Check declarations and statements
 		List<ASTNode> decsAndStatements = program.getDecsAndStatements();
 		for (ASTNode node : decsAndStatements) {
-			node.visit(this, arg);
+			visitOrReport(node, arg);
 		}
+		program.setSlotCount(symbolTable.getSlotCount());
 		return program;
 	}
 
+	//In recovery mode, reports a type error in node and goes on
+	private void visitOrReport(ASTNode node, Object arg) throws Exception {
+		if (errors == null) {
+			node.visit(this, arg);
+			return;
+		}
+		try {
+			node.visit(this, arg);
+		} catch (TypeCheckException e) {
+			errors.add(e);
+			//the variable is declared with an initializer, so later uses should not be reported as uninitialized
+			if (node instanceof VarDeclaration declaration && declaration.getOp() != null)
+				declaration.getNameDef().setInitialized(true);
+		}
+	}
+
 	@Override
 	public Object visitNameDef(NameDef nameDef, Object arg) throws Exception {
 		Boolean inserted = symbolTable.insert(nameDef.getName(), nameDef);
@@ -0,0 +1,584 @@
+package edu.ufl.cise.plc.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ufl.cise.plc.IToken;
+import edu.ufl.cise.plc.IToken.Kind;
+import edu.ufl.cise.plc.Token;
+import edu.ufl.cise.plc.ast.Types.Type;
+
+// Writes an AST, with the decorations the type checker adds, to a compact binary form and reads it back, e.g. to
+// cache the result of the front end across runs.
+//
+// The format starts with MAGIC and FORMAT_VERSION, the number of nodes and tokens, then the table of the
+// distinct token texts and names, then the root node.  Integers are written as unsigned LEB128 varints, signed
+// ones zigzag encoded first.  Each node is written as a tag, the tokens and children its constructor takes, then
+// its type and coerceTo in one byte, and its dec, targetDec, initialized, slot or slotCount decorations, a slot
+// as slot + 1.  A token is its kind in its tag, its line as the difference from the line of the token before, its
+// column and the index of its text in the table.  Nodes and tokens are written in full the first time and as how
+// many nodes or tokens back that was after, so the nodes and tokens the AST shares, e.g. the declaration an
+// IdentExpr refers to, are shared again when it is read.  The reader decodes the table into one char array that
+// the tokens it creates share, so reading creates no string per token.
+//
+// Kinds and types are written as their ordinals, so FORMAT_VERSION must change if those enums change.
+public class ASTSerializer {
+	public static final int MAGIC = 0x504C4341; // "PLCA"
+	public static final int FORMAT_VERSION = 2;
+
+	// the first varint of a node or token.  A token written in full has the ordinal of its kind + NEW_TOKEN instead.
+	static final int NULL = 0, BACK_REFERENCE = 1, NEW_TOKEN = 2;
+	// and the tags of the node classes, the first time a node is written
+	static final int BOOLEAN_LIT = 2, STRING_LIT = 3, INT_LIT = 4, FLOAT_LIT = 5, COLOR_CONST = 6, CONSOLE = 7,
+			COLOR = 8, UNARY = 9, BINARY = 10, IDENT = 11, CONDITIONAL = 12, DIMENSION = 13, PIXEL_SELECTOR = 14,
+			ASSIGNMENT = 15, WRITE = 16, READ = 17, PROGRAM = 18, NAME_DEF = 19, NAME_DEF_WITH_DIM = 20,
+			RETURN = 21, VAR_DECLARATION = 22, UNARY_POSTFIX = 23;
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final Type[] TYPES = Type.values();
+
+	public static byte[] serialize(ASTNode node) {
+		Writer w = new Writer();
+		w.writeNode(node);
+		Output out = new Output();
+		out.writeInt(MAGIC);
+		out.writeVarint(FORMAT_VERSION);
+		out.writeVarint(w.nodes.size());
+		out.writeVarint(w.tokens.size());
+		out.writeVarint(w.strings.size());
+		out.write(w.table);
+		out.write(w);
+		return Arrays.copyOf(out.buf, out.size);
+	}
+
+	// Throws IllegalArgumentException if bytes are not an AST written by this version of serialize
+	public static ASTNode deserialize(byte[] bytes) {
+		Reader r = new Reader(bytes);
+		try {
+			if (r.readInt() != MAGIC)
+				throw new IllegalArgumentException("not a serialized AST");
+			int version = r.readVarint();
+			if (version != FORMAT_VERSION)
+				throw new IllegalArgumentException("unsupported AST format version " + version);
+			r.readCountsAndTable();
+			ASTNode node = r.readNode();
+			if (r.pos != bytes.length)
+				throw new IllegalArgumentException("extra bytes after AST");
+			return node;
+		} catch (IndexOutOfBoundsException | ClassCastException | NullPointerException e) {
+			throw new IllegalArgumentException("corrupt serialized AST", e);
+		}
+	}
+
+	private static class Output {
+		byte[] buf = new byte[256];
+		int size;
+
+		void writeByte(int b) {
+			if (size == buf.length)
+				buf = Arrays.copyOf(buf, size * 2);
+			buf[size++] = (byte) b;
+		}
+
+		void write(Output o) {
+			if (size + o.size > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(size * 2, size + o.size));
+			System.arraycopy(o.buf, 0, buf, size, o.size);
+			size += o.size;
+		}
+
+		void writeInt(int v) {
+			writeByte(v >>> 24);
+			writeByte(v >>> 16);
+			writeByte(v >>> 8);
+			writeByte(v);
+		}
+
+		void writeVarint(int v) {
+			while ((v & ~0x7F) != 0) {
+				writeByte((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			writeByte(v);
+		}
+
+		void writeSigned(int v) {
+			writeVarint((v << 1) ^ (v >> 31));
+		}
+	}
+
+	// Writes the nodes to itself and the strings to table
+	private static final class Writer extends Output implements ASTVisitor {
+		final Output table = new Output();
+		final Map<String, Integer> strings = new HashMap<>();
+		final Map<ASTNode, Integer> nodes = new IdentityHashMap<>();
+		final Map<IToken, Integer> tokens = new IdentityHashMap<>();
+		int line; // of the last token written in full
+
+		// as 0 for null, or its index in the table + 1
+		void writeString(String s) {
+			if (s == null) {
+				writeVarint(0);
+				return;
+			}
+			Integer index = strings.get(s);
+			if (index == null) {
+				strings.put(s, index = strings.size());
+				table.writeVarint(s.length());
+				for (int i = 0; i < s.length(); i++)
+					table.writeVarint(s.charAt(i));
+			}
+			writeVarint(index + 1);
+		}
+
+		void writeToken(IToken t) {
+			if (t == null) {
+				writeVarint(NULL);
+				return;
+			}
+			Integer index = tokens.get(t);
+			if (index != null) {
+				writeVarint(BACK_REFERENCE);
+				writeVarint(tokens.size() - index);
+				return;
+			}
+			writeVarint(t.getKind().ordinal() + NEW_TOKEN);
+			IToken.SourceLocation location = t.getSourceLocation();
+			writeSigned(location.line() - line);
+			line = location.line();
+			writeSigned(location.column());
+			writeString(t.getText());
+			tokens.put(t, tokens.size());
+		}
+
+		void writeType(Type type) {
+			writeByte(ordinal(type));
+		}
+
+		static int ordinal(Type type) {
+			return type == null ? 0 : type.ordinal() + 1;
+		}
+
+		void writeNode(ASTNode node) {
+			if (node == null) {
+				writeVarint(NULL);
+				return;
+			}
+			Integer index = nodes.get(node);
+			if (index != null) {
+				writeVarint(BACK_REFERENCE);
+				writeVarint(nodes.size() - index);
+				return;
+			}
+			try {
+				node.visit(this, null);
+			} catch (Exception e) {
+				throw new IllegalStateException(e); // the methods below throw none
+			}
+			// numbered after its children, as the reader can only create it after them
+			nodes.put(node, nodes.size());
+		}
+
+		void writeNodes(List<? extends ASTNode> list) {
+			writeVarint(list.size());
+			for (ASTNode node : list)
+				writeNode(node);
+		}
+
+		// the decorations of every Expr
+		void writeExpr(Expr e) {
+			writeByte(ordinal(e.getType()) * (TYPES.length + 1) + ordinal(e.getCoerceTo()));
+		}
+
+		// the decorations of every Declaration
+		void writeDeclaration(Declaration d) {
+			writeByte(d.isInitialized() ? 1 : 0);
+			writeVarint(d.getSlot() + 1);
+		}
+
+		void writeLeaf(int tag, Expr e) {
+			writeVarint(tag);
+			writeToken(e.getFirstToken());
+			writeExpr(e);
+		}
+
+		@Override
+		public Object visitBooleanLitExpr(BooleanLitExpr booleanLitExpr, Object arg) {
+			writeLeaf(BOOLEAN_LIT, booleanLitExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) {
+			writeLeaf(STRING_LIT, stringLitExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitIntLitExpr(IntLitExpr intLitExpr, Object arg) {
+			writeLeaf(INT_LIT, intLitExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitFloatLitExpr(FloatLitExpr floatLitExpr, Object arg) {
+			writeLeaf(FLOAT_LIT, floatLitExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitColorConstExpr(ColorConstExpr colorConstExpr, Object arg) {
+			writeLeaf(COLOR_CONST, colorConstExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitConsoleExpr(ConsoleExpr consoleExpr, Object arg) {
+			writeLeaf(CONSOLE, consoleExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitIdentExpr(IdentExpr identExpr, Object arg) {
+			writeLeaf(IDENT, identExpr);
+			writeNode(identExpr.getDec());
+			writeVarint(identExpr.getSlot() + 1);
+			return null;
+		}
+
+		@Override
+		public Object visitColorExpr(ColorExpr colorExpr, Object arg) {
+			writeVarint(COLOR);
+			writeToken(colorExpr.getFirstToken());
+			writeNode(colorExpr.getRed());
+			writeNode(colorExpr.getGreen());
+			writeNode(colorExpr.getBlue());
+			writeExpr(colorExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitUnaryExpr(UnaryExpr unaryExpression, Object arg) {
+			writeVarint(UNARY);
+			writeToken(unaryExpression.getFirstToken());
+			writeToken(unaryExpression.getOp());
+			writeNode(unaryExpression.getExpr());
+			writeExpr(unaryExpression);
+			return null;
+		}
+
+		@Override
+		public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) {
+			writeVarint(BINARY);
+			writeToken(binaryExpr.getFirstToken());
+			writeNode(binaryExpr.getLeft());
+			writeToken(binaryExpr.getOp());
+			writeNode(binaryExpr.getRight());
+			writeExpr(binaryExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitConditionalExpr(ConditionalExpr conditionalExpr, Object arg) {
+			writeVarint(CONDITIONAL);
+			writeToken(conditionalExpr.getFirstToken());
+			writeNode(conditionalExpr.getCondition());
+			writeNode(conditionalExpr.getTrueCase());
+			writeNode(conditionalExpr.getFalseCase());
+			writeExpr(conditionalExpr);
+			return null;
+		}
+
+		@Override
+		public Object visitUnaryExprPostfix(UnaryExprPostfix unaryExprPostfix, Object arg) {
+			writeVarint(UNARY_POSTFIX);
+			writeToken(unaryExprPostfix.getFirstToken());
+			writeNode(unaryExprPostfix.getExpr());
+			writeNode(unaryExprPostfix.getSelector());
+			writeExpr(unaryExprPostfix);
+			return null;
+		}
+
+		@Override
+		public Object visitDimension(Dimension dimension, Object arg) {
+			writeVarint(DIMENSION);
+			writeToken(dimension.getFirstToken());
+			writeNode(dimension.getWidth());
+			writeNode(dimension.getHeight());
+			return null;
+		}
+
+		@Override
+		public Object visitPixelSelector(PixelSelector pixelSelector, Object arg) {
+			writeVarint(PIXEL_SELECTOR);
+			writeToken(pixelSelector.getFirstToken());
+			writeNode(pixelSelector.getX());
+			writeNode(pixelSelector.getY());
+			return null;
+		}
+
+		@Override
+		public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) {
+			writeVarint(ASSIGNMENT);
+			writeToken(assignmentStatement.getFirstToken());
+			writeString(assignmentStatement.getName());
+			writeNode(assignmentStatement.getSelector());
+			writeNode(assignmentStatement.getExpr());
+			writeNode(assignmentStatement.getTargetDec());
+			return null;
+		}
+
+		@Override
+		public Object visitWriteStatement(WriteStatement writeStatement, Object arg) {
+			writeVarint(WRITE);
+			writeToken(writeStatement.getFirstToken());
+			writeNode(writeStatement.getSource());
+			writeNode(writeStatement.getDest());
+			return null;
+		}
+
+		@Override
+		public Object visitReadStatement(ReadStatement readStatement, Object arg) {
+			writeVarint(READ);
+			writeToken(readStatement.getFirstToken());
+			writeString(readStatement.getName());
+			writeNode(readStatement.getSelector());
+			writeNode(readStatement.getSource());
+			writeNode(readStatement.getTargetDec());
+			return null;
+		}
+
+		@Override
+		public Object visitProgram(Program program, Object arg) {
+			writeVarint(PROGRAM);
+			writeToken(program.getFirstToken());
+			writeType(program.getReturnType());
+			writeString(program.getName());
+			writeNodes(program.getParams());
+			writeNodes(program.getDecsAndStatements());
+			writeVarint(program.getSlotCount());
+			return null;
+		}
+
+		@Override
+		public Object visitNameDef(NameDef nameDef, Object arg) {
+			writeVarint(NAME_DEF);
+			writeToken(nameDef.getFirstToken());
+			writeType(nameDef.getType());
+			writeString(nameDef.getName());
+			writeDeclaration(nameDef);
+			return null;
+		}
+
+		@Override
+		public Object visitNameDefWithDim(NameDefWithDim nameDefWithDim, Object arg) {
+			writeVarint(NAME_DEF_WITH_DIM);
+			writeToken(nameDefWithDim.getFirstToken());
+			writeType(nameDefWithDim.getType());
+			writeString(nameDefWithDim.getName());
+			writeNode(nameDefWithDim.getDim());
+			writeDeclaration(nameDefWithDim);
+			return null;
+		}
+
+		@Override
+		public Object visitReturnStatement(ReturnStatement returnStatement, Object arg) {
+			writeVarint(RETURN);
+			writeToken(returnStatement.getFirstToken());
+			writeNode(returnStatement.getExpr());
+			return null;
+		}
+
+		@Override
+		public Object visitVarDeclaration(VarDeclaration declaration, Object arg) {
+			writeVarint(VAR_DECLARATION);
+			writeToken(declaration.getFirstToken());
+			writeNode(declaration.getNameDef());
+			writeToken(declaration.getOp());
+			writeNode(declaration.getExpr());
+			writeDeclaration(declaration);
+			return null;
+		}
+	}
+
+	private static final class Reader {
+		final byte[] buf;
+		int pos;
+		char[] chars; // of all the strings in the table
+		int[] starts; // string i is chars[starts[i], starts[i + 1])
+		String[] strings; // created on first use
+		int line; // of the last token read in full
+		ASTNode[] nodes;
+		int nodeCount;
+		IToken[] tokens;
+		int tokenCount;
+
+		Reader(byte[] buf) {
+			this.buf = buf;
+		}
+
+		int readByte() {
+			return buf[pos++] & 0xFF;
+		}
+
+		int readInt() {
+			return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+		}
+
+		int readVarint() {
+			int v = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = readByte();
+				v |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return v;
+				if (shift > 28)
+					throw new IllegalArgumentException("varint too long");
+			}
+		}
+
+		// a count of items that take at least a byte each
+		int readLength() {
+			int n = readVarint();
+			if (n < 0 || n > buf.length - pos)
+				throw new IllegalArgumentException("corrupt serialized AST");
+			return n;
+		}
+
+		int readSigned() {
+			int v = readVarint();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		void readCountsAndTable() {
+			nodes = new ASTNode[readLength()];
+			tokens = new IToken[readLength()];
+			int n = readLength();
+			starts = new int[n + 1];
+			strings = new String[n];
+			chars = new char[buf.length - pos]; // each char takes at least a byte
+			int size = 0;
+			for (int i = 0; i < n; i++) {
+				int end = size + readLength();
+				while (size < end)
+					chars[size++] = (char) readVarint();
+				starts[i + 1] = size;
+			}
+			chars = Arrays.copyOf(chars, size); // the tokens keep it
+		}
+
+		String readString() {
+			int i = readVarint() - 1;
+			if (i < 0)
+				return null;
+			String s = strings[i];
+			if (s == null)
+				s = strings[i] = new String(chars, starts[i], starts[i + 1] - starts[i]);
+			return s;
+		}
+
+		IToken readToken() {
+			int tag = readVarint();
+			if (tag == NULL)
+				return null;
+			if (tag == BACK_REFERENCE)
+				return tokens[tokenCount - readVarint()];
+			Kind kind = KINDS[tag - NEW_TOKEN];
+			line += readSigned();
+			int column = readSigned();
+			int i = readVarint() - 1;
+			IToken t = new Token(kind, line, column, chars, starts[i], starts[i + 1] - starts[i]);
+			tokens[tokenCount++] = t;
+			return t;
+		}
+
+		Type readType() {
+			return type(readByte());
+		}
+
+		static Type type(int ordinal) {
+			return ordinal == 0 ? null : TYPES[ordinal - 1];
+		}
+
+		Expr readExpr() {
+			return (Expr) readNode();
+		}
+
+		<T extends Expr> T readDecorations(T e) {
+			int b = readByte();
+			e.setType(type(b / (TYPES.length + 1)));
+			e.setCoerceTo(type(b % (TYPES.length + 1)));
+			return e;
+		}
+
+		<T extends Declaration> T readDeclaration(T d) {
+			d.setInitialized(readByte() != 0);
+			d.setSlot(readVarint() - 1);
+			return d;
+		}
+
+		<T extends ASTNode> List<T> readNodes(Class<T> c) {
+			int n = readLength();
+			List<T> list = new ArrayList<>(n);
+			for (int i = 0; i < n; i++)
+				list.add(c.cast(readNode()));
+			return list;
+		}
+
+		ASTNode readNode() {
+			int tag = readVarint();
+			if (tag == NULL)
+				return null;
+			if (tag == BACK_REFERENCE)
+				return nodes[nodeCount - readVarint()];
+			ASTNode node = switch (tag) {
+				case BOOLEAN_LIT -> readDecorations(new BooleanLitExpr(readToken()));
+				case STRING_LIT -> readDecorations(new StringLitExpr(readToken()));
+				case INT_LIT -> readDecorations(new IntLitExpr(readToken()));
+				case FLOAT_LIT -> readDecorations(new FloatLitExpr(readToken()));
+				case COLOR_CONST -> readDecorations(new ColorConstExpr(readToken()));
+				case CONSOLE -> readDecorations(new ConsoleExpr(readToken()));
+				case IDENT -> {
+					IdentExpr e = readDecorations(new IdentExpr(readToken()));
+					e.setDec((Declaration) readNode());
+					e.setSlot(readVarint() - 1);
+					yield e;
+				}
+				case COLOR -> readDecorations(new ColorExpr(readToken(), readExpr(), readExpr(), readExpr()));
+				case UNARY -> readDecorations(new UnaryExpr(readToken(), readToken(), readExpr()));
+				case BINARY -> readDecorations(new BinaryExpr(readToken(), readExpr(), readToken(), readExpr()));
+				case CONDITIONAL -> readDecorations(new ConditionalExpr(readToken(), readExpr(), readExpr(), readExpr()));
+				case UNARY_POSTFIX -> readDecorations(new UnaryExprPostfix(readToken(), readExpr(), (PixelSelector) readNode()));
+				case DIMENSION -> new Dimension(readToken(), readExpr(), readExpr());
+				case PIXEL_SELECTOR -> new PixelSelector(readToken(), readExpr(), readExpr());
+				case ASSIGNMENT -> {
+					AssignmentStatement s = new AssignmentStatement(readToken(), readString(), (PixelSelector) readNode(), readExpr());
+					s.setTargetDec((Declaration) readNode());
+					yield s;
+				}
+				case WRITE -> new WriteStatement(readToken(), readExpr(), readExpr());
+				case READ -> {
+					ReadStatement s = new ReadStatement(readToken(), readString(), (PixelSelector) readNode(), readExpr());
+					s.setTargetDec((Declaration) readNode());
+					yield s;
+				}
+				case PROGRAM -> {
+					Program p = new Program(readToken(), readType(), readString(), readNodes(NameDef.class), readNodes(ASTNode.class));
+					p.setSlotCount(readVarint());
+					yield p;
+				}
+				case NAME_DEF -> readDeclaration(new NameDef(readToken(), readType(), readString()));
+				case NAME_DEF_WITH_DIM -> readDeclaration(new NameDefWithDim(readToken(), readType(), readString(), (Dimension) readNode()));
+				case RETURN -> new ReturnStatement(readToken(), readExpr());
+				case VAR_DECLARATION -> readDeclaration(new VarDeclaration(readToken(), (NameDef) readNode(), readToken(), readExpr()));
+				default -> throw new IllegalArgumentException("unknown AST node tag " + tag);
+			};
+			nodes[nodeCount++] = node;
+			return node;
+		}
+	}
+}
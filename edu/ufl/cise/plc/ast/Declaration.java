@@ -11,6 +11,8 @@ public abstract class Declaration extends ASTNode {
 	
 
 	boolean initialized = false;
+	//index of the variable among all the declarations of the program, set by the symbol table; -1 if not declared
+	int slot = -1;
 
 	public abstract Type getType();
 
@@ -22,6 +24,14 @@ public abstract class Declaration extends ASTNode {
 		this.initialized = initialized;
 	}
 	
+	public int getSlot() {
+		return slot;
+	}
+
+	public void setSlot(int slot) {
+		this.slot = slot;
+	}
+
 	//returns null if dimensions not specified in Declaration.
 	public abstract Dimension getDim();
 
@@ -5,6 +5,8 @@ import edu.ufl.cise.plc.IToken;
 public class IdentExpr extends Expr {
 	
 	Declaration dec;
+	//slot of dec, or of the variable a pixel selector on the left of an assignment declares; -1 if not resolved
+	int slot = -1;
 		
 	public IdentExpr(IToken firstToken) {
 		super(firstToken);
@@ -17,7 +19,7 @@ public class IdentExpr extends Expr {
 
 	@Override
 	public String toString() {
-		return "IdentExpr [dec=" + dec + ", type=" + type + ", coerceTo=" + coerceTo + "]";
+		return "IdentExpr [dec=" + dec + ", slot=" + slot + ", type=" + type + ", coerceTo=" + coerceTo + "]";
 	}
 
 	public Declaration getDec() {
@@ -28,5 +30,13 @@ public class IdentExpr extends Expr {
 		this.dec = dec;
 	}
 
+	public int getSlot() {
+		return slot;
+	}
+
+	public void setSlot(int slot) {
+		this.slot = slot;
+	}
+
 	
 }
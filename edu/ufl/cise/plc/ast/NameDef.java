@@ -19,6 +19,13 @@ public class NameDef extends Declaration {
 		this.name = name.getText();
 		this.type = Types.toType(type.getText());
 	}
+
+	// for ASTSerializer
+	NameDef(IToken firstToken, Type type, String name) {
+		super(firstToken);
+		this.name = name;
+		this.type = type;
+	}
 	
 	public String getName() {
 		return name;
@@ -1,6 +1,7 @@
 package edu.ufl.cise.plc.ast;
 
 import edu.ufl.cise.plc.IToken;
+import edu.ufl.cise.plc.ast.Types.Type;
 
 public class NameDefWithDim extends NameDef{
 
@@ -16,6 +17,12 @@ public class NameDefWithDim extends NameDef{
 		this.dim = dim;
 	}
 
+	// for ASTSerializer
+	NameDefWithDim(IToken firstToken, Type type, String name, Dimension dim) {
+		super(firstToken, type, name);
+		this.dim = dim;
+	}
+
 	@Override
 	public Dimension getDim() {
 		return dim;
@@ -11,6 +11,8 @@ public class Program extends ASTNode {
 	final String name; 
 	final List<NameDef> params;
 	final List<ASTNode> decsAndStatements;
+	//number of variable slots the type checker gave out, so a pass can keep the variables in an array
+	int slotCount;
 
 	public Program(IToken firstToken, Type returnType, String name, List<NameDef> params,
 			List<ASTNode> decsAndStatements) {
@@ -37,6 +39,14 @@ public class Program extends ASTNode {
 		return decsAndStatements;
 	}
 
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	public void setSlotCount(int slotCount) {
+		this.slotCount = slotCount;
+	}
+
 	@Override
 	public Object visit(ASTVisitor v, Object arg) throws Exception {
 		return v.visitProgram(this, arg);
@@ -0,0 +1,127 @@
+package edu.ufl.cise.plc.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the average time of an operation, in the style of a JMH benchmark in
+ * average time mode, and collects the results for output as JSON.
+ *
+ * Each benchmark runs warmup iterations whose results are discarded, then measurement
+ * iterations.  An iteration calls the operation repeatedly until it has run for at
+ * least the iteration time and records the time per call.  The score is the mean of
+ * the measurement iterations, and the error is their standard deviation.  Values
+ * returned by the operation are folded into a field so that the JIT cannot remove
+ * the work that computed them.
+ */
+public class BenchmarkHarness {
+
+	@FunctionalInterface
+	public interface Operation {
+		Object run() throws Exception;
+	}
+
+	public record Result(String benchmark, String params, double score, double error, double[] samples) {
+	}
+
+	final int warmupIterations;
+	final int measurementIterations;
+	final long iterationNanos;
+	final Pattern filter;
+	final List<Result> results = new ArrayList<>();
+
+	/** Receives the values returned by the operations. */
+	int sink;
+
+	/**
+	 * @param warmupIterations
+	 * @param measurementIterations
+	 * @param iterationMillis minimum duration of each iteration
+	 * @param filter regular expression that the benchmark name must contain to run, or null to run all
+	 */
+	public BenchmarkHarness(int warmupIterations, int measurementIterations, int iterationMillis, String filter) {
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1_000_000L;
+		this.filter = filter == null ? null : Pattern.compile(filter);
+	}
+
+	/**
+	 * Runs the benchmark, prints its score and adds it to the results.  Returns null
+	 * without running anything if the name does not match the filter.
+	 */
+	public Result run(String benchmark, String params, Operation operation) throws Exception {
+		if (filter != null && !filter.matcher(benchmark).find())
+			return null;
+		for (int i = 0; i < warmupIterations; i++)
+			iteration(operation);
+		double[] samples = new double[measurementIterations];
+		for (int i = 0; i < measurementIterations; i++)
+			samples[i] = iteration(operation);
+		double mean = Arrays.stream(samples).average().orElse(0);
+		double variance = Arrays.stream(samples).map(s -> (s - mean) * (s - mean)).sum() / Math.max(1, samples.length - 1);
+		Result result = new Result(benchmark, params, mean, Math.sqrt(variance), samples);
+		results.add(result);
+		System.out.printf(Locale.ROOT, "%-45s %-12s %16.1f +- %10.1f ns/op%n", benchmark, params, mean, result.error());
+		return result;
+	}
+
+	// returns the time per call in nanoseconds
+	private double iteration(Operation operation) throws Exception {
+		long calls = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			Object value = operation.run();
+			sink += value == null ? 0 : System.identityHashCode(value);
+			calls++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < iterationNanos);
+		return (double) elapsed / calls;
+	}
+
+	public List<Result> getResults() {
+		return results;
+	}
+
+	/** Returns the results as a JSON object with the settings and one entry per benchmark. */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder("{\n");
+		sb.append("  \"timestamp\": \"" + Instant.now() + "\",\n");
+		sb.append("  \"jvm\": \"" + escape(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")) + "\",\n");
+		sb.append("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+		sb.append("  \"warmupIterations\": " + warmupIterations + ",\n");
+		sb.append("  \"measurementIterations\": " + measurementIterations + ",\n");
+		sb.append("  \"iterationMillis\": " + iterationNanos / 1_000_000 + ",\n");
+		sb.append("  \"mode\": \"avgt\",\n");
+		sb.append("  \"unit\": \"ns/op\",\n");
+		sb.append("  \"results\": [");
+		for (int i = 0; i < results.size(); i++) {
+			Result r = results.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"benchmark\": \"" + escape(r.benchmark()) + "\", \"params\": \"" + escape(r.params()) + "\"");
+			sb.append(String.format(Locale.ROOT, ", \"score\": %.3f, \"error\": %.3f, \"samples\": [", r.score(), r.error()));
+			for (int j = 0; j < r.samples().length; j++)
+				sb.append(String.format(Locale.ROOT, j == 0 ? "%.3f" : ", %.3f", r.samples()[j]));
+			sb.append("]}");
+		}
+		sb.append("\n  ]\n}\n");
+		return sb.toString();
+	}
+
+	public void writeJson(Path file) throws IOException {
+		Files.writeString(file, toJson());
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+}
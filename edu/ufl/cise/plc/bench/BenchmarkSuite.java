@@ -0,0 +1,264 @@
+package edu.ufl.cise.plc.bench;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.ILexer;
+import edu.ufl.cise.plc.IToken;
+import edu.ufl.cise.plc.IncrementalParser;
+import edu.ufl.cise.plc.IToken.Kind;
+import edu.ufl.cise.plc.LexicalException;
+import edu.ufl.cise.plc.SyntaxException;
+import edu.ufl.cise.plc.TokenBuffer;
+import edu.ufl.cise.plc.TypeCheckException;
+import edu.ufl.cise.plc.ast.ASTSerializer;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.bench.ProgramCorpus.Size;
+import edu.ufl.cise.plc.runtime.ColorTuple;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.ImageOps.OP;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompilePipeline;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompiledProgram;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.DynamicCompiler;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+/**
+ * Benchmarks every phase of the compiler on the programs of ProgramCorpus, and the
+ * whole image operations of ImageOps on images of several sizes, and writes the
+ * results to a JSON file so they can be compared from release to release.
+ *
+ * The phases are measured separately: lexing runs Lexer.next to the end of the input or
+ * tokenizes it into a TokenBuffer, parsing includes the lexing the parser does, code
+ * generation runs on an AST that has already been through the previous phases, and javac
+ * compiles the generated source with the on-disk bytecode cache disabled.  Type checking
+ * marks declarations as initialized, so typeCheck parses the program again each time;
+ * parser.parse is the part of it that parsing takes.
+ *
+ * Usage: BenchmarkSuite [--quick] [--filter regex] [output.json]
+ *
+ * --quick runs fewer and shorter iterations, for a rough check.  The default output
+ * file is benchmark-results.json.
+ */
+public class BenchmarkSuite {
+
+	static final String PACKAGE = "cop4020sp22Package";
+	static final int[] IMAGE_SIZES = { 64, 512, 2048 };
+	static final int BATCH_SIZE = 50;
+	static final int INVOCATIONS = 10_000;
+	static final Path GEN_TYPE_CHECK_TESTS = Path.of("edu/ufl/cise/plc/test/GenTypeCheckTestsX.java");
+
+	static Program parse(String input) throws Exception {
+		return (Program) CompilerComponentFactory.getParser(input).parse();
+	}
+
+	static Program analyze(String input) throws Exception {
+		Program program = parse(input);
+		program.visit(CompilerComponentFactory.getTypeChecker(), null);
+		return program;
+	}
+
+	static int lex(String input) throws Exception {
+		ILexer lexer = CompilerComponentFactory.getLexer(input);
+		int tokens = 0;
+		for (IToken t = lexer.next(); t.getKind() != Kind.EOF; t = lexer.next())
+			tokens++;
+		return tokens;
+	}
+
+	static void compilerPhases(BenchmarkHarness harness) throws Exception {
+		DynamicCompiler.setCacheDirectory(null);
+		for (Size size : Size.values()) {
+			String input = ProgramCorpus.generate(size);
+			String params = size.name().toLowerCase();
+			Program checked = analyze(input);
+			String javaSource = (String) checked.visit(CompilerComponentFactory.getCodeGenerator(PACKAGE), null);
+			harness.run("lexer.next", params, () -> lex(input));
+			harness.run("lexer.tokenize", params, () -> TokenBuffer.tokenize(input));
+			harness.run("parser.parse", params, () -> parse(input));
+			String expressions = ProgramCorpus.generateExpressions(size);
+			harness.run("parser.parse.expressions", params, () -> parse(expressions));
+			// retyping one char of a statement in the middle of the program
+			IncrementalParser incremental = CompilerComponentFactory.getIncrementalParser(input);
+			incremental.parse();
+			int offset = input.indexOf(';', input.length() / 2) - 1;
+			String retyped = input.substring(offset, offset + 1);
+			harness.run("incrementalParser.edit", params, () -> incremental.edit(offset, 1, retyped));
+			// includes parsing, see parser.parse
+			harness.run("typeCheck", params, () -> {
+				Program program = parse(input);
+				return program.visit(CompilerComponentFactory.getTypeChecker(), null);
+			});
+			if (size == Size.SMALL)
+				typeCheckTests(harness);
+			// loading a cached front end result instead of running typeCheck
+			byte[] serialized = ASTSerializer.serialize(checked);
+			harness.run("astSerializer.serialize", params, () -> ASTSerializer.serialize(checked));
+			harness.run("astSerializer.deserialize", params, () -> ASTSerializer.deserialize(serialized));
+			harness.run("codeGen.javaSource", params, () -> checked.visit(CompilerComponentFactory.getCodeGenerator(PACKAGE), null));
+			if (size.compiles()) {
+				harness.run("codeGen.bytecode", params, () -> checked.visit(CompilerComponentFactory.getBytecodeGenerator(PACKAGE), null));
+				harness.run("dynamicCompiler.compile", params, () -> DynamicCompiler.compile(PACKAGE + "." + checked.getName(), javaSource));
+			}
+		}
+		batchCompile(harness);
+		invoke(harness);
+	}
+
+	/**
+	 * Type checks the programs of the generated type checker tests, which are small and
+	 * cover every operator and type combination, the errors included.  Type checking
+	 * marks declarations as initialized, so each iteration parses the programs again;
+	 * parser.parse.genTypeCheckTests is the part of typeCheck.genTypeCheckTests that
+	 * parsing takes.
+	 */
+	static void typeCheckTests(BenchmarkHarness harness) throws Exception {
+		if (!Files.exists(GEN_TYPE_CHECK_TESTS))
+			return;
+		List<String> inputs = new ArrayList<>();
+		for (String input : ProgramCorpus.readTestInputs(GEN_TYPE_CHECK_TESTS)) {
+			try {
+				parse(input);
+				inputs.add(input);
+			} catch (LexicalException | SyntaxException e) {
+				// tests of the earlier phases
+			}
+		}
+		String params = inputs.size() + " programs";
+		harness.run("parser.parse.genTypeCheckTests", params, () -> {
+			for (String input : inputs)
+				parse(input);
+			return inputs;
+		});
+		harness.run("typeCheck.genTypeCheckTests", params, () -> {
+			int errors = 0;
+			for (String input : inputs) {
+				try {
+					parse(input).visit(CompilerComponentFactory.getTypeChecker(), null);
+				} catch (TypeCheckException e) {
+					errors++;
+				}
+			}
+			return errors;
+		});
+	}
+
+	/**
+	 * Compiles BATCH_SIZE small programs with PLCLangExec.compileAll, which runs javac
+	 * once for all of them, for comparison with BATCH_SIZE times dynamicCompiler.compile
+	 * on the small corpus program.  plcLangExec.compile compiles and loads them one after
+	 * the other, and compilePipeline streams them through a CompilePipeline; both start
+	 * with an empty cache.
+	 */
+	static void batchCompile(BenchmarkHarness harness) throws Exception {
+		List<String> scripts = ProgramCorpus.generateScripts(BATCH_SIZE);
+		PLCLangExec exec = new PLCLangExec(PACKAGE, false, new ProgramCache());
+		String params = BATCH_SIZE + " programs";
+		harness.run("plcLangExec.compileAll", params, () -> exec.compileAll(scripts));
+		harness.run("plcLangExec.compile", params, () -> {
+			PLCLangExec sequential = new PLCLangExec(PACKAGE, false, new ProgramCache());
+			for (String script : scripts)
+				sequential.compile(script);
+			return sequential;
+		});
+		harness.run("compilePipeline", params, () -> {
+			List<CompletableFuture<CompiledProgram>> results = new ArrayList<>();
+			try (CompilePipeline pipeline = new CompilePipeline(new PLCLangExec(PACKAGE, false, new ProgramCache()))) {
+				for (String script : scripts)
+					results.add(pipeline.submit(script));
+				for (CompletableFuture<CompiledProgram> result : results)
+					result.get();
+				return pipeline.getStats();
+			}
+		});
+	}
+
+	/**
+	 * Calls a small compiled program INVOCATIONS times through CompiledProgram.invoke,
+	 * which boxes the parameters and result, and through the exact handle of its apply
+	 * method, which does not, to measure the cost of a call rather than of the program.
+	 */
+	static void invoke(BenchmarkHarness harness) throws Exception {
+		CompiledProgram program = new PLCLangExec(PACKAGE, false, new ProgramCache()).compile("int f(int a, float b)\nint c = a * 2;\n^ c;\n");
+		Object[] params = { 3, 2.5f };
+		MethodHandle apply = program.getApplyHandle();
+		String calls = INVOCATIONS + " calls";
+		harness.run("compiledProgram.invoke", calls, () -> {
+			long sum = 0;
+			for (int i = 0; i < INVOCATIONS; i++)
+				sum += (Integer) program.invoke(params);
+			return sum;
+		});
+		harness.run("compiledProgram.applyHandle", calls, () -> {
+			long sum = 0;
+			try {
+				for (int i = 0; i < INVOCATIONS; i++)
+					sum += (int) apply.invokeExact(i, 2.5f);
+			} catch (Throwable e) {
+				throw new Exception(e);
+			}
+			return sum;
+		});
+	}
+
+	static BufferedImage randomImage(int w, int h, Random random) {
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++)
+				image.setRGB(x, y, ColorTuple.makePackedColor(1 + random.nextInt(255), 1 + random.nextInt(255), 1 + random.nextInt(255)));
+		return image;
+	}
+
+	static void imageOps(BenchmarkHarness harness) throws Exception {
+		Random random = new Random(4020);
+		for (int size : IMAGE_SIZES) {
+			BufferedImage left = randomImage(size, size, random);
+			BufferedImage right = randomImage(size, size, random);
+			String params = size + "x" + size;
+			harness.run("imageOps.extractRed", params, () -> ImageOps.extractRed(left));
+			harness.run("imageOps.extractGreen", params, () -> ImageOps.extractGreen(left));
+			harness.run("imageOps.extractBlue", params, () -> ImageOps.extractBlue(left));
+			for (OP op : OP.values()) {
+				harness.run("imageOps.binaryImageImageOp." + op, params, () -> ImageOps.binaryImageImageOp(op, left, right));
+				harness.run("imageOps.binaryImageScalarOp.int." + op, params, () -> ImageOps.binaryImageScalarOp(op, left, 3));
+				harness.run("imageOps.binaryImageScalarOp.float." + op, params, () -> ImageOps.binaryImageScalarOp(op, left, 1.5f));
+			}
+			// the kernel the code generator emits for a * 2 + b
+			harness.run("imageOps.fuse", params, () -> ImageOps.fuse((p, i) -> {
+				int a = p[0][i];
+				int b = p[1][i];
+				int t = ColorTuple.makePackedColor((a >> 16 & 0xFF) * 2, (a >> 8 & 0xFF) * 2, (a & 0xFF) * 2);
+				return ColorTuple.makePackedColor((t >> 16 & 0xFF) + (b >> 16 & 0xFF), (t >> 8 & 0xFF) + (b >> 8 & 0xFF), (t & 0xFF) + (b & 0xFF));
+			}, left, right));
+			harness.run("imageOps.clone", params, () -> ImageOps.clone(left));
+			harness.run("imageOps.resize", params, () -> ImageOps.resize(left, size / 2, size * 2));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean quick = false;
+		String filter = null;
+		Path output = Path.of("benchmark-results.json");
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--quick"))
+				quick = true;
+			else if (args[i].equals("--filter"))
+				filter = args[++i];
+			else
+				output = Path.of(args[i]);
+		}
+		BenchmarkHarness harness = quick ? new BenchmarkHarness(1, 3, 50, filter) : new BenchmarkHarness(5, 5, 200, filter);
+		compilerPhases(harness);
+		imageOps(harness);
+		harness.writeJson(output);
+		System.out.println(harness.getResults().size() + " benchmarks written to " + output);
+	}
+
+}
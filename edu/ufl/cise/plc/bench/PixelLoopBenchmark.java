@@ -0,0 +1,87 @@
+package edu.ufl.cise.plc.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import edu.ufl.cise.plc.runtime.ColorTuple;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompiledProgram;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+
+/**
+ * Compares the order in which per-pixel loops visit a large image.
+ *
+ * The column-major and row-major cases run the loop that the code generator emits
+ * for an assignment such as b[x,y] = a[x,y] + <<10,10,10>>, with the loops nested
+ * x outside y and y outside x respectively.  The last case runs that assignment as
+ * a compiled PLCLang program.
+ *
+ * Usage: PixelLoopBenchmark [width height [runs]]
+ */
+public class PixelLoopBenchmark {
+
+	interface Loop {
+		void run(BufferedImage source, BufferedImage dest) throws Exception;
+	}
+
+	static final ColorTuple TEN = new ColorTuple(10);
+
+	static void columnMajor(BufferedImage a, BufferedImage b) {
+		for (int x = 0; x < b.getWidth(); x++) {
+			for (int y = 0; y < b.getHeight(); y++) {
+				ImageOps.setColor(b, x, y, ImageOps.binaryTupleOp(ImageOps.OP.PLUS, ColorTuple.unpack(a.getRGB(x, y)), TEN));
+			}
+		}
+	}
+
+	static void rowMajor(BufferedImage a, BufferedImage b) {
+		for (int y = 0; y < b.getHeight(); y++) {
+			for (int x = 0; x < b.getWidth(); x++) {
+				ImageOps.setColor(b, x, y, ImageOps.binaryTupleOp(ImageOps.OP.PLUS, ColorTuple.unpack(a.getRGB(x, y)), TEN));
+			}
+		}
+	}
+
+	/** Returns the median time of runs calls in milliseconds, after runs calls to warm up. */
+	static double time(Loop loop, BufferedImage a, BufferedImage b, int runs) throws Exception {
+		for (int i = 0; i < runs; i++)
+			loop.run(a, b);
+		double[] times = new double[runs];
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			loop.run(a, b);
+			times[i] = (System.nanoTime() - start) / 1e6;
+		}
+		Arrays.sort(times);
+		return times[runs / 2];
+	}
+
+	public static void main(String[] args) throws Exception {
+		int width = args.length >= 2 ? Integer.parseInt(args[0]) : 6000;
+		int height = args.length >= 2 ? Integer.parseInt(args[1]) : 4000;
+		int runs = args.length >= 3 ? Integer.parseInt(args[2]) : 5;
+
+		BufferedImage a = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				a.setRGB(x, y, ColorTuple.makePackedColor(x, y, x + y));
+		BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		String input = """
+				image f(image a)
+				image[getWidth a, getHeight a] b;
+				b[x, y] = a[x, y] + <<10, 10, 10>>;
+				^ b;
+				""";
+		CompiledProgram program = new PLCLangExec("cop4020sp22Package", false).compile(input);
+
+		double column = time(PixelLoopBenchmark::columnMajor, a, b, runs);
+		double row = time(PixelLoopBenchmark::rowMajor, a, b, runs);
+		double generated = time((source, dest) -> program.invoke(new Object[] { source }), a, b, runs);
+		System.out.printf("%d x %d image, median of %d runs%n", width, height, runs);
+		System.out.printf("column-major loop   %10.1f ms%n", column);
+		System.out.printf("row-major loop      %10.1f ms  (%.2fx)%n", row, column / row);
+		System.out.printf("generated program   %10.1f ms%n", generated);
+	}
+
+}
@@ -0,0 +1,107 @@
+package edu.ufl.cise.plc.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates PLCLang programs of a given number of declarations for the compiler
+ * benchmarks.  The declarations cycle through int, float, string, color and boolean
+ * expressions with literals, conditionals and references to earlier declarations,
+ * so every phase has a representative mix of tokens and node types to work on.
+ *
+ * The programs are deterministic, so results from different runs can be compared.
+ */
+public class ProgramCorpus {
+
+	public enum Size {
+		SMALL(10), MEDIUM(1_000), LARGE(20_000);
+
+		public final int declarations;
+
+		Size(int declarations) {
+			this.declarations = declarations;
+		}
+
+		/**
+		 * Programs this large produce an apply method that exceeds the 64K limit on the
+		 * size of a Java method, so they can only go through the front end.
+		 */
+		public boolean compiles() {
+			return this != LARGE;
+		}
+	}
+
+	public static String generate(Size size) {
+		return generate(size.declarations);
+	}
+
+	public static String generate(int declarations) {
+		StringBuilder sb = new StringBuilder("int corpus(int n, float f, string s)\n");
+		for (int k = 0; k < declarations; k++) {
+			switch (k % 6) {
+			case 0 -> sb.append("int v" + k + " = (n + " + k + ") * 3 % 7 - n / 2;\n");
+			case 1 -> sb.append("float v" + k + " = f * " + k + ".5 + (f - 1.25) / 3.0;\n");
+			case 2 -> sb.append("string v" + k + " = if (n > " + k + ") \"left\" else s fi;\n");
+			case 3 -> sb.append("color v" + k + " = <<n % 256, " + k % 256 + ", 255 - n % 256>> + <<1, 2, 3>> * 2;\n");
+			case 4 -> sb.append("boolean v" + k + " = (n < " + k + " & !(f > 2.0)) | n == " + k + ";\n");
+			default -> sb.append("int v" + k + " = v" + (k - 5) + " + getRed v" + (k - 2) + " * 2;\n");
+			}
+		}
+		sb.append("^ n;\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Generates count small programs named script0, script1, ..., like the scripts of a
+	 * deployment, for the benchmarks that compile many programs at once.
+	 */
+	public static List<String> generateScripts(int count) {
+		List<String> scripts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			scripts.add(generate(10 + i % 7).replaceFirst("corpus", "script" + i));
+		return scripts;
+	}
+
+	public static String generateExpressions(Size size) {
+		return generateExpressions(size.declarations);
+	}
+
+	/**
+	 * Generates a program whose declarations are long int and boolean expressions that use
+	 * every binary operator, prefix operators and nested parentheses, for the parser
+	 * benchmarks on expression-heavy code.
+	 */
+	public static String generateExpressions(int declarations) {
+		StringBuilder sb = new StringBuilder("int expressions(int n)\n");
+		for (int k = 0; k < declarations; k++) {
+			if (k % 2 == 0)
+				sb.append("int v" + k + " = ((n + " + k + ") * (n - 3) % 7 + -n / 2) * (n - (" + k + " + (n * (2 + (n - 1))))) - n * n % (" + k + " + 1);\n");
+			else
+				sb.append("boolean v" + k + " = n < " + k + " & !(n * 2 > " + k + ") | n + 1 == " + k + " * 3 & (n != 0 | -n >= n % 5);\n");
+		}
+		sb.append("^ n;\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the programs of the generated test class at the given path, e.g.
+	 * GenTypeCheckTestsX, which gives each test its input in a text block assigned
+	 * to a variable named input.  Some of them are meant to fail to type check.
+	 */
+	public static List<String> readTestInputs(Path testSource) throws IOException {
+		String source = Files.readString(testSource);
+		List<String> inputs = new ArrayList<>();
+		String start = "String input = \"\"\"\n";
+		for (int i = source.indexOf(start); i >= 0; i = source.indexOf(start, i)) {
+			i += start.length();
+			int end = source.indexOf("\"\"\"", i);
+			inputs.add(source.substring(i, end).stripIndent().translateEscapes());
+			i = end;
+		}
+		return inputs;
+	}
+
+}
@@ -4,6 +4,11 @@ import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * An image is represented by a 2D array of pixels. An image is implemented 
@@ -27,6 +32,100 @@ import java.awt.image.BufferedImage;
  */
 
 public class ImageOps {
+
+	/**
+	 * Images with at least this many pixels are processed in parallel when a pool has
+	 * been set with setParallelPool.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 18;
+
+	/*
+	 * Pool used by the whole image operations, or null to run them on the calling
+	 * thread.  Setting the system property plc.parallel to true selects the common pool.
+	 */
+	private static volatile ForkJoinPool parallelPool = Boolean.getBoolean("plc.parallel") ? ForkJoinPool.commonPool() : null;
+	private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	/**
+	 * Sets the pool that extractRed, extractGreen, extractBlue, binaryImageImageOp and
+	 * binaryImageScalarOp use to process large images in bands of rows.  null turns
+	 * parallel processing off.  The results are the same either way.
+	 * 
+	 * @param pool
+	 */
+	public static void setParallelPool(ForkJoinPool pool) {
+		parallelPool = pool;
+	}
+
+	public static ForkJoinPool getParallelPool() {
+		return parallelPool;
+	}
+
+	/**
+	 * Sets the number of pixels below which images are processed sequentially even if
+	 * a parallel pool has been set.
+	 * 
+	 * @param pixels
+	 */
+	public static void setParallelThreshold(int pixels) {
+		parallelThreshold = pixels;
+	}
+
+	public static int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/*
+	 * Processes the rows of an image in the range [from, to).  Bands never overlap, so
+	 * a band may write its rows of the result without synchronization.
+	 */
+	@FunctionalInterface
+	interface RowBand {
+		void apply(int from, int to);
+	}
+
+	/*
+	 * Splits the rows of an image into bands until they are no larger than grain rows.
+	 */
+	@SuppressWarnings("serial")
+	static class RowBandTask extends RecursiveAction {
+		final RowBand band;
+		final int from;
+		final int to;
+		final int grain;
+
+		RowBandTask(RowBand band, int from, int to, int grain) {
+			this.band = band;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				band.apply(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RowBandTask(band, from, mid, grain), new RowBandTask(band, mid, to, grain));
+		}
+	}
+
+	/*
+	 * Applies band to all rows of a width x height image, in parallel if a pool has
+	 * been set and the image is large enough.  Exceptions thrown by band are rethrown.
+	 */
+	static void forEachRowBand(int width, int height, RowBand band) {
+		ForkJoinPool pool = parallelPool;
+		if (pool == null || height < 2 || (long) width * height < parallelThreshold) {
+			band.apply(0, height);
+			return;
+		}
+		// a few bands per worker, so that uneven progress is balanced by stealing
+		int grain = Math.max(1, height / (pool.getParallelism() * 4));
+		pool.invoke(new RowBandTask(band, 0, height, grain));
+	}
 	
 	/**  
 	 * returns the pixel at the x,y location in the given image in packed int form.
@@ -85,18 +184,7 @@ public class ImageOps {
 	 * @return
 	 */
 	public static BufferedImage extractRed(BufferedImage image) {
-		int width = image.getWidth();
-		int height = image.getHeight();
-		BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				int pixel = getPackedColor(image, x, y);
-				int red = ColorTuple.getRed(pixel);
-				int redPixel = ColorTuple.makePackedColor(red, 0, 0);
-				newImage.setRGB(x, y, redPixel);
-			}
-		}
-		return newImage;
+		return extract(image, ColorTuple.SELECT_RED);
 	}
 
 	/**
@@ -107,18 +195,7 @@ public class ImageOps {
 	 * @return
 	 */
 	public static BufferedImage extractGreen(BufferedImage image) {
-		int width = image.getWidth();
-		int height = image.getHeight();
-		BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				int pixel = getPackedColor(image, x, y);
-				int green = ColorTuple.getGreen(pixel);
-				int greenPixel = ColorTuple.makePackedColor(0, green, 0);
-				newImage.setRGB(x, y, greenPixel);
-			}
-		}
-		return newImage;
+		return extract(image, ColorTuple.SELECT_GRN);
 	}
 
 	/**
@@ -129,21 +206,34 @@ public class ImageOps {
 	 * @return
 	 */	
 	public static BufferedImage extractBlue(BufferedImage image) {
+		return extract(image, ColorTuple.SELECT_BLU);
+	}
+
+
+	/*
+	 * Returns a new image in which each pixel has only the components of the given
+	 * image selected by mask.
+	 */
+	private static BufferedImage extract(BufferedImage image, int mask) {
 		int width = image.getWidth();
 		int height = image.getHeight();
 		BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				int pixel = getPackedColor(image, x, y);
-				int blue = ColorTuple.getBlue(pixel);
-				int bluePixel = ColorTuple.makePackedColor(0, 0, blue);
-				newImage.setRGB(x, y, bluePixel);
+		int[] newPixels = packedPixels(newImage);
+		int[] pixels = packedPixels(image);
+		forEachRowBand(width, height, (from, to) -> {
+			if (pixels != null) {
+				for (int i = from * width; i < to * width; i++)
+					newPixels[i] = pixels[i] & mask;
 			}
-		}
+			else {
+				for (int y = from; y < to; y++)
+					for (int x = 0; x < width; x++)
+						newPixels[y * width + x] = getPackedColor(image, x, y) & mask;
+			}
+		});
 		return newImage;
 	}
 
-
 	public enum OP {
 		PLUS, MINUS, TIMES, DIV, MOD
 	}
@@ -209,12 +299,106 @@ public class ImageOps {
 		};
 	}
 	
+	/**
+	 * Returns the array that holds the pixels of the given image, one packed int per
+	 * pixel in row major order, or null if the image is not stored that way.
+	 * 
+	 * Images of TYPE_INT_RGB and TYPE_INT_ARGB created with the BufferedImage constructor
+	 * are stored this way.  The red, green and blue components are in the same bits as in
+	 * the value returned by getRGB.  Note that Java2D no longer accelerates an image once
+	 * its array has been obtained.
+	 * 
+	 * @param image
+	 * @return the pixel array of the image, or null
+	 */
+	static int[] packedPixels(BufferedImage image) {
+		int type = image.getType();
+		if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB)
+			return null;
+		WritableRaster raster = image.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferInt buffer) || buffer.getNumBanks() != 1 || buffer.getOffset() != 0)
+			return null;
+		if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel)
+				|| sampleModel.getScanlineStride() != image.getWidth()
+				|| raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+			return null;
+		int[] data = buffer.getData();
+		return data.length == image.getWidth() * image.getHeight() ? data : null;
+	}
+
+	/**
+	 * Applies op to two color component values.  Division or remainder by 0 throws
+	 * an ArithmeticException, as for ColorTuples.
+	 */
+	private static int applyOp(OP op, int left, int right) {
+		return switch (op) {
+		case PLUS -> left + right;
+		case MINUS -> left - right;
+		case TIMES -> left * right;
+		case DIV -> left / right;
+		case MOD -> left % right;
+		};
+	}
+
+	private static float applyOp(OP op, float left, float right) {
+		return switch (op) {
+		case PLUS -> left + right;
+		case MINUS -> left - right;
+		case TIMES -> left * right;
+		case DIV -> left / right;
+		case MOD -> left % right;
+		};
+	}
+
+	/*
+	 * Packed form of binaryTupleOp on two pixels.  The result has no alpha bits, as
+	 * stored by setRGB in a TYPE_INT_RGB image.
+	 */
+	private static int applyPacked(OP op, int left, int right) {
+		return ColorTuple.makePackedColor(
+				applyOp(op, left >> SHIFT_RED & 0xFF, right >> SHIFT_RED & 0xFF),
+				applyOp(op, left >> SHIFT_GRN & 0xFF, right >> SHIFT_GRN & 0xFF),
+				applyOp(op, left >> SHIFT_BLU & 0xFF, right >> SHIFT_BLU & 0xFF)) & RGB_MASK;
+	}
+
+	/*
+	 * Packed form of binaryTupleOp on a pixel and a ColorTuple with all components
+	 * equal to right.
+	 */
+	private static int applyPackedScalar(OP op, int left, int right) {
+		return ColorTuple.makePackedColor(
+				applyOp(op, left >> SHIFT_RED & 0xFF, right),
+				applyOp(op, left >> SHIFT_GRN & 0xFF, right),
+				applyOp(op, left >> SHIFT_BLU & 0xFF, right)) & RGB_MASK;
+	}
+
+	/*
+	 * Packed form of binaryTupleOp on a pixel converted to a ColorTupleFloat and a
+	 * ColorTupleFloat with all components equal to right.  Components are rounded
+	 * to the nearest int, as by the ColorTuple(ColorTupleFloat) constructor.
+	 */
+	private static int applyPackedScalar(OP op, int left, float right) {
+		return ColorTuple.makePackedColor(
+				Math.round(applyOp(op, (float) (left >> SHIFT_RED & 0xFF), right)),
+				Math.round(applyOp(op, (float) (left >> SHIFT_GRN & 0xFF), right)),
+				Math.round(applyOp(op, (float) (left >> SHIFT_BLU & 0xFF), right))) & RGB_MASK;
+	}
+
+	private static final int SHIFT_RED = ColorTuple.SHIFT_RED;
+	private static final int SHIFT_GRN = ColorTuple.SHIFT_GRN;
+	private static final int SHIFT_BLU = ColorTuple.SHIFT_BLU;
+	private static final int RGB_MASK = ColorTuple.SELECT_RED | ColorTuple.SELECT_GRN | ColorTuple.SELECT_BLU;
+
 	/**
 	 * Returns a new BufferedImage obtained by applying the given binary operator
 	 * to each color component in each pixel in the given images.
 	 * 
 	 * If the images do not have the same shape, a PLCRuntimeException is thrown.
 	 * 
+	 * Pixels are combined in packed int form without creating ColorTuple objects.  If both
+	 * images store their pixels in an int array, the arrays are accessed directly; otherwise
+	 * getRGB is used.
+	 * 
 	 * @param op
 	 * @param left
 	 * @param right
@@ -230,14 +414,20 @@ public class ImageOps {
 			throw new PLCRuntimeException("Attempting binary operation on images with unequal sizes");
 		}
 		BufferedImage result = new BufferedImage(lwidth, lheight, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < lwidth; x++) {
-			for (int y = 0; y < lheight; y++) {
-				ColorTuple leftColor = ColorTuple.unpack(left.getRGB(x, y));
-				ColorTuple rightColor = ColorTuple.unpack(right.getRGB(x, y));
-				ColorTuple newColor = binaryTupleOp(op, leftColor, rightColor);
-				result.setRGB(x, y, newColor.pack());
+		int[] resultPixels = packedPixels(result);
+		int[] leftPixels = packedPixels(left);
+		int[] rightPixels = packedPixels(right);
+		forEachRowBand(lwidth, lheight, (from, to) -> {
+			if (leftPixels != null && rightPixels != null) {
+				for (int i = from * lwidth; i < to * lwidth; i++)
+					resultPixels[i] = applyPacked(op, leftPixels[i], rightPixels[i]);
 			}
-		}
+			else {
+				for (int y = from; y < to; y++)
+					for (int x = 0; x < lwidth; x++)
+						resultPixels[y * lwidth + x] = applyPacked(op, left.getRGB(x, y), right.getRGB(x, y));
+			}
+		});
 		return result;
 	}
 	
@@ -254,14 +444,19 @@ public class ImageOps {
 		int lwidth = left.getWidth();
 		int lheight = left.getHeight();
 		BufferedImage result = new BufferedImage(lwidth, lheight, BufferedImage.TYPE_INT_RGB);
-		ColorTuple rightColor = new ColorTuple(right);
-		for (int x = 0; x < lwidth; x++) {
-			for (int y = 0; y < lheight; y++) {
-				ColorTuple leftColor = ColorTuple.unpack(left.getRGB(x, y));
-				ColorTuple newColor = binaryTupleOp(op, leftColor, rightColor);
-				result.setRGB(x, y, newColor.pack());
+		int[] resultPixels = packedPixels(result);
+		int[] leftPixels = packedPixels(left);
+		forEachRowBand(lwidth, lheight, (from, to) -> {
+			if (leftPixels != null) {
+				for (int i = from * lwidth; i < to * lwidth; i++)
+					resultPixels[i] = applyPackedScalar(op, leftPixels[i], right);
 			}
-		}
+			else {
+				for (int y = from; y < to; y++)
+					for (int x = 0; x < lwidth; x++)
+						resultPixels[y * lwidth + x] = applyPackedScalar(op, left.getRGB(x, y), right);
+			}
+		});
 		return result;
 	}
 	
@@ -269,18 +464,65 @@ public class ImageOps {
 		int lwidth = left.getWidth();
 		int lheight = left.getHeight();
 		BufferedImage result = new BufferedImage(lwidth, lheight, BufferedImage.TYPE_INT_RGB);
-		ColorTupleFloat rightColor = new ColorTupleFloat(right);
-		for (int x = 0; x < lwidth; x++) {
-			for (int y = 0; y < lheight; y++) {
-				ColorTupleFloat leftColor = new ColorTupleFloat(ColorTuple.unpack(left.getRGB(x, y)));
-				ColorTupleFloat newColor = binaryTupleOp(op, leftColor, rightColor);
-				result.setRGB(x, y, newColor.pack());
+		int[] resultPixels = packedPixels(result);
+		int[] leftPixels = packedPixels(left);
+		forEachRowBand(lwidth, lheight, (from, to) -> {
+			if (leftPixels != null) {
+				for (int i = from * lwidth; i < to * lwidth; i++)
+					resultPixels[i] = applyPackedScalar(op, leftPixels[i], right);
+			}
+			else {
+				for (int y = from; y < to; y++)
+					for (int x = 0; x < lwidth; x++)
+						resultPixels[y * lwidth + x] = applyPackedScalar(op, left.getRGB(x, y), right);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Computes one packed pixel of a fused image expression.  pixels[k] holds the packed
+	 * pixels of source image k in row major order, and i is the index of the pixel to compute.
+	 */
+	@FunctionalInterface
+	public interface PixelKernel {
+		int apply(int[][] pixels, int i);
+	}
+
+	/**
+	 * Returns a new image in which each pixel is computed by the given kernel from the
+	 * pixels at the same location in the source images.  The code generator uses this to
+	 * evaluate an expression such as a + b * 2 - getRed c in a single pass, instead of
+	 * creating an image for each operation.
+	 *
+	 * If the images do not have the same shape, a PLCRuntimeException is thrown.  Sources
+	 * that do not store their pixels in an int array are copied into one first.
+	 *
+	 * @param kernel
+	 * @param sources
+	 * @return
+	 */
+	public static BufferedImage fuse(PixelKernel kernel, BufferedImage... sources) {
+		int width = sources[0].getWidth();
+		int height = sources[0].getHeight();
+		int[][] pixels = new int[sources.length][];
+		for (int k = 0; k < sources.length; k++) {
+			if (sources[k].getWidth() != width || sources[k].getHeight() != height) {
+				throw new PLCRuntimeException("Attempting binary operation on images with unequal sizes");
 			}
+			int[] packed = packedPixels(sources[k]);
+			pixels[k] = packed != null ? packed : getRGBPixels(sources[k]);
 		}
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] resultPixels = packedPixels(result);
+		forEachRowBand(width, height, (from, to) -> {
+			for (int i = from * width; i < to * width; i++)
+				resultPixels[i] = kernel.apply(pixels, i) & RGB_MASK;
+		});
 		return result;
 	}
-//	
-//	
+//
+//
 //	public static BufferedImage setAllPixels(BufferedImage image, int val) {
 //		ColorTuple c = new ColorTuple(val);
 //		for (int x = 0; x < image.getWidth(); x++)
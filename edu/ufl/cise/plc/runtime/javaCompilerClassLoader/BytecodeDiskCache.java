@@ -0,0 +1,131 @@
+package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Directory of class files produced by DynamicCompiler, so that a restarted JVM
+ * does not have to run javac again for source it has already compiled.
+ *
+ * Entries are keyed by a hash of the Java runtime version, the fully qualified
+ * class name, and the generated Java source. Each entry is written to a temporary
+ * file and atomically renamed into place, so readers never see a partial entry.
+ * Entries are read through a memory mapped buffer and checked against the length
+ * and CRC stored in their header; an entry that fails the check is deleted and
+ * treated as a miss.
+ */
+public class BytecodeDiskCache {
+
+	static final int MAGIC = 0x504C4343; // "PLCC"
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+	static final String SUFFIX = ".plcc";
+
+	final Path directory;
+	final String compilerVersion;
+
+	public BytecodeDiskCache(Path directory) throws IOException {
+		this(directory, Runtime.version().toString());
+	}
+
+	BytecodeDiskCache(Path directory, String compilerVersion) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.compilerVersion = compilerVersion;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	String key(String fullyQualifiedName, String sourceCode) {
+		return ProgramCache.digest(compilerVersion, fullyQualifiedName, sourceCode);
+	}
+
+	Path entryPath(String key) {
+		return directory.resolve(key + SUFFIX);
+	}
+
+	/**
+	 * Returns the cached class file for the given source, or null if there is no
+	 * valid entry.
+	 */
+	public byte[] get(String fullyQualifiedName, String sourceCode) {
+		Path path = entryPath(key(fullyQualifiedName, sourceCode));
+		if (!Files.isRegularFile(path))
+			return null;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size >= HEADER_SIZE && size <= Integer.MAX_VALUE) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				byte[] bytes = decode(buffer);
+				if (bytes != null)
+					return bytes;
+			}
+		} catch (IOException e) {
+			// fall through and treat as corrupt
+		}
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			// another process may be replacing it
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the class file for the given source. Failure to write the cache is
+	 * reported but does not affect compilation.
+	 */
+	public void put(String fullyQualifiedName, String sourceCode, byte[] bytes) {
+		Path path = entryPath(key(fullyQualifiedName, sourceCode));
+		Path tmp = null;
+		try {
+			tmp = Files.createTempFile(directory, "entry", ".tmp");
+			Files.write(tmp, encode(bytes));
+			try {
+				Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			System.err.println("could not write bytecode cache entry " + path + ": " + e.getMessage());
+			try {
+				if (tmp != null)
+					Files.deleteIfExists(tmp);
+			} catch (IOException e1) {
+				// ignore
+			}
+		}
+	}
+
+	static byte[] encode(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+		buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(bytes.length).putLong(crc.getValue()).put(bytes);
+		return buffer.array();
+	}
+
+	static byte[] decode(ByteBuffer buffer) {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+			return null;
+		int length = buffer.getInt();
+		long checksum = buffer.getLong();
+		if (length < 0 || length != buffer.remaining())
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return crc.getValue() == checksum ? bytes : null;
+	}
+
+}
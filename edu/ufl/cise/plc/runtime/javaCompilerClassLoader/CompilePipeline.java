@@ -0,0 +1,365 @@
+package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.CompilerComponentFactory.Backend;
+import edu.ufl.cise.plc.ast.Program;
+
+/**
+ * Compiles a stream of PLCLang programs with the phases of the compiler running
+ * as separate stages, so that e.g. the front end of one program runs while javac
+ * compiles the previous ones.
+ *
+ * Each stage has its own worker threads and a bounded queue of programs waiting
+ * for it.  A worker that finds the queue of the next stage full waits for room,
+ * so a slow stage holds back the stages before it, and submit waits while the
+ * queue of the first stage is full; trySubmit returns null instead.  The javac
+ * stage compiles all the programs waiting for it, up to MAX_BATCH, in a single
+ * javac task, so the longer javac is behind, the less each program costs.
+ *
+ * Programs are compiled into the package and cache of the given PLCLangExec, with
+ * the back end selected when they are submitted.  A program already in the cache
+ * skips the later stages.  Each stage keeps statistics of the programs it has
+ * processed, see getStats.
+ */
+public class CompilePipeline implements AutoCloseable {
+
+	/** The stages, in the order a program goes through them. Lexing is done by the parser, in FRONT_END. */
+	public enum Stage {
+		FRONT_END, CODE_GEN, JAVAC, LOAD
+	}
+
+	/**
+	 * Statistics of one stage. busyNanos is the time the workers spent on programs,
+	 * waitNanos the time programs spent in the queue of the stage, and blocked the
+	 * number of times the previous stage, or submit, found the queue full, which took
+	 * blockedNanos in all.
+	 */
+	public record StageStats(Stage stage, int threads, int queued, long completed, long failed, long busyNanos,
+			long waitNanos, long blocked, long blockedNanos) {
+
+		/** The mean time a program spent in the stage, in nanoseconds. */
+		public double meanNanos() {
+			long programs = completed + failed;
+			return programs == 0 ? 0 : (double) busyNanos / programs;
+		}
+	}
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+	public static final int MAX_BATCH = 32;
+
+	// a program on its way through the stages
+	static final class Job {
+		final String input;
+		final Backend backend;
+		final CompletableFuture<CompiledProgram> result = new CompletableFuture<>();
+		long enqueued;
+		String key;
+		Program ast;
+		String fullyQualifiedName;
+		String javaCode;
+		byte[] byteCode;
+
+		Job(String input, Backend backend) {
+			this.input = input;
+			this.backend = backend;
+		}
+	}
+
+	// tells a worker to stop once the jobs queued before it are done
+	static final Job STOP = new Job(null, null);
+
+	final class Worker {
+		final Stage stage;
+		final ArrayBlockingQueue<Job> queue;
+		final Thread[] threads;
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong busyNanos = new AtomicLong();
+		final AtomicLong waitNanos = new AtomicLong();
+		final AtomicLong blocked = new AtomicLong();
+		final AtomicLong blockedNanos = new AtomicLong();
+
+		Worker(Stage stage, int threadCount, int queueCapacity) {
+			this.stage = stage;
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+			this.threads = new Thread[threadCount];
+			for (int i = 0; i < threadCount; i++) {
+				threads[i] = new Thread(this::work, "plc-pipeline-" + stage.name().toLowerCase() + "-" + (i + 1));
+				threads[i].setDaemon(true);
+			}
+		}
+
+		void put(Job job) throws InterruptedException {
+			job.enqueued = System.nanoTime();
+			if (queue.offer(job))
+				return;
+			blocked.incrementAndGet();
+			queue.put(job);
+			blockedNanos.addAndGet(System.nanoTime() - job.enqueued);
+		}
+
+		void work() {
+			List<Job> jobs = new ArrayList<>();
+			try {
+				while (true) {
+					Job job = queue.take();
+					if (job == STOP)
+						return;
+					jobs.add(job);
+					if (stage == Stage.JAVAC) {
+						queue.drainTo(jobs, MAX_BATCH - 1);
+						// a STOP taken with the batch goes back, for this or another worker to stop on
+						while (jobs.remove(STOP))
+							queue.put(STOP);
+					}
+					long start = System.nanoTime();
+					for (Job j : jobs)
+						waitNanos.addAndGet(start - j.enqueued);
+					try {
+						process(this, jobs);
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Throwable e) {
+						// an error outside the phase itself, e.g. in the cache: fail the batch and carry on,
+						// so no program is left waiting and close still gets every worker to stop
+						for (Job j : jobs)
+							if (j.result.completeExceptionally(e))
+								failed.incrementAndGet();
+					}
+					busyNanos.addAndGet(System.nanoTime() - start);
+					jobs.clear();
+				}
+			} catch (InterruptedException e) {
+				for (Job job : jobs)
+					job.result.completeExceptionally(e);
+			}
+		}
+
+		StageStats stats() {
+			return new StageStats(stage, threads.length, queue.size(), completed.get(), failed.get(), busyNanos.get(),
+					waitNanos.get(), blocked.get(), blockedNanos.get());
+		}
+	}
+
+	final PLCLangExec exec;
+	final EnumMap<Stage, Worker> workers = new EnumMap<>(Stage.class);
+	// submit holds the read lock, so close can wait for submissions in progress before it stops the workers
+	final ReentrantReadWriteLock submitLock = new ReentrantReadWriteLock();
+	boolean closed;
+
+	/**
+	 * Creates a pipeline with queues of DEFAULT_QUEUE_CAPACITY, a front end and code
+	 * generation worker per processor, and one javac and one loading worker.
+	 */
+	public CompilePipeline(PLCLangExec exec) {
+		this(exec, DEFAULT_QUEUE_CAPACITY, Runtime.getRuntime().availableProcessors(), 1);
+	}
+
+	/**
+	 * Creates a pipeline whose stages queue up to queueCapacity programs each, with
+	 * frontEndThreads workers for the front end and for code generation, javacThreads
+	 * for javac, and one worker that loads the compiled programs.
+	 */
+	public CompilePipeline(PLCLangExec exec, int queueCapacity, int frontEndThreads, int javacThreads) {
+		if (queueCapacity < 1 || frontEndThreads < 1 || javacThreads < 1)
+			throw new IllegalArgumentException("queue capacity and thread counts must be positive");
+		this.exec = exec;
+		workers.put(Stage.FRONT_END, new Worker(Stage.FRONT_END, frontEndThreads, queueCapacity));
+		workers.put(Stage.CODE_GEN, new Worker(Stage.CODE_GEN, frontEndThreads, queueCapacity));
+		workers.put(Stage.JAVAC, new Worker(Stage.JAVAC, javacThreads, queueCapacity));
+		workers.put(Stage.LOAD, new Worker(Stage.LOAD, 1, queueCapacity));
+		for (Worker worker : workers.values())
+			for (Thread thread : worker.threads)
+				thread.start();
+	}
+
+	/**
+	 * Queues the given program, waiting while the first stage is full, and returns a
+	 * future that completes with the compiled program, or with the first error found
+	 * in it.
+	 */
+	public CompletableFuture<CompiledProgram> submit(String input) throws InterruptedException {
+		Job job = new Job(input, CompilerComponentFactory.getBackend());
+		submitLock.readLock().lock();
+		try {
+			checkOpen();
+			workers.get(Stage.FRONT_END).put(job);
+		} finally {
+			submitLock.readLock().unlock();
+		}
+		return job.result;
+	}
+
+	/** Queues the given program like submit, or returns null without waiting if the first stage is full. */
+	public CompletableFuture<CompiledProgram> trySubmit(String input) {
+		Job job = new Job(input, CompilerComponentFactory.getBackend());
+		Worker frontEnd = workers.get(Stage.FRONT_END);
+		submitLock.readLock().lock();
+		try {
+			checkOpen();
+			job.enqueued = System.nanoTime();
+			if (!frontEnd.queue.offer(job)) {
+				frontEnd.blocked.incrementAndGet();
+				return null;
+			}
+		} finally {
+			submitLock.readLock().unlock();
+		}
+		return job.result;
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("pipeline is closed");
+	}
+
+	/** Returns the statistics of every stage, in pipeline order. */
+	public Map<Stage, StageStats> getStats() {
+		Map<Stage, StageStats> stats = new LinkedHashMap<>();
+		for (Worker worker : workers.values())
+			stats.put(worker.stage, worker.stats());
+		return stats;
+	}
+
+	/**
+	 * Stops accepting programs, waits until the ones already submitted have gone
+	 * through every stage, and stops the workers.  If the calling thread is
+	 * interrupted, close still waits for the workers, and returns with the
+	 * interrupt status of the thread set.
+	 */
+	@Override
+	public void close() {
+		submitLock.writeLock().lock();
+		try {
+			if (closed)
+				return;
+			closed = true;
+		} finally {
+			submitLock.writeLock().unlock();
+		}
+		boolean interrupted = false;
+		// a stage is stopped after the one before it, so it gets every job that one passes on
+		for (Worker worker : workers.values()) {
+			for (int i = 0; i < worker.threads.length; i++) {
+				while (true) {
+					try {
+						worker.queue.put(STOP);
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			for (Thread thread : worker.threads) {
+				while (thread.isAlive()) {
+					try {
+						thread.join();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	// Runs the phase of the given stage on jobs, and passes each job that succeeds on to the next stage.
+	void process(Worker worker, List<Job> jobs) throws InterruptedException {
+		switch (worker.stage) {
+		case FRONT_END -> {
+			Job job = jobs.get(0);
+			CompiledProgram cached;
+			try {
+				job.key = ProgramCache.key(job.input, exec.packageName, job.backend.name());
+				cached = exec.cache.get(job.key);
+				if (cached == null)
+					job.ast = exec.analyze(job.input);
+			} catch (Throwable e) {
+				fail(worker, job, e);
+				return;
+			}
+			worker.completed.incrementAndGet();
+			if (cached != null)
+				job.result.complete(cached);
+			else
+				workers.get(Stage.CODE_GEN).put(job);
+		}
+		case CODE_GEN -> {
+			Job job = jobs.get(0);
+			try {
+				job.fullyQualifiedName = exec.fullyQualifiedName(job.ast);
+				if (job.backend == Backend.BYTECODE)
+					job.byteCode = (byte[]) job.ast.visit(CompilerComponentFactory.getBytecodeGenerator(exec.packageName), null);
+				else
+					job.javaCode = (String) job.ast.visit(CompilerComponentFactory.getCodeGenerator(exec.packageName), null);
+			} catch (Throwable e) {
+				fail(worker, job, e);
+				return;
+			}
+			worker.completed.incrementAndGet();
+			// the class file of the bytecode backend goes straight to LOAD
+			workers.get(job.byteCode != null ? Stage.LOAD : Stage.JAVAC).put(job);
+		}
+		case JAVAC -> {
+			// one task for the batch; programs with the same class name as an earlier one in it, or all of
+			// them if the task fails, are compiled on their own, so an error only fails its own program
+			Map<String, String> sources = new LinkedHashMap<>();
+			List<Job> alone = new ArrayList<>();
+			for (Job job : jobs)
+				if (sources.putIfAbsent(job.fullyQualifiedName, job.javaCode) != null)
+					alone.add(job);
+			Map<String, byte[]> classFiles = null;
+			if (sources.size() > 1) {
+				try {
+					classFiles = DynamicCompiler.compileAll(sources);
+				} catch (Exception e) {
+					classFiles = null;
+				}
+			}
+			for (Job job : jobs) {
+				byte[] byteCode = classFiles != null && !alone.contains(job) ? classFiles.get(job.fullyQualifiedName) : null;
+				if (byteCode == null) {
+					try {
+						byteCode = DynamicCompiler.compile(job.fullyQualifiedName, job.javaCode);
+					} catch (Throwable e) {
+						fail(worker, job, e);
+						continue;
+					}
+				}
+				job.byteCode = byteCode;
+				worker.completed.incrementAndGet();
+				workers.get(Stage.LOAD).put(job);
+			}
+		}
+		case LOAD -> {
+			Job job = jobs.get(0);
+			CompiledProgram program;
+			try {
+				program = new CompiledProgram(job.fullyQualifiedName, job.byteCode);
+			} catch (Throwable e) {
+				fail(worker, job, e);
+				return;
+			}
+			exec.cache.put(job.key, program);
+			worker.completed.incrementAndGet();
+			job.result.complete(program);
+		}
+		}
+	}
+
+	private static void fail(Worker worker, Job job, Throwable e) {
+		worker.failed.incrementAndGet();
+		job.result.completeExceptionally(e);
+	}
+}
@@ -0,0 +1,60 @@
+package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * A PLCLang program that has already been lexed, parsed, type checked, compiled
+ * and loaded. Obtain one from PLCLangExec.compile and call invoke as many times
+ * as needed; only the generated apply method runs on each call.
+ *
+ * The class is a hidden class that is unloaded once this object, and any handle
+ * obtained from getApplyHandle, are no longer referenced.
+ */
+public class CompiledProgram {
+
+	final String fullyQualifiedName;
+	final byte[] byteCode;
+	final MethodHandle apply;
+	// apply taking its parameters in an Object[] and returning an Object
+	final MethodHandle invoker;
+
+	CompiledProgram(String fullyQualifiedName, byte[] byteCode) throws Exception {
+		this.fullyQualifiedName = fullyQualifiedName;
+		this.byteCode = byteCode;
+		Class<?> programClass = DynamicClassLoader.getClass(byteCode, fullyQualifiedName);
+		this.apply = DynamicClassLoader.findMethod(programClass, "apply");
+		this.invoker = DynamicClassLoader.spreader(apply);
+	}
+
+	public String getFullyQualifiedName() {
+		return fullyQualifiedName;
+	}
+
+	public byte[] getByteCode() {
+		return byteCode;
+	}
+
+	/**
+	 * Returns a handle of the apply method with its exact type, e.g. (int, float)int,
+	 * for callers that know the signature of the program and can call it with
+	 * invokeExact, without boxing the parameters and the result.
+	 */
+	public MethodHandle getApplyHandle() {
+		return apply;
+	}
+
+	/**
+	 * Runs the apply method of the compiled program. params contains the
+	 * parameters of the program, or may be null if it does not have any.
+	 * Parameters of the wrong number or type are an IllegalArgumentException, and an
+	 * exception thrown by the program is wrapped in an InvocationTargetException.
+	 *
+	 * @param params
+	 * @return the value returned by apply
+	 * @throws Exception
+	 */
+	public Object invoke(Object[] params) throws Exception {
+		return DynamicClassLoader.invoke(invoker, apply.type(), params);
+	}
+
+}
@@ -1,21 +1,45 @@
 package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
 
+import edu.ufl.cise.plc.ClassFileWriter;
+
+/**
+ * Loads generated class files.
+ *
+ * A generated class is defined as a hidden class of a lookup in its package, so it is
+ * not registered with any class loader under its name: the same name may be defined
+ * any number of times, and the class is unloaded as soon as nothing refers to it or
+ * to a method handle of it.  defineHiddenClass needs a lookup with full privileges in
+ * the package of the class, so for each package a DynamicClassLoader defines a small
+ * anchor class there, whose lookup method returns MethodHandles.lookup().  The anchors
+ * stay loaded; the hidden classes resolve the classes they use through the anchor's
+ * loader.
+ */
 public class DynamicClassLoader extends ClassLoader {
 	public DynamicClassLoader(ClassLoader parent) {
 		super(parent);
 	}
 
+	/** The simple name of the anchor class in each package. PLCLang names cannot contain '-'. */
+	static final String ANCHOR = "PLCLang-Lookup";
+
+	private static final ConcurrentHashMap<String, MethodHandles.Lookup> lookups = new ConcurrentHashMap<>();
 
-	
 	/**
 	 * Executes indicated method defined in bytecode and returns the result. args is
 	 * an Object[] containing the parameters of the method, or may be null if the
 	 * method does not have parameters.
-	 * 
-	 * Requires that the given method is not overloaded in the class file.
-	 * 
+	 *
+	 * Requires that the given method is static and not overloaded by another
+	 * static method in the class file.
+	 *
 	 * @param bytecode
 	 * @param className
 	 * @param methodName
@@ -25,33 +49,114 @@ public class DynamicClassLoader extends ClassLoader {
 	 */
 	public static Object loadClassAndRunMethod(byte[] bytecode, String className, String methodName, Object[] args) throws Exception {
 		Class<?> testClass = getClass(bytecode, className);
-		return runMethod(testClass,methodName, args);
+		MethodHandle method = findMethod(testClass, methodName);
+		return invoke(spreader(method), method.type(), args);
 	}
 
-	private static Method findMethod(String name, Method[] methods) {
-		for (Method m : methods) {
-			String methodName = m.getName();
-			if (name.equals(methodName))
-				return m;
-		}
-		throw new RuntimeException("Method " + name + " not found in generated bytecode");
+	/** Returns the lookup of the anchor class in the given package, "" for the unnamed package. */
+	static MethodHandles.Lookup lookupIn(String packageName) {
+		return lookups.computeIfAbsent(packageName, p -> {
+			String anchor = p.isEmpty() ? ANCHOR : p + '.' + ANCHOR;
+			ClassFileWriter cw = new ClassFileWriter(anchor.replace('.', '/'));
+			ClassFileWriter.MethodWriter mw = cw.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "lookup",
+					"()Ljava/lang/invoke/MethodHandles$Lookup;");
+			mw.methodInsn(ClassFileWriter.INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+			mw.insn(ClassFileWriter.ARETURN);
+			DynamicClassLoader loader = new DynamicClassLoader(DynamicClassLoader.class.getClassLoader());
+			try {
+				return (MethodHandles.Lookup) loader.define(anchor, cw.toByteArray()).getMethod("lookup").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("cannot define the lookup class of package " + p, e);
+			}
+		});
 	}
 
+	/** Defines bytecode, the class file of className, as a hidden class that is unloaded when no longer used. */
 	static Class<?> getClass(byte[] bytecode, String className) throws Exception {
-		DynamicClassLoader loader = new DynamicClassLoader(Thread.currentThread().getContextClassLoader());
-		Class<?> testClass = loader.define(className, bytecode);
-		return testClass;
+		int dot = className.lastIndexOf('.');
+		MethodHandles.Lookup lookup = lookupIn(dot < 0 ? "" : className.substring(0, dot));
+		return lookup.defineHiddenClass(bytecode, true).lookupClass();
 	}
 
-	public Class<?> define(String className, byte[] bytecode) {
-		return super.defineClass(className, bytecode, 0, bytecode.length);
+	/**
+	 * Returns a handle of the given static method of a class returned by getClass, with its exact type.
+	 * Instance methods are skipped: a class with fused image expressions also has apply(int[][], int).
+	 */
+	static MethodHandle findMethod(Class<?> hiddenClass, String name) throws IllegalAccessException {
+		for (Method m : hiddenClass.getDeclaredMethods())
+			if (name.equals(m.getName()) && Modifier.isStatic(m.getModifiers()))
+				return lookupIn(hiddenClass.getPackageName()).unreflect(m);
+		throw new RuntimeException("Method " + name + " not found in generated bytecode");
 	}
 
-	static Object runMethod(Class<?> testClass, String methodName, Object[] args) throws Exception {
-		Method[] methods = testClass.getDeclaredMethods();
-		Method m = findMethod(methodName, methods);
-		return m.invoke(null, args);
+	/** Adapts the handle of a static method to take its arguments in an Object[] and return an Object. */
+	static MethodHandle spreader(MethodHandle method) {
+		return method.asSpreader(Object[].class, method.type().parameterCount())
+				.asType(MethodType.methodType(Object.class, Object[].class));
+	}
+
+	/**
+	 * Calls a handle returned by spreader for a method of the given type.  As with
+	 * Method.invoke, arguments of the wrong number or type, including null for a
+	 * primitive parameter, are an IllegalArgumentException, and only an exception
+	 * thrown by the method itself is wrapped in an InvocationTargetException.
+	 */
+	static Object invoke(MethodHandle spreader, MethodType type, Object[] args) throws Exception {
+		checkArguments(type, args);
+		try {
+			return spreader.invokeExact(args);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	// the primitive types in the order they widen to each other, JLS 5.1.2; char widens like short, to int and up
+	private static final String WIDENING = "BSIJFD";
+	// the descriptor char of the primitive type c is, or unboxes to, or 0 if it is neither
+	private static char primitive(Class<?> c) {
+		if (c == int.class || c == Integer.class)
+			return 'I';
+		if (c == float.class || c == Float.class)
+			return 'F';
+		if (c == boolean.class || c == Boolean.class)
+			return 'Z';
+		if (c == long.class || c == Long.class)
+			return 'J';
+		if (c == double.class || c == Double.class)
+			return 'D';
+		if (c == short.class || c == Short.class)
+			return 'S';
+		if (c == byte.class || c == Byte.class)
+			return 'B';
+		if (c == char.class || c == Character.class)
+			return 'C';
+		return 0;
+	}
+
+	static void checkArguments(MethodType type, Object[] args) {
+		int count = args == null ? 0 : args.length;
+		if (count != type.parameterCount())
+			throw new IllegalArgumentException("wrong number of arguments: " + count + " expected: " + type.parameterCount());
+		for (int i = 0; i < count; i++) {
+			Class<?> parameter = type.parameterType(i);
+			Object arg = args[i];
+			boolean matches;
+			if (!parameter.isPrimitive())
+				matches = arg == null || parameter.isInstance(arg);
+			else if (arg == null)
+				matches = false;
+			else {
+				char from = primitive(arg.getClass()), to = primitive(parameter);
+				matches = from == to || from != 0 && from != 'Z' && WIDENING.indexOf(to) > WIDENING.indexOf(from == 'C' ? 'S' : from);
+			}
+			if (!matches)
+				throw new IllegalArgumentException("argument type mismatch: argument " + i + " is "
+						+ (arg == null ? "null" : arg.getClass().getName()) + ", expected " + parameter.getName());
+		}
+	}
+
+	public Class<?> define(String className, byte[] bytecode) {
+		return super.defineClass(className, bytecode, 0, bytecode.length);
 	}
 
-	
 }
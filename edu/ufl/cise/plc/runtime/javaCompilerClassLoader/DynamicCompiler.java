@@ -1,30 +1,168 @@
 package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 
+/**
+ * Compiles generated Java source to class files in memory.
+ *
+ * The system compiler is looked up once, and the StandardJavaFileManagers it creates
+ * are kept in a pool, so a compilation does not open the JDK's module image and
+ * index the class path again.  A file manager is used by one compilation at a time;
+ * each compilation writes its class file to its own InMemoryClassFileManager, so
+ * concurrent compilations do not see each other's output.  At most MAX_POOLED file
+ * managers are kept; any more that concurrent compilations needed are closed.
+ */
 public class DynamicCompiler {
-	
-	
+
+	static final int MAX_POOLED = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The generated code has no annotations, so javac need not look for processors on
+	 * the class path, and it and the runtime library only use java.base and java.desktop,
+	 * so javac need not resolve the other system modules for every compilation.
+	 */
+	static final List<String> OPTIONS = List.of("-proc:none", "--limit-modules", "java.desktop");
+
+	/** Optional on-disk cache of class files.  null if disabled. */
+	private static volatile BytecodeDiskCache diskCache;
+
+	private static final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+	private static final ConcurrentLinkedQueue<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	/** Enables the on-disk bytecode cache in the given directory, or disables it if directory is null. */
+	public static void setCacheDirectory(Path directory) throws IOException {
+		diskCache = directory == null ? null : new BytecodeDiskCache(directory);
+	}
+
+	public static BytecodeDiskCache getDiskCache() {
+		return diskCache;
+	}
+
+	/** Returns the number of idle file managers in the pool. */
+	public static int getPooledFileManagers() {
+		return pooled.get();
+	}
+
+	private static StandardJavaFileManager acquireFileManager() {
+		StandardJavaFileManager fileManager = fileManagers.poll();
+		if (fileManager == null)
+			return compiler.getStandardFileManager(null, null, null);
+		pooled.decrementAndGet();
+		return fileManager;
+	}
+
+	private static void releaseFileManager(StandardJavaFileManager fileManager) throws IOException {
+		if (pooled.incrementAndGet() <= MAX_POOLED)
+			fileManagers.offer(fileManager);
+		else {
+			pooled.decrementAndGet();
+			fileManager.close();
+		}
+	}
+
+	/**
+	 * Runs one javac task with a file manager from the pool, and returns the manager
+	 * that holds the class files it wrote, or null if the sources had errors. Errors
+	 * are reported to diagnostics, or to System.err if it is null.
+	 */
+	private static InMemoryClassFileManager run(List<JavaFileObject> sourceFiles, DiagnosticListener<? super JavaFileObject> diagnostics)
+			throws IOException {
+		StandardJavaFileManager standardManager = acquireFileManager();
+		InMemoryClassFileManager fileManager = new InMemoryClassFileManager(standardManager);
+		boolean success;
+		try {
+			success = compiler.getTask(null, fileManager, diagnostics, OPTIONS, null, sourceFiles).call();
+		} catch (RuntimeException | Error e) {
+			// javac failed, not the source; do not reuse a file manager it may have left in a bad state
+			standardManager.close();
+			throw e;
+		}
+		releaseFileManager(standardManager);
+		return success ? fileManager : null;
+	}
+
 	/** Compiles java source code provided in the form a  String and returns the class file in the form of a byte array. */
 	public static byte[] compile(String fullyQualifiedName, String sourceCode) throws Exception {
-		
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		InMemoryClassFileManager fileManager = new InMemoryClassFileManager(compiler.getStandardFileManager(null, null, null));
-		
+		BytecodeDiskCache cache = diskCache;
+		if (cache != null) {
+			byte[] cached = cache.get(fullyQualifiedName, sourceCode);
+			if (cached != null)
+				return cached;
+		}
+
 		List<JavaFileObject> sourceFiles = new ArrayList<>();
 		sourceFiles.add(new StringJavaFileObject(fullyQualifiedName, sourceCode));
-		
-		boolean success = compiler.getTask(null, fileManager, null, null, null, sourceFiles).call();
-		if (success) {
-			return fileManager.byteCodeObject.getBytes();
+
+		InMemoryClassFileManager fileManager = run(sourceFiles, null);
+		if (fileManager != null) {
+			byte[] byteCode = fileManager.byteCodeObject.getBytes();
+			if (cache != null)
+				cache.put(fullyQualifiedName, sourceCode, byteCode);
+			return byteCode;
 		}
 		else throw new Exception("error compiling generated code");
-		}
 	}
-	
 
+	/**
+	 * Compiles the given sources, keyed by the fully qualified names of their classes,
+	 * in one javac task, and returns the class files by fully qualified name.  A task
+	 * costs about as much to set up as it does to compile a small class, so this is
+	 * much faster than compiling the sources one by one.  Sources whose class files are
+	 * in the disk cache are not compiled again.  If any source has errors, nothing is
+	 * returned, and the exception names the classes javac found errors in.
+	 */
+	public static Map<String, byte[]> compileAll(Map<String, String> sources) throws Exception {
+		BytecodeDiskCache cache = diskCache;
+		Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		List<JavaFileObject> sourceFiles = new ArrayList<>();
+		for (Map.Entry<String, String> source : sources.entrySet()) {
+			byte[] cached = cache == null ? null : cache.get(source.getKey(), source.getValue());
+			if (cached != null)
+				classFiles.put(source.getKey(), cached);
+			else
+				sourceFiles.add(new StringJavaFileObject(source.getKey(), source.getValue()));
+		}
+		if (sourceFiles.isEmpty())
+			return classFiles;
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		InMemoryClassFileManager fileManager = run(sourceFiles, diagnostics);
+		if (fileManager == null) {
+			Set<String> failed = new TreeSet<>();
+			String first = null;
+			for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics())
+				if (d.getKind() == Diagnostic.Kind.ERROR && d.getSource() instanceof StringJavaFileObject source) {
+					failed.add(source.className);
+					if (first == null)
+						first = source.className + ":" + d.getLineNumber() + ": " + d.getMessage(null);
+				}
+			throw new Exception("error compiling generated code of " + String.join(", ", failed) + "\n" + first);
+		}
+		Map<String, byte[]> compiled = fileManager.getClassFiles();
+		if (cache != null)
+			for (JavaFileObject sourceFile : sourceFiles) {
+				StringJavaFileObject source = (StringJavaFileObject) sourceFile;
+				cache.put(source.className, source.code, compiled.get(source.className));
+			}
+		classFiles.putAll(compiled);
+		return classFiles;
+	}
+}
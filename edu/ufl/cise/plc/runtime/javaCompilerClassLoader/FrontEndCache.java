@@ -0,0 +1,56 @@
+package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import edu.ufl.cise.plc.ast.ASTSerializer;
+import edu.ufl.cise.plc.ast.Program;
+
+/**
+ * Directory of type checked ASTs written by ASTSerializer, so that a restarted JVM
+ * does not have to lex, parse and type check a program it has already analyzed.
+ *
+ * Entries are keyed by a hash of the PLCLang source and the AST format version,
+ * and are stored, checked and replaced the same way as BytecodeDiskCache entries,
+ * so the two can share a directory. An entry that cannot be read is treated as a
+ * miss.
+ */
+public class FrontEndCache {
+
+	/** Takes the place of the class name in the key of an entry */
+	static final String ENTRY_NAME = "ast-v" + ASTSerializer.FORMAT_VERSION;
+
+	final BytecodeDiskCache entries;
+
+	public FrontEndCache(Path directory) throws IOException {
+		entries = new BytecodeDiskCache(directory);
+	}
+
+	public Path getDirectory() {
+		return entries.getDirectory();
+	}
+
+	/**
+	 * Returns a new copy of the type checked AST of the given source, or null if
+	 * there is no valid entry.
+	 */
+	public Program get(String input) {
+		byte[] bytes = entries.get(ENTRY_NAME, input);
+		if (bytes == null)
+			return null;
+		try {
+			return (Program) ASTSerializer.deserialize(bytes);
+		} catch (IllegalArgumentException | ClassCastException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the type checked AST of the given source. Failure to write the cache
+	 * is reported but does not affect compilation.
+	 */
+	public void put(String input, Program program) {
+		entries.put(ENTRY_NAME, input, ASTSerializer.serialize(program));
+	}
+
+}
@@ -4,6 +4,8 @@ package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
 
 import java.io.IOException;
 import java.security.SecureClassLoader;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
@@ -13,7 +15,10 @@ import javax.tools.StandardJavaFileManager;
 
 public class InMemoryClassFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
 	
+	//the class file written last, which is the only one when a single class is compiled
 	InMemoryBytecodeObject byteCodeObject;
+	//every class file written, by binary class name
+	final Map<String, InMemoryBytecodeObject> byteCodeObjects = new LinkedHashMap<>();
 	
 	public InMemoryClassFileManager(StandardJavaFileManager standardManager) {
 		super(standardManager);
@@ -24,7 +29,10 @@ public class InMemoryClassFileManager extends ForwardingJavaFileManager<Standard
 		return new SecureClassLoader() {
 			@Override
 			protected Class<?> findClass(String name) throws ClassNotFoundException {
-				byte[] b = byteCodeObject.getBytes();
+				InMemoryBytecodeObject classFile = byteCodeObjects.get(name);
+				if (classFile == null)
+					throw new ClassNotFoundException(name);
+				byte[] b = classFile.getBytes();
 				return super.defineClass(name, b, 0, b.length);
 			}
 		};
@@ -32,7 +40,16 @@ public class InMemoryClassFileManager extends ForwardingJavaFileManager<Standard
 	
 	public JavaFileObject getJavaFileForOutput(Location location, String name, Kind kind, FileObject sibling) throws IOException{
 		byteCodeObject = new InMemoryBytecodeObject(name, kind);
+		byteCodeObjects.put(name, byteCodeObject);
 		return byteCodeObject;
 	}
 
+	//Returns the class files written so far, by binary class name
+	public Map<String, byte[]> getClassFiles() {
+		Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		for (Map.Entry<String, InMemoryBytecodeObject> e : byteCodeObjects.entrySet())
+			classFiles.put(e.getKey(), e.getValue().getBytes());
+		return classFiles;
+	}
+
 }
@@ -1,19 +1,44 @@
 package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.CompilerComponentFactory.Backend;
+import edu.ufl.cise.plc.PLCException;
 import edu.ufl.cise.plc.ast.ASTNode;
 import edu.ufl.cise.plc.ast.Program;
 
 public class PLCLangExec {
-	
+
+	/** Cache shared by all PLCLangExec instances that are not given their own. */
+	static final ProgramCache sharedCache = new ProgramCache();
+
+	/** Optional on-disk cache of type checked ASTs.  null if disabled. */
+	private static volatile FrontEndCache frontEndCache;
+
 	public final String packageName;
-	
+	final ProgramCache cache;
+
 	public PLCLangExec(String packageName, boolean VERBOSE) {
+		this(packageName, VERBOSE, sharedCache);
+	}
+
+	public PLCLangExec(String packageName, boolean VERBOSE, ProgramCache cache) {
 		super();
 		this.packageName = packageName;
 		this.VERBOSE = VERBOSE;
+		this.cache = cache;
 	}
 
 	final boolean VERBOSE;
@@ -22,22 +47,173 @@ public class PLCLangExec {
 		if (VERBOSE)
 			System.out.println(obj);
 	}
-	
+
+	public static ProgramCache getSharedCache() {
+		return sharedCache;
+	}
+
+	/**
+	 * Enables the on-disk cache of type checked ASTs in the given directory, or
+	 * disables it if directory is null. analyze then reads the AST of a program it
+	 * has seen before instead of running the front end again.
+	 */
+	public static void setFrontEndCacheDirectory(Path directory) throws IOException {
+		frontEndCache = directory == null ? null : new FrontEndCache(directory);
+	}
+
+	public static FrontEndCache getFrontEndCache() {
+		return frontEndCache;
+	}
+
+	public ProgramCache getCache() {
+		return cache;
+	}
+
 	public Object exec(String input, Object[] params) throws Exception {
+		return compile(input).invoke(params);
+	}
+
+	/**
+	 * Returns the compiled and loaded form of the given PLCLang program. If the same
+	 * source has already been compiled into this package, the cached program is
+	 * returned and none of the compiler phases are run again.
+	 */
+	public CompiledProgram compile(String input) throws Exception {
+		Backend backend = CompilerComponentFactory.getBackend();
+		String key = ProgramCache.key(input, packageName, backend.name());
+		CompiledProgram program = cache.get(key);
+		if (program == null) {
+			program = compileUncached(input, backend);
+			cache.put(key, program);
+		}
+		return program;
+	}
+
+	/**
+	 * Returns a program that runs in the interpreter until it has been invoked
+	 * threshold times and is then compiled in the background. The compiled form
+	 * goes into the cache, so if the same source has already been compiled, the
+	 * returned program uses it from the first call, and the front end is not run.
+	 */
+	public TieredProgram load(String input, int threshold) throws Exception {
+		Backend backend = CompilerComponentFactory.getBackend();
+		String key = ProgramCache.key(input, packageName, backend.name());
+		CompiledProgram program = cache.get(key);
+		if (program != null)
+			return new TieredProgram(null, program);
+		// the lookup above has counted the miss, so the background compile puts its result without another one
+		return new TieredProgram(analyze(input), threshold, () -> {
+			CompiledProgram compiled = compileUncached(input, backend);
+			cache.put(key, compiled);
+			return compiled;
+		});
+	}
+
+	public TieredProgram load(String input) throws Exception {
+		return load(input, TieredProgram.DEFAULT_THRESHOLD);
+	}
+
+	//Runs the front end: lexes, parses and type checks the program, or reads its AST from the front end cache
+	Program analyze(String input) throws Exception {
+		FrontEndCache cache = frontEndCache;
+		if (cache != null) {
+			Program cached = cache.get(input);
+			if (cached != null)
+				return cached;
+		}
 		//Lex and parse to obtain AST
 		ASTNode ast = CompilerComponentFactory.getParser(input).parse();
 		//Type check and decorate AST with declaration and type info
 		ast.visit(CompilerComponentFactory.getTypeChecker(), null);
+		if (cache != null)
+			cache.put(input, (Program) ast);
+		return (Program) ast;
+	}
+
+	//Runs the front end in recovery mode and returns all the lexical, syntax and type errors in input, so a
+	//program with several errors needs only one pass.  The type errors are those in the parts that parsed.
+	public List<PLCException> diagnose(String input) throws Exception {
+		List<PLCException> errors = new ArrayList<>();
+		Program ast = (Program) CompilerComponentFactory.getParser(input, errors).parse();
+		if (ast != null)
+			ast.visit(CompilerComponentFactory.getTypeChecker(errors), null);
+		return errors;
+	}
+
+	String fullyQualifiedName(Program ast) {
+		String className = ast.getName();
+		return packageName != "" ? packageName + '.' + className : className;
+	}
+
+	CompiledProgram compileUncached(String input, Backend backend) throws Exception {
+		Program ast = analyze(input);
 		//Generate Java code
-		String className = ((Program) ast).getName();
-		String fullyQualifiedName = packageName != "" ? packageName + '.' + className : className;
+		String fullyQualifiedName = fullyQualifiedName(ast);
+		if (backend == Backend.BYTECODE) {
+			//Emit the class file directly, without going through Java source
+			byte[] byteCode = (byte[]) ast.visit(CompilerComponentFactory.getBytecodeGenerator(packageName), null);
+			return new CompiledProgram(fullyQualifiedName, byteCode);
+		}
 		String javaCode = (String) ast.visit(CompilerComponentFactory.getCodeGenerator(packageName), null);
 		show(javaCode);
 		//Invoke Java compiler to obtain bytecode
 		byte[] byteCode = DynamicCompiler.compile(fullyQualifiedName, javaCode);
-		//Load generated classfile and execute its apply method.
-		Object result = DynamicClassLoader.loadClassAndRunMethod(byteCode, fullyQualifiedName, "apply", params);
-		return result;
+		//Load generated classfile and find its apply method.
+		return new CompiledProgram(fullyQualifiedName, byteCode);
+	}
+
+	//The output of the back end for one program: its Java source, or its class file with the bytecode backend
+	record Generated(String fullyQualifiedName, String javaCode, byte[] byteCode) {}
+
+	/**
+	 * Compiles many programs at once, e.g. all the scripts of a deployment, and returns
+	 * their class files by fully qualified class name. The front end and code
+	 * generation run for the programs in parallel, and with the Java backend, all the
+	 * generated sources are compiled in a single javac task. The programs are neither
+	 * loaded nor added to the cache. Throws the first error of any program, and
+	 * IllegalArgumentException if two programs have the same name.
+	 */
+	public Map<String, byte[]> compileAll(Collection<String> inputs) throws Exception {
+		Backend backend = CompilerComponentFactory.getBackend();
+		List<Callable<Generated>> tasks = new ArrayList<>(inputs.size());
+		for (String input : inputs)
+			tasks.add(() -> {
+				Program ast = analyze(input);
+				if (backend == Backend.BYTECODE)
+					return new Generated(fullyQualifiedName(ast), null,
+							(byte[]) ast.visit(CompilerComponentFactory.getBytecodeGenerator(packageName), null));
+				return new Generated(fullyQualifiedName(ast),
+						(String) ast.visit(CompilerComponentFactory.getCodeGenerator(packageName), null), null);
+			});
+		List<Future<Generated>> results;
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			results = executor.invokeAll(tasks);
+		} finally {
+			executor.shutdown();
+		}
+		Map<String, String> sources = new LinkedHashMap<>();
+		Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		for (Future<Generated> result : results) {
+			Generated generated;
+			try {
+				generated = result.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception cause)
+					throw cause;
+				throw e;
+			}
+			String name = generated.fullyQualifiedName();
+			if (sources.containsKey(name) || classFiles.containsKey(name))
+				throw new IllegalArgumentException("more than one program named " + name);
+			if (generated.byteCode() != null)
+				classFiles.put(name, generated.byteCode());
+			else
+				sources.put(name, generated.javaCode());
+		}
+		if (!sources.isEmpty())
+			classFiles.putAll(DynamicCompiler.compileAll(sources));
+		return classFiles;
 	}
 
 }
@@ -0,0 +1,135 @@
+package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of CompiledProgram objects keyed by a hash of the PLCLang
+ * source and the package name it was compiled into. When the cache is full, the
+ * least recently used program is evicted.
+ *
+ * Instances are safe to use from several threads.
+ */
+public class ProgramCache {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final int capacity;
+	private final LinkedHashMap<String, CompiledProgram> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public ProgramCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ProgramCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("cache capacity must be positive: " + capacity);
+		this.capacity = capacity;
+		// access order gives LRU iteration order
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledProgram> eldest) {
+				return size() > ProgramCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the key used for the given source and package name.
+	 *
+	 * @param input
+	 * @param packageName
+	 * @return hex encoded SHA-256 hash
+	 */
+	public static String key(String input, String packageName) {
+		return digest(packageName, input);
+	}
+
+	/**
+	 * Returns the key used for the given source and package name when compiled by
+	 * the named back end. Programs produced by different back ends are kept apart.
+	 *
+	 * @param input
+	 * @param packageName
+	 * @param backend
+	 * @return hex encoded SHA-256 hash
+	 */
+	public static String key(String input, String packageName, String backend) {
+		return digest(packageName, backend, input);
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 hash of the given strings, separated by zero
+	 * bytes. The keys of all the caches are made with it.
+	 */
+	static String digest(String... parts) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (int i = 0; i < parts.length; i++) {
+				if (i > 0)
+					md.update((byte) 0);
+				md.update(parts[i].getBytes(StandardCharsets.UTF_8));
+			}
+			StringBuilder sb = new StringBuilder(64);
+			for (byte b : md.digest())
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the cached program with the given key, or null if it is not in the
+	 * cache. Updates the hit and miss counters.
+	 */
+	public synchronized CompiledProgram get(String key) {
+		CompiledProgram program = entries.get(key);
+		if (program == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return program;
+	}
+
+	public synchronized void put(String key, CompiledProgram program) {
+		entries.put(key, program);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ProgramCache [size=" + size() + ", capacity=" + capacity + ", hits=" + hits + ", misses=" + misses
+				+ "]";
+	}
+
+}
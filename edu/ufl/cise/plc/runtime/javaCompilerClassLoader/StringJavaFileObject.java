@@ -13,6 +13,7 @@ import javax.tools.SimpleJavaFileObject;
 
 public class StringJavaFileObject extends SimpleJavaFileObject {
 	
+	final String className;  //The fully qualified name of the class
 	final String code;  //The string containing the source code
 	
 	/**
@@ -22,6 +23,7 @@ public class StringJavaFileObject extends SimpleJavaFileObject {
 	public StringJavaFileObject(String name, String code) {
         super(URI.create("string:///" + name.replace('.','/') + Kind.SOURCE.extension),
                 Kind.SOURCE);
+          this.className = name;
           this.code = code;		
 	}
 
@@ -0,0 +1,114 @@
+package edu.ufl.cise.plc.runtime.javaCompilerClassLoader;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.ast.Program;
+
+/**
+ * A PLCLang program that starts out running in the interpreter and switches to
+ * compiled code once it is hot. Obtain one from PLCLangExec.load.
+ *
+ * The first calls interpret the type checked AST, so they do not wait for javac.
+ * When the number of calls reaches the threshold, the program is compiled on a
+ * background thread while calls continue in the interpreter; once compilation
+ * finishes, every later call runs the compiled apply method. If compilation
+ * fails, the program stays in the interpreter.
+ */
+public class TieredProgram {
+
+	public static final int DEFAULT_THRESHOLD = 100;
+
+	/** Compiles hot programs, one at a time, off the calling threads. */
+	static final ExecutorService backgroundCompiler = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "plc-background-compiler");
+		t.setDaemon(true);
+		return t;
+	});
+
+	final Program program;
+	final int threshold;
+	final Callable<CompiledProgram> compileTask;
+	final AtomicInteger invocations = new AtomicInteger();
+	final AtomicBoolean scheduled = new AtomicBoolean();
+	final CompletableFuture<CompiledProgram> promotion = new CompletableFuture<>();
+	volatile CompiledProgram compiled;
+
+	TieredProgram(Program program, int threshold, Callable<CompiledProgram> compileTask) {
+		this.program = program;
+		this.threshold = threshold;
+		this.compileTask = compileTask;
+	}
+
+	/** A program whose compiled form is already available, e.g. from a ProgramCache. */
+	TieredProgram(Program program, CompiledProgram compiled) {
+		this(program, 0, () -> compiled);
+		this.compiled = compiled;
+		scheduled.set(true);
+		promotion.complete(compiled);
+	}
+
+	/**
+	 * Runs the program, in the interpreter or as compiled code depending on how
+	 * often it has been called. params contains the parameters of the program, or
+	 * may be null if it does not have any.
+	 *
+	 * @param params
+	 * @return the value returned by the program
+	 * @throws Exception
+	 */
+	public Object invoke(Object[] params) throws Exception {
+		CompiledProgram c = compiled;
+		if (c != null)
+			return c.invoke(params);
+		if (invocations.incrementAndGet() >= threshold)
+			promote();
+		return CompilerComponentFactory.getInterpreter().interpret(program, params);
+	}
+
+	/** Starts compiling the program in the background, unless that has already been done. */
+	public void promote() {
+		if (!scheduled.compareAndSet(false, true))
+			return;
+		backgroundCompiler.execute(() -> {
+			try {
+				CompiledProgram c = compileTask.call();
+				compiled = c;
+				promotion.complete(c);
+			} catch (Throwable e) {
+				System.err.println("could not compile " + program.getName() + ", continuing in the interpreter: " + e);
+				promotion.completeExceptionally(e);
+			}
+		});
+	}
+
+	public boolean isCompiled() {
+		return compiled != null;
+	}
+
+	/** Number of calls made in the interpreter. */
+	public int getInvocations() {
+		return invocations.get();
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/** The type checked AST the interpreter runs, or null if the program was already compiled when loaded. */
+	public Program getProgram() {
+		return program;
+	}
+
+	/** Completes with the compiled program once the background compilation has finished. */
+	public Future<CompiledProgram> getPromotion() {
+		return promotion;
+	}
+
+}
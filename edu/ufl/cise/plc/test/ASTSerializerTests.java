@@ -0,0 +1,117 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.ast.ASTSerializer;
+import edu.ufl.cise.plc.ast.AssignmentStatement;
+import edu.ufl.cise.plc.ast.BinaryExpr;
+import edu.ufl.cise.plc.ast.ConditionalExpr;
+import edu.ufl.cise.plc.ast.IdentExpr;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.ast.VarDeclaration;
+import edu.ufl.cise.plc.bench.ProgramCorpus;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.FrontEndCache;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class ASTSerializerTests {
+
+	String input = """
+			image f(int w, int h)
+			image[w, h] a;
+			int k = w / 2;
+			a[x, y] = if (x < k) <<x, y, 0>> else RED fi;
+			a = a * 2 + getRed a;
+			float g = 1.5 + -k;
+			boolean b = !(g > 2.0) | true;
+			string s;
+			s <- console;
+			write "a\\tb" -> console;
+			color c = a[1, 2];
+			^ a;
+			""";
+
+	@TempDir
+	Path dir;
+
+	@AfterEach
+	void disableCache() throws Exception {
+		PLCLangExec.setFrontEndCacheDirectory(null);
+	}
+
+	static Program analyze(String input) throws Exception {
+		Program program = (Program) CompilerComponentFactory.getParser(input).parse();
+		program.visit(CompilerComponentFactory.getTypeChecker(), null);
+		return program;
+	}
+
+	@Test
+	void roundTripKeepsTokensAndDecorations() throws Exception {
+		for (String text : new String[] { input, ProgramCorpus.generate(60), ProgramCorpus.generateExpressions(20) }) {
+			Program program = analyze(text);
+			Program copy = (Program) ASTSerializer.deserialize(ASTSerializer.serialize(program));
+			assertEquals(IncrementalParserTests.dump(program), IncrementalParserTests.dump(copy));
+		}
+	}
+
+	@Test
+	void sharedNodesStayShared() throws Exception {
+		Program copy = (Program) ASTSerializer.deserialize(ASTSerializer.serialize(analyze(input)));
+		// k in the condition refers to the NameDef of its declaration, and x to the one the type checker made for
+		// the pixel selector, whose expression is the selector's x
+		AssignmentStatement assignment = (AssignmentStatement) copy.getDecsAndStatements().get(2);
+		ConditionalExpr condition = (ConditionalExpr) assignment.getExpr();
+		IdentExpr x = (IdentExpr) ((BinaryExpr) condition.getCondition()).getLeft();
+		IdentExpr k = (IdentExpr) ((BinaryExpr) condition.getCondition()).getRight();
+		assertSame(((VarDeclaration) copy.getDecsAndStatements().get(1)).getNameDef(), k.getDec());
+		assertSame(assignment.getSelector().getX(), ((VarDeclaration) x.getDec()).getExpr());
+		assertSame(((VarDeclaration) copy.getDecsAndStatements().get(0)).getNameDef(), assignment.getTargetDec());
+		assertSame(condition.getCondition().getFirstToken(), x.getFirstToken());
+	}
+
+	@Test
+	void rejectsOtherVersionsAndCorruptBytes() throws Exception {
+		byte[] bytes = ASTSerializer.serialize(analyze(input));
+		byte[] otherVersion = bytes.clone();
+		otherVersion[4]++;
+		assertThrows(IllegalArgumentException.class, () -> ASTSerializer.deserialize(otherVersion));
+		assertThrows(IllegalArgumentException.class, () -> ASTSerializer.deserialize(Arrays.copyOf(bytes, bytes.length - 3)));
+		assertThrows(IllegalArgumentException.class, () -> ASTSerializer.deserialize(Arrays.copyOf(bytes, bytes.length + 1)));
+		assertThrows(IllegalArgumentException.class, () -> ASTSerializer.deserialize(new byte[] { 1, 2, 3, 4, 5 }));
+	}
+
+	@Test
+	void frontEndCacheSurvivesRestart() throws Exception {
+		String program = """
+				int f(int n)
+				int m = n * 2;
+				^ if (m > 10) m - 10 else m + 1 fi;
+				""";
+		PLCLangExec.setFrontEndCacheDirectory(dir);
+		assertEquals(10, new PLCLangExec("cop4020sp22Package", false, new ProgramCache()).exec(program, new Object[] { 10 }));
+		try (Stream<Path> entries = Files.list(dir)) {
+			assertEquals(1, entries.count());
+		}
+		// a new cache on the same directory has the AST, as after a restart
+		FrontEndCache cache = new FrontEndCache(dir);
+		Program cached = cache.get(program);
+		assertNotNull(cached);
+		assertEquals(IncrementalParserTests.dump(analyze(program)), IncrementalParserTests.dump(cached));
+		assertNull(cache.get(program + " "));
+		assertEquals(7, new PLCLangExec("cop4020sp22Package", false, new ProgramCache()).exec(program, new Object[] { 3 }));
+	}
+}
@@ -0,0 +1,80 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.CompilerComponentFactory.Backend;
+import edu.ufl.cise.plc.TypeCheckException;
+import edu.ufl.cise.plc.bench.ProgramCorpus;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.DynamicClassLoader;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.DynamicCompiler;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class BatchCompileTests {
+
+	String packageName = "batchPackage";
+	Backend previous = CompilerComponentFactory.getBackend();
+
+	@AfterEach
+	void restoreBackend() {
+		CompilerComponentFactory.setBackend(previous);
+	}
+
+	PLCLangExec exec() {
+		return new PLCLangExec(packageName, false, new ProgramCache());
+	}
+
+	void compilesEveryProgram(Backend backend) throws Exception {
+		CompilerComponentFactory.setBackend(backend);
+		List<String> scripts = ProgramCorpus.generateScripts(40);
+		Map<String, byte[]> classFiles = exec().compileAll(scripts);
+		assertEquals(40, classFiles.size());
+		for (int i = 0; i < 40; i += 7) {
+			String name = packageName + ".script" + i;
+			Object[] params = { i, 2.5f, "s" };
+			assertEquals(exec().exec(scripts.get(i), params),
+					DynamicClassLoader.loadClassAndRunMethod(classFiles.get(name), name, "apply", params));
+		}
+	}
+
+	@Test
+	void compilesEveryProgramWithJavac() throws Exception {
+		compilesEveryProgram(Backend.JAVA_SOURCE);
+	}
+
+	@Test
+	void compilesEveryProgramWithTheBytecodeBackend() throws Exception {
+		compilesEveryProgram(Backend.BYTECODE);
+	}
+
+	@Test
+	void errorsInAnyProgram() throws Exception {
+		List<String> scripts = new ArrayList<>(ProgramCorpus.generateScripts(3));
+		scripts.add("int script3()\n^ true;\n");
+		assertThrows(TypeCheckException.class, () -> exec().compileAll(scripts));
+		List<String> duplicates = new ArrayList<>(ProgramCorpus.generateScripts(3));
+		duplicates.add(duplicates.get(1));
+		assertThrows(IllegalArgumentException.class, () -> exec().compileAll(duplicates));
+	}
+
+	@Test
+	void javacErrorsNameTheClasses() {
+		Map<String, String> sources = new LinkedHashMap<>();
+		sources.put("batch.Good", "package batch;\npublic class Good {}\n");
+		sources.put("batch.Bad", "package batch;\npublic class Bad { int x = \"s\"; }\n");
+		sources.put("batch.Worse", "package batch;\npublic class Worse { y z; }\n");
+		Exception e = assertThrows(Exception.class, () -> DynamicCompiler.compileAll(sources));
+		assertTrue(e.getMessage().startsWith("error compiling generated code of batch.Bad, batch.Worse"), e.getMessage());
+	}
+}
@@ -0,0 +1,156 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.ClassFileWriter;
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.CompilerComponentFactory.Backend;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompiledProgram;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class BytecodeBackendTests {
+
+	String packageName = "cop4020sp22Package";
+
+	Backend previous;
+
+	@BeforeEach
+	void saveBackend() {
+		previous = CompilerComponentFactory.getBackend();
+	}
+
+	@AfterEach
+	void restoreBackend() {
+		CompilerComponentFactory.setBackend(previous);
+	}
+
+	Object run(Backend backend, String input, Object[] params) throws Exception {
+		CompilerComponentFactory.setBackend(backend);
+		return new PLCLangExec(packageName, false, new ProgramCache()).exec(input, params);
+	}
+
+	// runs the program with both back ends and checks that they agree
+	Object runBoth(String input, Object... params) throws Exception {
+		Object expected = run(Backend.JAVA_SOURCE, input, params);
+		Object actual = run(Backend.BYTECODE, input, params);
+		if (expected instanceof BufferedImage)
+			assertArrayEquals(ImageOps.getRGBPixels((BufferedImage) expected), ImageOps.getRGBPixels((BufferedImage) actual));
+		else
+			assertEquals(expected, actual);
+		return actual;
+	}
+
+	@Test
+	void arithmeticAndConditionals() throws Exception {
+		String input = """
+				int f(int a, int b)
+				int c = a * b - a / 2 + b % 3;
+				boolean big = c > 10 & !(a == b);
+				^ if (big) c else -c fi;
+				""";
+		assertEquals(34, runBoth(input, 5, 7));
+		runBoth(input, 3, 3);
+		runBoth(input, -4, 2);
+	}
+
+	@Test
+	void floatsAndCoercion() throws Exception {
+		String input = """
+				float f(int a, float b)
+				float c = a + 0.5;
+				int d = b;
+				^ c * d + (if (b >= 2.0) b else 1.0 fi);
+				""";
+		runBoth(input, 3, 2.75f);
+		runBoth(input, -1, 0.5f);
+	}
+
+	@Test
+	void strings() throws Exception {
+		String input = """
+				boolean f(string a, string b)
+				string c = a;
+				^ c == b | c != "x";
+				""";
+		runBoth(input, "x", "x");
+		runBoth(input, "x", "y");
+	}
+
+	@Test
+	void colors() throws Exception {
+		String input = """
+				color f(int a)
+				color c = <<a, 2 * a, 255>>;
+				color d = c + BLUE;
+				^ if (getRed d == a) d - <<1, 1, 1>> else GREEN fi;
+				""";
+		runBoth(input, 40);
+		runBoth(input, 200);
+	}
+
+	@Test
+	void images() throws Exception {
+		String input = """
+				image f(int w, int h)
+				image[w, h] a;
+				a[x, y] = <<x % 256, y % 256, 100>>;
+				image[w, h] b = RED;
+				b[x, y] = a[y % w, x % h] * 2;
+				image c = a + b;
+				image d = getRed c;
+				^ d / 3;
+				""";
+		BufferedImage image = (BufferedImage) runBoth(input, 40, 30);
+		assertEquals(40, image.getWidth());
+		assertEquals(30, image.getHeight());
+	}
+
+	@Test
+	void backendIsPartOfKey() throws Exception {
+		String input = "int f() ^ 42;";
+		ProgramCache cache = new ProgramCache();
+		PLCLangExec exec = new PLCLangExec(packageName, false, cache);
+		CompilerComponentFactory.setBackend(Backend.JAVA_SOURCE);
+		CompiledProgram p0 = exec.compile(input);
+		CompilerComponentFactory.setBackend(Backend.BYTECODE);
+		CompiledProgram p1 = exec.compile(input);
+		assertNotSame(p0, p1);
+		assertEquals(42, p1.invoke(null));
+		assertEquals(2, cache.getMisses());
+	}
+
+	// ICONST_0, POP pairs: 40000 bytes of code
+	static void pad(ClassFileWriter.MethodWriter mw) {
+		for (int i = 0; i < 20_000; i++) {
+			mw.insn(ClassFileWriter.ICONST_0);
+			mw.insn(ClassFileWriter.POP);
+		}
+	}
+
+	@Test
+	void branchesTooFarFail() {
+		ClassFileWriter cw = new ClassFileWriter("Far");
+		ClassFileWriter.MethodWriter backward = cw.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "backward", "()V");
+		ClassFileWriter.Label top = new ClassFileWriter.Label();
+		backward.mark(top);
+		pad(backward);
+		assertThrows(IllegalStateException.class, () -> backward.jump(ClassFileWriter.GOTO, top));
+		ClassFileWriter.MethodWriter forward = cw.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "forward", "()V");
+		ClassFileWriter.Label end = new ClassFileWriter.Label();
+		forward.jump(ClassFileWriter.GOTO, end);
+		pad(forward);
+		assertThrows(IllegalStateException.class, () -> forward.mark(end));
+	}
+
+}
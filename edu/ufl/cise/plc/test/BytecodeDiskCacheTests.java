@@ -0,0 +1,85 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.BytecodeDiskCache;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.DynamicCompiler;
+
+class BytecodeDiskCacheTests {
+
+	String name = "cop4020sp22Package.f";
+	String source = """
+			package cop4020sp22Package;
+			public class f{
+				public static int apply() {
+					return 42;
+				}
+			}
+			""";
+
+	@TempDir
+	Path dir;
+
+	@AfterEach
+	void disableCache() throws Exception {
+		DynamicCompiler.setCacheDirectory(null);
+	}
+
+	List<Path> entries() throws Exception {
+		try (Stream<Path> s = Files.list(dir)) {
+			return s.collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	void compileStoresAndReusesEntry() throws Exception {
+		DynamicCompiler.setCacheDirectory(dir);
+		byte[] first = DynamicCompiler.compile(name, source);
+		assertEquals(1, entries().size());
+		// a new cache on the same directory sees the entry, as after a restart
+		BytecodeDiskCache cache = new BytecodeDiskCache(dir);
+		assertArrayEquals(first, cache.get(name, source));
+		assertArrayEquals(first, DynamicCompiler.compile(name, source));
+	}
+
+	@Test
+	void differentSourceMisses() throws Exception {
+		BytecodeDiskCache cache = new BytecodeDiskCache(dir);
+		cache.put(name, source, new byte[] { 1, 2, 3 });
+		assertNull(cache.get(name, source.replace("42", "43")));
+		assertNull(cache.get("other.f", source));
+	}
+
+	@Test
+	void corruptEntryIsDiscarded() throws Exception {
+		BytecodeDiskCache cache = new BytecodeDiskCache(dir);
+		cache.put(name, source, new byte[] { 1, 2, 3, 4 });
+		Path entry = entries().get(0);
+		byte[] bytes = Files.readAllBytes(entry);
+		bytes[bytes.length - 1] ^= 0xFF;
+		Files.write(entry, bytes);
+		assertNull(cache.get(name, source));
+		assertFalse(Files.exists(entry));
+
+		// a truncated entry is also recompiled
+		DynamicCompiler.setCacheDirectory(dir);
+		byte[] byteCode = DynamicCompiler.compile(name, source);
+		entry = entries().get(0);
+		Files.write(entry, new byte[] { 0, 1 });
+		assertArrayEquals(byteCode, DynamicCompiler.compile(name, source));
+	}
+
+}
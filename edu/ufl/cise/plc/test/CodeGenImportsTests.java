@@ -0,0 +1,62 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.bench.ProgramCorpus;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class CodeGenImportsTests {
+
+	String input = """
+			image f(int w)
+			image[w, w] a;
+			color c = <<1, 2, 3>>;
+			a[x, y] = <<x, y, 0>> + c;
+			a = a * 2 + getRed a;
+			write c -> console;
+			^ a;
+			""";
+
+	static String javaSource(String input, String packageName) throws Exception {
+		return (String) ASTSerializerTests.analyze(input).visit(CompilerComponentFactory.getCodeGenerator(packageName), null);
+	}
+
+	// the lines of source before the class declaration
+	static List<String> header(String source) {
+		return source.substring(0, source.indexOf("public class")).lines().toList();
+	}
+
+	@Test
+	void eachImportOnceBeforeTheClass() throws Exception {
+		List<String> header = header(javaSource(input, "cop4020sp22Package"));
+		assertEquals("package cop4020sp22Package;", header.get(0));
+		// in the order the code first needed them
+		assertEquals(List.of("import java.awt.image.BufferedImage;", "import edu.ufl.cise.plc.runtime.ColorTuple;",
+				"import edu.ufl.cise.plc.runtime.ImageOps;", "import edu.ufl.cise.plc.runtime.ConsoleIO;"),
+				header.subList(1, header.size()));
+	}
+
+	@Test
+	void defaultPackage() throws Exception {
+		String source = javaSource(input, "");
+		assertTrue(header(source).stream().allMatch(line -> line.startsWith("import ")), source);
+		assertEquals(3, new PLCLangExec("", false, new ProgramCache()).exec("int f()\nint a = 3;\n^ a;\n", null));
+	}
+
+	@Test
+	void largeProgramsInLinearTime() throws Exception {
+		String program = ProgramCorpus.generate(40_000);
+		String source = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> javaSource(program, "cop4020sp22Package"));
+		assertTrue(source.contains("int v39996 = "));
+		assertTrue(source.endsWith("\t}\n}\n"));
+	}
+}
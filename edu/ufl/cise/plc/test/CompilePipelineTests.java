@@ -0,0 +1,155 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.CompilerComponentFactory.Backend;
+import edu.ufl.cise.plc.TypeCheckException;
+import edu.ufl.cise.plc.bench.ProgramCorpus;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompilePipeline;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompilePipeline.Stage;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompilePipeline.StageStats;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompiledProgram;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class CompilePipelineTests {
+
+	String packageName = "pipelinePackage";
+	Backend previous = CompilerComponentFactory.getBackend();
+
+	@AfterEach
+	void restoreBackend() {
+		CompilerComponentFactory.setBackend(previous);
+	}
+
+	PLCLangExec exec() {
+		return new PLCLangExec(packageName, false, new ProgramCache());
+	}
+
+	void compilesEveryProgram(Backend backend) throws Exception {
+		CompilerComponentFactory.setBackend(backend);
+		List<String> scripts = ProgramCorpus.generateScripts(30);
+		List<CompletableFuture<CompiledProgram>> results = new ArrayList<>();
+		Map<Stage, StageStats> stats;
+		try (CompilePipeline pipeline = new CompilePipeline(exec(), 4, 2, 1)) {
+			for (String script : scripts)
+				results.add(pipeline.submit(script));
+			for (int i = 0; i < 30; i++) {
+				Object[] params = { i, 2.5f, "s" };
+				assertEquals(exec().exec(scripts.get(i), params), results.get(i).get().invoke(params));
+			}
+			stats = pipeline.getStats();
+		}
+		assertEquals(List.of(Stage.values()), List.copyOf(stats.keySet()));
+		assertEquals(30, stats.get(Stage.FRONT_END).completed());
+		assertEquals(30, stats.get(Stage.CODE_GEN).completed());
+		assertEquals(backend == Backend.BYTECODE ? 0 : 30, stats.get(Stage.JAVAC).completed());
+		assertEquals(30, stats.get(Stage.LOAD).completed());
+		for (StageStats s : stats.values())
+			assertEquals(0, s.failed());
+		assertTrue(stats.get(Stage.FRONT_END).meanNanos() > 0);
+	}
+
+	@Test
+	void compilesEveryProgramWithJavac() throws Exception {
+		compilesEveryProgram(Backend.JAVA_SOURCE);
+	}
+
+	@Test
+	void compilesEveryProgramWithTheBytecodeBackend() throws Exception {
+		compilesEveryProgram(Backend.BYTECODE);
+	}
+
+	@Test
+	void errorsFailOnlyTheirProgram() throws Exception {
+		try (CompilePipeline pipeline = new CompilePipeline(exec())) {
+			CompletableFuture<CompiledProgram> bad = pipeline.submit("int f()\n^ true;\n");
+			// same class name, compiled in the same javac batch or not
+			CompletableFuture<CompiledProgram> one = pipeline.submit("int f()\n^ 1;\n");
+			CompletableFuture<CompiledProgram> two = pipeline.submit("int f()\n^ 2;\n");
+			ExecutionException e = assertThrows(ExecutionException.class, bad::get);
+			assertTrue(e.getCause() instanceof TypeCheckException, e.getCause().toString());
+			assertEquals(1, one.get().invoke(null));
+			assertEquals(2, two.get().invoke(null));
+			assertEquals(1, pipeline.getStats().get(Stage.FRONT_END).failed());
+		}
+	}
+
+	@Test
+	void cachedProgramsSkipTheLaterStages() throws Exception {
+		PLCLangExec exec = exec();
+		String input = "int f()\n^ 3;\n";
+		CompiledProgram compiled = exec.compile(input);
+		try (CompilePipeline pipeline = new CompilePipeline(exec)) {
+			assertSame(compiled, pipeline.submit(input).get());
+			assertEquals(0, pipeline.getStats().get(Stage.CODE_GEN).completed());
+		}
+	}
+
+	@Test
+	void backpressure() throws Exception {
+		CompilerComponentFactory.setBackend(Backend.BYTECODE);
+		String large = ProgramCorpus.generate(5_000);
+		CompilePipeline pipeline = new CompilePipeline(exec(), 1, 1, 1);
+		List<CompletableFuture<CompiledProgram>> results = new ArrayList<>();
+		// one program in the worker and one in the queue, then the queue is full
+		CompletableFuture<CompiledProgram> result;
+		while ((result = pipeline.trySubmit(large)) != null && results.size() < 10)
+			results.add(result);
+		assertNull(result);
+		assertTrue(pipeline.getStats().get(Stage.FRONT_END).blocked() >= 1);
+		// close waits for the programs already submitted
+		pipeline.close();
+		for (CompletableFuture<CompiledProgram> r : results)
+			assertTrue(r.isDone());
+		assertThrows(IllegalStateException.class, () -> pipeline.submit(large));
+	}
+
+	@Test
+	void closeWhenInterrupted() throws Exception {
+		CompilePipeline pipeline = new CompilePipeline(exec());
+		CompletableFuture<CompiledProgram> result = pipeline.submit("int f()\n^ 4;\n");
+		Thread.currentThread().interrupt();
+		pipeline.close();
+		// close still shuts the pipeline down, and leaves the interrupt for the caller
+		assertTrue(Thread.interrupted());
+		assertEquals(4, result.get().invoke(null));
+	}
+
+	@Test
+	void errorsOutsideAPhaseFailTheirBatch() throws Exception {
+		ProgramCache cache = new ProgramCache() {
+			@Override
+			public synchronized void put(String key, CompiledProgram program) {
+				throw new IllegalStateException("cache is broken");
+			}
+		};
+		CompilePipeline pipeline = new CompilePipeline(new PLCLangExec(packageName, false, cache));
+		CompletableFuture<CompiledProgram> one = pipeline.submit("int f()\n^ 1;\n");
+		CompletableFuture<CompiledProgram> two = pipeline.submit("int f()\n^ 2;\n");
+		// the loading worker survives the first error and fails the second program too
+		for (CompletableFuture<CompiledProgram> result : List.of(one, two)) {
+			ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(30, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+		}
+		assertTimeoutPreemptively(Duration.ofSeconds(30), pipeline::close);
+		assertEquals(2, pipeline.getStats().get(Stage.LOAD).failed());
+	}
+}
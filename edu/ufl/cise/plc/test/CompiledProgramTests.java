@@ -0,0 +1,76 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompiledProgram;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class CompiledProgramTests {
+
+	String packageName = "cop4020sp22Package";
+
+	@Test
+	void compileOnceRunMany() throws Exception {
+		String input = """
+				int f(int a, int b)
+				^ a * b + 1;
+				""";
+		PLCLangExec exec = new PLCLangExec(packageName, false, new ProgramCache());
+		CompiledProgram program = exec.compile(input);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i * 3 + 1, program.invoke(new Object[] { i, 3 }));
+		}
+		assertSame(program, exec.compile(input));
+		assertEquals(1, exec.getCache().getHits());
+		assertEquals(1, exec.getCache().getMisses());
+	}
+
+	@Test
+	void execUsesCache() throws Exception {
+		String input = """
+				string f(string s)
+				^ s;
+				""";
+		ProgramCache cache = new ProgramCache();
+		PLCLangExec exec = new PLCLangExec(packageName, false, cache);
+		assertEquals("a", exec.exec(input, new Object[] { "a" }));
+		assertEquals("b", exec.exec(input, new Object[] { "b" }));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	void packageNameIsPartOfKey() throws Exception {
+		String input = "int f() ^ 42;";
+		ProgramCache cache = new ProgramCache();
+		CompiledProgram p0 = new PLCLangExec(packageName, false, cache).compile(input);
+		CompiledProgram p1 = new PLCLangExec("otherPackage", false, cache).compile(input);
+		assertNotSame(p0, p1);
+		assertEquals("otherPackage.f", p1.getFullyQualifiedName());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	void leastRecentlyUsedIsEvicted() throws Exception {
+		String a = "int a() ^ 1;";
+		String b = "int b() ^ 2;";
+		String c = "int c() ^ 3;";
+		ProgramCache cache = new ProgramCache(2);
+		PLCLangExec exec = new PLCLangExec(packageName, false, cache);
+		CompiledProgram pa = exec.compile(a);
+		exec.compile(b);
+		exec.compile(a); // b is now least recently used
+		exec.compile(c);
+		assertEquals(2, cache.size());
+		assertSame(pa, exec.compile(a));
+		assertEquals(3, exec.exec(c, null));
+		exec.compile(b);
+		assertEquals(4, cache.getMisses());
+	}
+
+}
@@ -0,0 +1,51 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.DynamicClassLoader;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.DynamicCompiler;
+
+class DynamicCompilerTests {
+
+	static String source(int k) {
+		return "package pool;\nimport edu.ufl.cise.plc.runtime.ColorTuple;\npublic class C" + k
+				+ " {\n\tpublic static int apply(int n) {\n\t\treturn new ColorTuple(n, " + k + ", 0).green + n;\n\t}\n}\n";
+	}
+
+	@Test
+	void concurrentCompilationsKeepTheirOwnOutput() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			for (int k = 0; k < 16; k++) {
+				int i = k;
+				results.add(executor.submit(() -> DynamicCompiler.compile("pool.C" + i, source(i))));
+			}
+			for (int k = 0; k < 16; k++)
+				assertEquals(k + 100, DynamicClassLoader.loadClassAndRunMethod(results.get(k).get(), "pool.C" + k, "apply",
+						new Object[] { 100 }));
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(DynamicCompiler.getPooledFileManagers() >= 1);
+	}
+
+	@Test
+	void fileManagerReusedAfterAnError() throws Exception {
+		assertThrows(Exception.class, () -> DynamicCompiler.compile("pool.Bad", "package pool;\npublic class Bad { int x = ; }\n"));
+		int pooled = DynamicCompiler.getPooledFileManagers();
+		assertEquals(7, DynamicClassLoader.loadClassAndRunMethod(DynamicCompiler.compile("pool.C7", source(7)), "pool.C7", "apply",
+				new Object[] { 0 }));
+		assertEquals(pooled, DynamicCompiler.getPooledFileManagers());
+	}
+}
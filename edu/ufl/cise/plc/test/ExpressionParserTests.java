@@ -0,0 +1,114 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.SyntaxException;
+import edu.ufl.cise.plc.ast.ASTNode;
+import edu.ufl.cise.plc.ast.BinaryExpr;
+import edu.ufl.cise.plc.ast.ColorExpr;
+import edu.ufl.cise.plc.ast.ConditionalExpr;
+import edu.ufl.cise.plc.ast.Expr;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.ast.ReturnStatement;
+import edu.ufl.cise.plc.ast.UnaryExpr;
+import edu.ufl.cise.plc.ast.UnaryExprPostfix;
+
+class ExpressionParserTests {
+
+	// the expression as an s-expression, with the text of the first token of each compound expression after it
+	static String tree(Expr e) {
+		if (e instanceof BinaryExpr b)
+			return "(" + b.getOp().getText() + " " + tree(b.getLeft()) + " " + tree(b.getRight()) + ")@" + first(e);
+		if (e instanceof UnaryExpr u)
+			return "(" + u.getOp().getText() + " " + tree(u.getExpr()) + ")@" + first(e);
+		if (e instanceof UnaryExprPostfix p)
+			return "([] " + tree(p.getExpr()) + " " + tree(p.getSelector().getX()) + " " + tree(p.getSelector().getY())
+					+ ")@" + first(e);
+		if (e instanceof ConditionalExpr c)
+			return "(if " + tree(c.getCondition()) + " " + tree(c.getTrueCase()) + " " + tree(c.getFalseCase()) + ")@"
+					+ first(e);
+		if (e instanceof ColorExpr c)
+			return "(<< " + tree(c.getRed()) + " " + tree(c.getGreen()) + " " + tree(c.getBlue()) + ")@" + first(e);
+		return e.getFirstToken().getText();
+	}
+
+	static String first(ASTNode node) {
+		return node.getFirstToken().getText();
+	}
+
+	static Expr parse(String expr) throws Exception {
+		Program program = (Program) CompilerComponentFactory.getParser("int f()\n^ " + expr + ";").parse();
+		return ((ReturnStatement) program.getDecsAndStatements().get(0)).getExpr();
+	}
+
+	static void check(String expected, String expr) throws Exception {
+		assertEquals(expected, tree(parse(expr)), expr);
+	}
+
+	@Test
+	void precedenceAndAssociativity() throws Exception {
+		check("(+ a (* b c)@b)@a", "a + b * c");
+		check("(+ (* a b)@a c)@a", "a * b + c");
+		check("(- (- (+ a b)@a c)@a d)@a", "a + b - c - d");
+		check("(% (/ (* a b)@a c)@a d)@a", "a * b / c % d");
+		check("(| a (& b (< c (+ d e)@d)@c)@b)@a", "a | b & c < d + e");
+		check("(| (& (< (+ a b)@a c)@a d)@a e)@a", "a + b < c & d | e");
+		check("(< (< a b)@a c)@a", "a < b < c");
+		check("(!= (== (>= (<= (> (< a b)@a c)@a d)@a e)@a f)@a g)@a", "a < b > c <= d >= e == f != g");
+		check("(| (| a b)@a (& c d)@c)@a", "a | b | c & d");
+	}
+
+	@Test
+	void parenthesesAndFirstTokens() throws Exception {
+		check("(* (+ a b)@a c)@(", "(a + b) * c");
+		check("(* a (+ b c)@b)@a", "a * (b + c)");
+		check("(+ a b)@a", "((a + b))");
+		check("(- (- a)@- b)@-", "-a - b");
+		check("(* (! a)@! (- b)@-)@!", "!a * -b");
+		check("(- (! (getRed a)@getRed)@!)@-", "-!getRed a");
+		check("(+ (getWidth a)@getWidth 1)@getWidth", "getWidth a + 1");
+		check("(- ([] a x y)@a)@-", "-a[x, y]");
+		check("(+ ([] a (- x)@- y)@a (- ([] b 1 2)@b)@-)@a", "a[-x, (y)] + -b[1, 2]");
+		check("(+ ([] (+ a b)@a x (+ y 1)@y)@( 2)@(", "(a + b)[x, y + 1] + 2");
+		check("(+ (<< a (* b 2)@b c)@<< 1)@<<", "<<a, b * 2, c>> + 1");
+		check("(if (< a b)@a (+ a 1)@a (- b)@-)@if", "if (a < b) a + 1 else -b fi");
+		check("(* (if a b c)@if 2)@(", "(if (a) b else c fi) * 2");
+	}
+
+	@Test
+	void syntaxErrors() {
+		for (String expr : new String[] { "a +", "a + * b", "(a + b", "a + (b", "<<a, b>>", "a[x]", "a * if (b) c else d fi" })
+			assertThrows(SyntaxException.class, () -> parse(expr), expr);
+	}
+
+	@Test
+	void longAndDeepExpressions() throws Exception {
+		int n = 100_000;
+		// a long chain of operators is parsed in a loop
+		StringBuilder sb = new StringBuilder("a");
+		for (int i = 0; i < n; i++)
+			sb.append(i % 2 == 0 ? " + a" : " * a");
+		Expr e = parse(sb.toString());
+		int depth = 0;
+		for (; e instanceof BinaryExpr b; e = b.getLeft())
+			depth++;
+		assertEquals(n / 2, depth);
+		// and so is a long chain of prefix operators
+		e = parse("-".repeat(n) + "a");
+		depth = 0;
+		for (; e instanceof UnaryExpr u; e = u.getExpr())
+			depth++;
+		assertEquals(n, depth);
+		// as are nested parentheses
+		int levels = 100_000;
+		e = parse("(a + ".repeat(levels) + "a" + ")".repeat(levels));
+		depth = 0;
+		for (; e instanceof BinaryExpr b; e = b.getRight())
+			depth++;
+		assertEquals(levels, depth);
+	}
+}
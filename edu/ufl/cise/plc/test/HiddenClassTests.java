@@ -0,0 +1,140 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.CompilerComponentFactory.Backend;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompiledProgram;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.DynamicClassLoader;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class HiddenClassTests {
+
+	String packageName = "hiddenPackage";
+	Backend previous = CompilerComponentFactory.getBackend();
+
+	@AfterEach
+	void restoreBackend() {
+		CompilerComponentFactory.setBackend(previous);
+	}
+
+	CompiledProgram compile(String input) throws Exception {
+		return new PLCLangExec(packageName, false, new ProgramCache()).compile(input);
+	}
+
+	static Class<?> programClass(CompiledProgram program) {
+		return MethodHandles.reflectAs(Method.class, program.getApplyHandle()).getDeclaringClass();
+	}
+
+	@Test
+	void exactHandle() throws Throwable {
+		CompiledProgram program = compile("float f(int a, float b)\n^ a + b;\n");
+		MethodHandle apply = program.getApplyHandle();
+		assertEquals(MethodType.methodType(float.class, int.class, float.class), apply.type());
+		assertEquals(5.5f, (float) apply.invokeExact(3, 2.5f));
+		assertEquals(5.5f, program.invoke(new Object[] { 3, 2.5f }));
+		assertThrows(IllegalArgumentException.class, () -> program.invoke(new Object[] { 3 }));
+		assertTrue(programClass(program).isHidden());
+	}
+
+	@Test
+	void argumentsCheckedLikeMethodInvoke() throws Exception {
+		CompiledProgram program = compile("int f(int a)\n^ 10 / a;\n");
+		assertThrows(IllegalArgumentException.class, () -> program.invoke(new Object[] { "x" }));
+		assertThrows(IllegalArgumentException.class, () -> program.invoke(new Object[] { null }));
+		assertThrows(IllegalArgumentException.class, () -> program.invoke(new Object[] { 2.5f }));
+		assertEquals(5, program.invoke(new Object[] { (short) 2 }));
+		// boolean neither widens nor is widened to
+		assertThrows(IllegalArgumentException.class, () -> program.invoke(new Object[] { Boolean.TRUE }));
+		// only what the program itself throws is wrapped
+		InvocationTargetException e = assertThrows(InvocationTargetException.class, () -> program.invoke(new Object[] { 0 }));
+		assertTrue(e.getCause() instanceof ArithmeticException, e.getCause().toString());
+		CompiledProgram widening = compile("float g(float b, string s)\n^ b;\n");
+		assertEquals(3.0f, widening.invoke(new Object[] { 3, null }));
+		assertThrows(IllegalArgumentException.class, () -> widening.invoke(new Object[] { 3, 4 }));
+		CompiledProgram flag = compile("boolean h(boolean c)\n^ !c;\n");
+		assertEquals(false, flag.invoke(new Object[] { true }));
+		assertThrows(IllegalArgumentException.class, () -> flag.invoke(new Object[] { 1 }));
+		assertThrows(IllegalArgumentException.class, () -> widening.invoke(new Object[] { Boolean.FALSE, null }));
+		// loadClassAndRunMethod checks its arguments the same way
+		assertThrows(IllegalArgumentException.class, () -> DynamicClassLoader.loadClassAndRunMethod(program.getByteCode(),
+				program.getFullyQualifiedName(), "apply", new Object[] { "x" }));
+	}
+
+	@Test
+	void sameNameTwice() throws Exception {
+		CompiledProgram one = compile("int f()\n^ 1;\n");
+		CompiledProgram two = compile("int f()\n^ 2;\n");
+		assertEquals(1, one.invoke(null));
+		assertEquals(2, two.invoke(null));
+		assertNotSame(programClass(one), programClass(two));
+		assertTrue(programClass(one).getName().startsWith(packageName + ".f/"), programClass(one).getName());
+	}
+
+	@Test
+	void fusedKernelsInTheHiddenClass() throws Exception {
+		CompilerComponentFactory.setBackend(Backend.JAVA_SOURCE);
+		CompiledProgram program = compile("""
+				image f(int w, int s)
+				image[w, w] a;
+				a[x, y] = <<x, y, 0>>;
+				image[w, w] b = a * s + getRed a;
+				image[w, w] c = b - a / 2;
+				^ c;
+				""");
+		BufferedImage result = (BufferedImage) program.invoke(new Object[] { 4, 3 });
+		BufferedImage a = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 4; x++)
+				a.setRGB(x, y, x << 16 | y << 8);
+		BufferedImage b = ImageOps.binaryImageImageOp(ImageOps.OP.PLUS, ImageOps.binaryImageScalarOp(ImageOps.OP.TIMES, a, 3),
+				ImageOps.extractRed(a));
+		BufferedImage c = ImageOps.binaryImageImageOp(ImageOps.OP.MINUS, b, ImageOps.binaryImageScalarOp(ImageOps.OP.DIV, a, 2));
+		assertEquals(ImageOps.getRGBPixels(c).length, ImageOps.getRGBPixels(result).length);
+		for (int i = 0; i < 16; i++)
+			assertEquals(ImageOps.getRGBPixels(c)[i], ImageOps.getRGBPixels(result)[i], "pixel " + i);
+	}
+
+	WeakReference<Class<?>> compileAndDrop(Backend backend) throws Exception {
+		CompilerComponentFactory.setBackend(backend);
+		CompiledProgram program = compile("int f(int a)\n^ a * 2;\n");
+		assertEquals(6, program.invoke(new Object[] { 3 }));
+		return new WeakReference<>(programClass(program));
+	}
+
+	void unloadsWhenDropped(Backend backend) throws Exception {
+		WeakReference<Class<?>> programClass = compileAndDrop(backend);
+		for (int i = 0; i < 20 && programClass.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(programClass.get());
+	}
+
+	@Test
+	void unloadsWhenDroppedWithJavac() throws Exception {
+		unloadsWhenDropped(Backend.JAVA_SOURCE);
+	}
+
+	@Test
+	void unloadsWhenDroppedWithTheBytecodeBackend() throws Exception {
+		unloadsWhenDropped(Backend.BYTECODE);
+	}
+}
@@ -0,0 +1,105 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.runtime.ColorTuple;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.PLCRuntimeException;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class ImageFusionTests {
+
+	String packageName = "cop4020sp22Package";
+	Random random = new Random(4020);
+
+	Program analyze(String input) throws Exception {
+		Program program = (Program) CompilerComponentFactory.getParser(input).parse();
+		program.visit(CompilerComponentFactory.getTypeChecker(), null);
+		return program;
+	}
+
+	String javaSource(String input) throws Exception {
+		return (String) analyze(input).visit(CompilerComponentFactory.getCodeGenerator(packageName), null);
+	}
+
+	BufferedImage randomImage(int w, int h, int type) {
+		BufferedImage image = new BufferedImage(w, h, type);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++)
+				image.setRGB(x, y, ColorTuple.makePackedColor(1 + random.nextInt(255), 1 + random.nextInt(255), 1 + random.nextInt(255)));
+		return image;
+	}
+
+	// the interpreter evaluates each operation with its own ImageOps call
+	void checkAgainstInterpreter(String input, Object... params) throws Exception {
+		BufferedImage compiled = (BufferedImage) new PLCLangExec(packageName, false, new ProgramCache()).exec(input, params);
+		BufferedImage interpreted = (BufferedImage) CompilerComponentFactory.getInterpreter().interpret(analyze(input), params);
+		assertArrayEquals(ImageOps.getRGBPixels(interpreted), ImageOps.getRGBPixels(compiled));
+	}
+
+	@Test
+	void nestedOperationsAreFused() throws Exception {
+		String input = """
+				image f(image a, image b, image c, int k)
+				image d = a + b * 2 - getRed c / (k + 1) * 1.5;
+				^ d;
+				""";
+		String source = javaSource(input);
+		assertTrue(source.contains("ImageOps.fuse("), source);
+		assertFalse(source.contains("binaryImageImageOp"), source);
+		assertFalse(source.contains("binaryImageScalarOp"), source);
+		assertFalse(source.contains("extractRed"), source);
+		BufferedImage a = randomImage(37, 23, BufferedImage.TYPE_INT_RGB);
+		BufferedImage b = randomImage(37, 23, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage c = randomImage(37, 23, BufferedImage.TYPE_3BYTE_BGR);
+		checkAgainstInterpreter(input, a, b, c, 2);
+	}
+
+	@Test
+	void intermediateResultsAreTruncated() throws Exception {
+		// a * 3 is truncated to 255 before the subtraction, as it would be in an intermediate image
+		String input = """
+				image f(image a, image b)
+				image[getWidth a, getHeight a] c;
+				c[x, y] = <<1, 2, 3>>;
+				^ getGreen (a * 3 - b) + (c % b) * 0.75 + getBlue a;
+				""";
+		BufferedImage a = randomImage(40, 30, BufferedImage.TYPE_INT_RGB);
+		BufferedImage b = randomImage(40, 30, BufferedImage.TYPE_INT_RGB);
+		assertTrue(javaSource(input).contains("ImageOps.fuse("));
+		checkAgainstInterpreter(input, a, b);
+	}
+
+	@Test
+	void singleOperationIsNotFused() throws Exception {
+		String source = javaSource("""
+				image f(image a, image b)
+				^ a + b;
+				""");
+		assertFalse(source.contains("ImageOps.fuse("), source);
+	}
+
+	@Test
+	void unequalSizes() throws Exception {
+		String input = """
+				image f(image a, image b)
+				^ a * 2 + b;
+				""";
+		Object[] params = { randomImage(10, 10, BufferedImage.TYPE_INT_RGB), randomImage(10, 11, BufferedImage.TYPE_INT_RGB) };
+		Exception e = assertThrows(InvocationTargetException.class, () -> new PLCLangExec(packageName, false, new ProgramCache()).exec(input, params));
+		assertTrue(e.getCause() instanceof PLCRuntimeException, e.getCause().toString());
+	}
+
+}
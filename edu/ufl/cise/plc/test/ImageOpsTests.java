@@ -0,0 +1,128 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.runtime.ColorTuple;
+import edu.ufl.cise.plc.runtime.ColorTupleFloat;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.ImageOps.OP;
+
+class ImageOpsTests {
+
+	Random random = new Random(4020);
+
+	// components are never 0, so DIV and MOD are defined
+	BufferedImage randomImage(int w, int h, int type) {
+		BufferedImage image = new BufferedImage(w, h, type);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++)
+				image.setRGB(x, y, ColorTuple.makePackedColor(1 + random.nextInt(255), 1 + random.nextInt(255), 1 + random.nextInt(255)));
+		return image;
+	}
+
+	// the result of applying the op with ColorTuples, one pixel at a time
+	int[] expected(OP op, BufferedImage left, Object right) {
+		int w = left.getWidth();
+		int h = left.getHeight();
+		int[] pixels = new int[w * h];
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				ColorTuple l = ColorTuple.unpack(left.getRGB(x, y));
+				int packed;
+				if (right instanceof BufferedImage r)
+					packed = ImageOps.binaryTupleOp(op, l, ColorTuple.unpack(r.getRGB(x, y))).pack();
+				else if (right instanceof Float f)
+					packed = ImageOps.binaryTupleOp(op, new ColorTupleFloat(l), new ColorTupleFloat(f)).pack();
+				else
+					packed = ImageOps.binaryTupleOp(op, l, new ColorTuple((Integer) right)).pack();
+				pixels[y * w + x] = packed;
+			}
+		return pixels;
+	}
+
+	@Test
+	void imageImageOpMatchesTupleOp() {
+		for (int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR }) {
+			BufferedImage left = randomImage(37, 23, type);
+			BufferedImage right = randomImage(37, 23, BufferedImage.TYPE_INT_RGB);
+			for (OP op : OP.values()) {
+				BufferedImage result = ImageOps.binaryImageImageOp(op, left, right);
+				assertEquals(BufferedImage.TYPE_INT_RGB, result.getType());
+				assertArrayEquals(expected(op, left, right), ImageOps.getRGBPixels(result), op + " " + type);
+			}
+		}
+	}
+
+	@Test
+	void imageScalarOpMatchesTupleOp() {
+		for (int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR }) {
+			BufferedImage left = randomImage(41, 19, type);
+			for (OP op : OP.values()) {
+				for (int scalar : new int[] { 3, 128, -7 })
+					assertArrayEquals(expected(op, left, scalar), ImageOps.getRGBPixels(ImageOps.binaryImageScalarOp(op, left, scalar)));
+				for (float scalar : new float[] { 0.5f, 2.25f, -1.5f, 300f })
+					assertArrayEquals(expected(op, left, scalar), ImageOps.getRGBPixels(ImageOps.binaryImageScalarOp(op, left, scalar)));
+			}
+		}
+	}
+
+	@Test
+	void subimageUsesFallback() {
+		BufferedImage parent = randomImage(50, 50, BufferedImage.TYPE_INT_RGB);
+		BufferedImage left = parent.getSubimage(5, 7, 20, 10);
+		BufferedImage right = randomImage(20, 10, BufferedImage.TYPE_INT_RGB);
+		assertArrayEquals(expected(OP.MINUS, left, right), ImageOps.getRGBPixels(ImageOps.binaryImageImageOp(OP.MINUS, left, right)));
+	}
+
+	@Test
+	void divideByZero() {
+		BufferedImage left = randomImage(4, 4, BufferedImage.TYPE_INT_RGB);
+		assertThrows(ArithmeticException.class, () -> ImageOps.binaryImageScalarOp(OP.DIV, left, 0));
+	}
+
+	List<int[]> runAll(BufferedImage left, BufferedImage right) {
+		List<int[]> results = new ArrayList<>();
+		results.add(ImageOps.getRGBPixels(ImageOps.extractRed(left)));
+		results.add(ImageOps.getRGBPixels(ImageOps.extractGreen(right)));
+		results.add(ImageOps.getRGBPixels(ImageOps.extractBlue(left)));
+		for (OP op : OP.values()) {
+			results.add(ImageOps.getRGBPixels(ImageOps.binaryImageImageOp(op, left, right)));
+			results.add(ImageOps.getRGBPixels(ImageOps.binaryImageScalarOp(op, left, 5)));
+			results.add(ImageOps.getRGBPixels(ImageOps.binaryImageScalarOp(op, right, 1.75f)));
+		}
+		return results;
+	}
+
+	@Test
+	void parallelMatchesSequential() {
+		BufferedImage left = randomImage(301, 257, BufferedImage.TYPE_INT_RGB);
+		BufferedImage right = randomImage(301, 257, BufferedImage.TYPE_3BYTE_BGR);
+		List<int[]> sequential = runAll(left, right);
+		ForkJoinPool previousPool = ImageOps.getParallelPool();
+		int previousThreshold = ImageOps.getParallelThreshold();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ImageOps.setParallelPool(pool);
+			ImageOps.setParallelThreshold(0);
+			List<int[]> parallel = runAll(left, right);
+			for (int i = 0; i < sequential.size(); i++)
+				assertArrayEquals(sequential.get(i), parallel.get(i));
+			assertThrows(ArithmeticException.class, () -> ImageOps.binaryImageScalarOp(OP.MOD, left, 0));
+		} finally {
+			ImageOps.setParallelPool(previousPool);
+			ImageOps.setParallelThreshold(previousThreshold);
+			pool.shutdown();
+		}
+	}
+
+}
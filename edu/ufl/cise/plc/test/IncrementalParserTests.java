@@ -0,0 +1,170 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.IToken;
+import edu.ufl.cise.plc.IncrementalParser;
+import edu.ufl.cise.plc.PLCException;
+import edu.ufl.cise.plc.ast.ASTNode;
+
+class IncrementalParserTests {
+
+	String input = """
+			image f(int w, int h)
+			image[w, h] a;
+			int k = w / 2; # half
+			a[x, y] = if (x < k) <<x, y, 0>> else RED fi;
+			string s = "a;b";
+			write s -> console;
+			a = a * 2 + getRed a;
+			^ a;
+			""";
+
+	// the node's class, first token, location and children, and the text and location of its other tokens
+	static String dump(Object o) throws IllegalAccessException {
+		StringBuilder sb = new StringBuilder();
+		dump(o, sb);
+		return sb.toString();
+	}
+
+	static void dump(Object o, StringBuilder sb) throws IllegalAccessException {
+		if (o instanceof ASTNode node) {
+			sb.append(node.getClass().getSimpleName()).append('@').append(node.getSourceLoc()).append('{');
+			for (Class<?> c = node.getClass(); c != Object.class; c = c.getSuperclass())
+				for (Field f : c.getDeclaredFields())
+					if (!Modifier.isStatic(f.getModifiers())) {
+						f.setAccessible(true);
+						sb.append(f.getName()).append('=');
+						dump(f.get(node), sb);
+						sb.append(' ');
+					}
+			sb.append('}');
+		}
+		else if (o instanceof IToken t)
+			sb.append(t.getKind()).append(' ').append(t.getText()).append('@').append(t.getSourceLocation());
+		else if (o instanceof List<?> list) {
+			sb.append('[');
+			for (Object e : list) {
+				dump(e, sb);
+				sb.append(", ");
+			}
+			sb.append(']');
+		}
+		else
+			sb.append(o);
+	}
+
+	// the dump of the AST, or the exception, that parsing text from scratch gives
+	static String parse(String text) throws Exception {
+		try {
+			return dump(CompilerComponentFactory.getParser(text).parse());
+		} catch (PLCException e) {
+			return e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+	}
+
+	static String edit(IncrementalParser parser, int offset, int length, String replacement) throws Exception {
+		try {
+			return dump(parser.edit(offset, length, replacement));
+		} catch (PLCException e) {
+			return e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+	}
+
+	@Test
+	void sharesUntouchedStatements() throws Exception {
+		IncrementalParser parser = CompilerComponentFactory.getIncrementalParser(input);
+		List<ASTNode> before = parser.parse().getDecsAndStatements();
+		int offset = input.indexOf("w / 2");
+		List<ASTNode> after = parser.edit(offset, 1, "h").getDecsAndStatements();
+		assertEquals(parse(parser.getText()), dump(parser.getProgram()));
+		for (int i = 0; i < before.size(); i++) {
+			if (i == 1)
+				assertNotSame(before.get(i), after.get(i));
+			else
+				assertSame(before.get(i), after.get(i));
+		}
+	}
+
+	@Test
+	void movesStatementsAfterAddedLines() throws Exception {
+		IncrementalParser parser = CompilerComponentFactory.getIncrementalParser(input);
+		List<ASTNode> before = parser.parse().getDecsAndStatements();
+		ASTNode last = before.get(before.size() - 1);
+		assertEquals(new IToken.SourceLocation(7, 0), last.getSourceLoc());
+		List<ASTNode> after = parser.edit(input.indexOf("string s"), 0, "int i = 0;\n\n").getDecsAndStatements();
+		assertEquals(before.size() + 1, after.size());
+		assertSame(last, after.get(after.size() - 1));
+		assertEquals(new IToken.SourceLocation(9, 0), last.getSourceLoc());
+		assertEquals(parse(parser.getText()), dump(parser.getProgram()));
+		parser.edit(input.indexOf("string s"), 12, "");
+		assertEquals(new IToken.SourceLocation(7, 0), last.getSourceLoc());
+		assertEquals(parse(parser.getText()), dump(parser.getProgram()));
+	}
+
+	@Test
+	void typingStatementCharByChar() throws Exception {
+		String statement = "int j = k * 3 + w;\n";
+		int at = input.indexOf("write");
+		String text = input;
+		IncrementalParser parser = CompilerComponentFactory.getIncrementalParser(text);
+		assertEquals(parse(text), dump(parser.parse()));
+		for (int i = 0; i < statement.length(); i++) {
+			text = text.substring(0, at + i) + statement.charAt(i) + text.substring(at + i);
+			assertEquals(parse(text), edit(parser, at + i, 0, statement.substring(i, i + 1)), text);
+		}
+		// and deleting it again from the front
+		for (int i = 0; i < statement.length(); i++) {
+			text = text.substring(0, at) + text.substring(at + 1);
+			assertEquals(parse(text), edit(parser, at, 1, ""), text);
+		}
+		assertEquals(input, parser.getText());
+	}
+
+	@Test
+	void editAtTheEndOfTheHeader() throws Exception {
+		// the header does not have to end with ')', so typing right after it can extend its last token
+		String text = "image f(int t string\nint k = 1;\n^ k;\n";
+		IncrementalParser parser = CompilerComponentFactory.getIncrementalParser(text);
+		assertEquals(parse(text), dump(parser.parse()));
+		int at = text.indexOf('\n');
+		text = text.substring(0, at) + "0" + text.substring(at);
+		assertEquals(parse(text), edit(parser, at, 0, "0"), text);
+		text = text.substring(0, at + 1) + "\"\\" + text.substring(at + 1);
+		assertEquals(parse(text), edit(parser, at + 1, 0, "\"\\"), text);
+	}
+
+	@Test
+	void randomEditsMatchFullParse() throws Exception {
+		String[] pieces = { ";", " ", "\n", "#", "\"", "x", "int ", "a", "= 1", "<<", ">>", "(", ")", "fi", "if (", "3.5",
+				"^ a;", "write a -> console;", "int z = 2;\n", "a[x, y] = RED;\n", "@" };
+		Random random = new Random(4020);
+		String text = input;
+		IncrementalParser parser = CompilerComponentFactory.getIncrementalParser(text);
+		parser.parse();
+		for (int i = 0; i < 2000; i++) {
+			int offset = random.nextInt(text.length() + 1);
+			int length = random.nextInt(3) == 0 ? Math.min(random.nextInt(6), text.length() - offset) : 0;
+			String replacement = random.nextInt(4) == 0 ? "" : pieces[random.nextInt(pieces.length)];
+			if (length == 0 && replacement.isEmpty())
+				continue;
+			text = text.substring(0, offset) + replacement + text.substring(offset + length);
+			assertEquals(parse(text), edit(parser, offset, length, replacement), text);
+			if (i % 200 == 0) {
+				// start again from a program that parses
+				parser.edit(0, text.length(), input);
+				text = input;
+			}
+		}
+	}
+}
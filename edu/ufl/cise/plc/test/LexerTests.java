@@ -2,6 +2,7 @@ package edu.ufl.cise.plc.test;
 
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
@@ -10,8 +11,14 @@ import edu.ufl.cise.plc.CompilerComponentFactory;
 import edu.ufl.cise.plc.ILexer;
 import edu.ufl.cise.plc.IToken;
 import edu.ufl.cise.plc.IToken.Kind;
+import edu.ufl.cise.plc.Lexer;
 import edu.ufl.cise.plc.LexicalException;
+import edu.ufl.cise.plc.TokenBuffer;
 
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 
 
@@ -644,4 +651,127 @@ public class LexerTests {
 		ILexer lexer = getLexer(input);
 		checkToken1(lexer.next(), Kind.STRING_LIT, 0, 0, "\"\"");
 	}
+
+	@Test
+	void testLongTokens() throws LexicalException {
+		String name = "x".repeat(100000);
+		String input = name + " 2147483647 12345.5 \"" + "a\\tb".repeat(1000) + "\" true;";
+		ILexer lexer = getLexer(input);
+		IToken ident = lexer.next();
+		checkIdent(ident, name, 0, 0);
+		// the text is only created once
+		assertSame(ident.getText(), ident.getText());
+		checkInt(lexer.next(), Integer.MAX_VALUE, 0, 100001);
+		checkFloat(lexer.next(), 12345.5f);
+		IToken string = lexer.next();
+		assertEquals(Kind.STRING_LIT, string.getKind());
+		assertEquals("\"" + "a\\tb".repeat(1000) + "\"", string.getText());
+		assertEquals("a\tb".repeat(1000), string.getStringValue());
+		checkBool(lexer.next(), true);
+		checkToken(lexer.next(), Kind.SEMI);
+	}
+
+	String streamingInput = """
+			image f(int a, string s) # a comment
+			string t = "a \\"quoted\\" string\\n";
+			int longIdentifierName = a * 42 + 3;
+			float ff = 3.25;
+			image[a, a] b = <<a, 0, 255>>;
+			b[x, y] = if (x <= y & x != 0) RED else b[y, x] fi;
+			write t -> console;
+			^ b;
+			""";
+
+	void checkSameTokens(ILexer expected, ILexer actual, boolean peek) throws LexicalException {
+		IToken e;
+		do {
+			e = expected.next();
+			if (peek)
+				assertEquals(e.getText(), actual.peek().getText());
+			IToken a = actual.next();
+			assertEquals(e.getKind(), a.getKind());
+			assertEquals(e.getSourceLocation(), a.getSourceLocation());
+			assertEquals(e.getText(), a.getText());
+			if (e.getKind() == Kind.STRING_LIT)
+				assertEquals(e.getStringValue(), a.getStringValue());
+		} while (e.getKind() != Kind.EOF);
+	}
+
+	@Test
+	void testStreamingLexer() throws LexicalException {
+		for (int window : new int[] { 1, 3, 7, 64, Lexer.DEFAULT_WINDOW }) {
+			checkSameTokens(getLexer(streamingInput), new Lexer(new StringReader(streamingInput), window), false);
+			checkSameTokens(getLexer(streamingInput), new Lexer(new StringReader(streamingInput), window), true);
+		}
+		checkSameTokens(getLexer(streamingInput), CompilerComponentFactory.getLexer(CharBuffer.wrap(streamingInput)), true);
+	}
+
+	@Test
+	void testMappedFile() throws Exception {
+		String input = streamingInput + "# caf\u00e9 \ud83d\ude00\n";
+		Path file = Files.createTempFile("plc", ".txt");
+		try {
+			Files.writeString(file, input);
+			checkSameTokens(getLexer(input), CompilerComponentFactory.getLexer(file), true);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testEveryReservedWord() throws LexicalException {
+		Object[][] words = {
+				{ "string", Kind.TYPE }, { "int", Kind.TYPE }, { "float", Kind.TYPE }, { "boolean", Kind.TYPE },
+				{ "color", Kind.TYPE }, { "image", Kind.TYPE }, { "getWidth", Kind.IMAGE_OP }, { "getHeight", Kind.IMAGE_OP },
+				{ "getRed", Kind.COLOR_OP }, { "getGreen", Kind.COLOR_OP }, { "getBlue", Kind.COLOR_OP },
+				{ "BLACK", Kind.COLOR_CONST }, { "BLUE", Kind.COLOR_CONST }, { "CYAN", Kind.COLOR_CONST },
+				{ "DARK_GRAY", Kind.COLOR_CONST }, { "GRAY", Kind.COLOR_CONST }, { "GREEN", Kind.COLOR_CONST },
+				{ "LIGHT_GRAY", Kind.COLOR_CONST }, { "MAGENTA", Kind.COLOR_CONST }, { "ORANGE", Kind.COLOR_CONST },
+				{ "PINK", Kind.COLOR_CONST }, { "RED", Kind.COLOR_CONST }, { "WHITE", Kind.COLOR_CONST },
+				{ "YELLOW", Kind.COLOR_CONST }, { "true", Kind.BOOLEAN_LIT }, { "false", Kind.BOOLEAN_LIT },
+				{ "if", Kind.KW_IF }, { "else", Kind.KW_ELSE }, { "fi", Kind.KW_FI }, { "write", Kind.KW_WRITE },
+				{ "console", Kind.KW_CONSOLE }, { "void", Kind.KW_VOID },
+				// identifiers that are close to reserved words
+				{ "i", Kind.IDENT }, { "iff", Kind.IDENT }, { "Int", Kind.IDENT }, { "red", Kind.IDENT }, { "getred", Kind.IDENT },
+				{ "getBlues", Kind.IDENT }, { "truE", Kind.IDENT }, { "BLUR", Kind.IDENT }, { "DARK_GREY", Kind.IDENT },
+				{ "LIGHT_GRAYS", Kind.IDENT }, { "voids", Kind.IDENT }, { "getWidt", Kind.IDENT }, { "x", Kind.IDENT } };
+		StringBuilder input = new StringBuilder();
+		for (Object[] word : words)
+			input.append(word[0]).append(' ');
+		ILexer lexer = getLexer(input.toString());
+		for (Object[] word : words) {
+			IToken t = lexer.next();
+			assertEquals(word[1], t.getKind(), (String) word[0]);
+			assertEquals(word[0], t.getText());
+		}
+	}
+
+	@Test
+	void testTokenBuffer() throws LexicalException {
+		TokenBuffer buffer = TokenBuffer.tokenize(streamingInput);
+		ILexer lexer = getLexer(streamingInput);
+		for (int i = 0; i < buffer.size(); i++) {
+			IToken t = lexer.next();
+			assertEquals(t.getKind(), buffer.kind(i));
+			assertEquals(t.getText(), buffer.text(i));
+			assertEquals(t.getText(), new String(buffer.chars(), buffer.start(i), buffer.length(i)));
+			assertEquals(t.getSourceLocation(), new IToken.SourceLocation(buffer.line(i), buffer.column(i)));
+			assertSame(buffer.token(i), buffer.token(i));
+		}
+		assertEquals(Kind.EOF, buffer.kind(buffer.size() - 1));
+		assertEquals(null, buffer.error());
+	}
+
+	@Test
+	void testTokenBufferError() throws LexicalException {
+		// the tokens before the error are kept and the buffer ends with an ERROR token
+		TokenBuffer buffer = TokenBuffer.tokenize("int a = 1;\nint b = 99999999999;");
+		assertEquals(Kind.ERROR, buffer.kind(buffer.size() - 1));
+		assertEquals(Kind.TYPE, buffer.kind(0));
+		assertEquals(Kind.TYPE, buffer.kind(5));
+		assertEquals(1, buffer.line(5));
+		assertThrows(LexicalException.class, () -> {
+			throw buffer.error();
+		});
+	}
 }
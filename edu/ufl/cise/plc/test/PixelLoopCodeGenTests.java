@@ -0,0 +1,90 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+
+class PixelLoopCodeGenTests {
+
+	String packageName = "cop4020sp22Package";
+
+	Program analyze(String input) throws Exception {
+		Program program = (Program) CompilerComponentFactory.getParser(input).parse();
+		program.visit(CompilerComponentFactory.getTypeChecker(), null);
+		return program;
+	}
+
+	String javaSource(String input) throws Exception {
+		return (String) analyze(input).visit(CompilerComponentFactory.getCodeGenerator(packageName), null);
+	}
+
+	// the body of the last pixel loop in the generated source
+	String lastLoopBody(String source) {
+		int start = source.lastIndexOf("for (int x = 0;");
+		return source.substring(start, source.indexOf("\n\t}\n", start));
+	}
+
+	// compiles the program and checks that it computes the same image as the interpreter
+	void checkAgainstInterpreter(String input, Object... params) throws Exception {
+		BufferedImage compiled = (BufferedImage) new PLCLangExec(packageName, false, new ProgramCache()).exec(input, params);
+		BufferedImage interpreted = (BufferedImage) CompilerComponentFactory.getInterpreter().interpret(analyze(input), params);
+		assertArrayEquals(ImageOps.getRGBPixels(interpreted), ImageOps.getRGBPixels(compiled));
+	}
+
+	@Test
+	void colorArithmeticIsLowered() throws Exception {
+		String input = """
+				image f(int w, int h)
+				image[w, h] a;
+				a[x, y] = <<x, y, (x + y) % 256>>;
+				color c = <<3, 4, 5>>;
+				image[w, h] b;
+				b[x, y] = a[x, y] * 2 - c + <<x / 2, 7, 300>> - BLUE;
+				^ b;
+				""";
+		String body = lastLoopBody(javaSource(input));
+		assertFalse(body.contains("new ColorTuple"), body);
+		assertFalse(body.contains("unpack"), body);
+		assertFalse(body.contains("binaryTupleOp"), body);
+		assertTrue(body.contains("makePackedColor"), body);
+		checkAgainstInterpreter(input, 40, 30);
+	}
+
+	@Test
+	void conditionalAndFloatColors() throws Exception {
+		String input = """
+				image f(int w, int h)
+				image[w, h] a;
+				a[x, y] = <<x * 3, y * 5, 255 - x>>;
+				image[w, h] b = <<0.5, 127.5, 2.25>>;
+				b[x, y] = if (x < y) a[y % w, x % h] else b[x, y] / <<2, 3, 0 + 1>> fi;
+				^ b;
+				""";
+		String body = lastLoopBody(javaSource(input));
+		assertFalse(body.contains("new ColorTuple"), body);
+		checkAgainstInterpreter(input, 25, 35);
+	}
+
+	@Test
+	void componentsAreTruncatedOnlyWhenPacked() throws Exception {
+		// 200 + 200 - 150 is 250, although 200 + 200 alone would be truncated to 255
+		String input = """
+				image f(int w, int h)
+				image[w, h] b;
+				b[x, y] = <<200, x, 0>> + <<200, y, 0>> - <<150, 0, 10>>;
+				^ b;
+				""";
+		checkAgainstInterpreter(input, 10, 10);
+	}
+
+}
@@ -0,0 +1,137 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.IToken.Kind;
+import edu.ufl.cise.plc.LexicalException;
+import edu.ufl.cise.plc.Lexer;
+import edu.ufl.cise.plc.PLCException;
+import edu.ufl.cise.plc.SyntaxException;
+import edu.ufl.cise.plc.TokenBuffer;
+import edu.ufl.cise.plc.TypeCheckException;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+
+class RecoveryTests {
+
+	// the line each error was found on
+	static List<Integer> lines(List<PLCException> errors) {
+		List<Integer> lines = new ArrayList<>();
+		for (PLCException e : errors)
+			lines.add(Integer.parseInt(e.getMessage().substring(0, e.getMessage().indexOf(':'))));
+		return lines;
+	}
+
+	@Test
+	void lexerRecovers() {
+		TokenBuffer tokens = new Lexer("int a = 1 @ 2;\nstring s = 99999999999 + 1;").tokenize(true);
+		assertEquals(Kind.EOF, tokens.kind(tokens.size() - 1));
+		List<Integer> errors = new ArrayList<>();
+		for (int i = 0; i < tokens.size(); i++)
+			if (tokens.kind(i) == Kind.ERROR)
+				errors.add(i);
+		assertEquals(2, errors.size());
+		assertEquals(10, tokens.column(errors.get(0)));
+		assertEquals(1, tokens.line(errors.get(1)));
+		assertEquals(11, tokens.column(errors.get(1)));
+		assertEquals("2", tokens.text(errors.get(0) + 1));
+		assertEquals("+", tokens.text(errors.get(1) + 1));
+		assertEquals(23, tokens.column(errors.get(1) + 1));
+		assertSame(tokens.error(), tokens.error(errors.get(0)));
+	}
+
+	@Test
+	void parserReportsEverySyntaxError() throws Exception {
+		String input = """
+				int f(int a)
+				int b = a + ;
+				int c = a * 2;
+				c = (a + 1;
+				write c -> console
+				int d = c;
+				^ d;
+				""";
+		List<PLCException> errors = new ArrayList<>();
+		Program program = (Program) CompilerComponentFactory.getParser(input, errors).parse();
+		assertEquals(List.of(1, 3, 5), lines(errors), errors.toString());
+		for (PLCException e : errors)
+			assertInstanceOf(SyntaxException.class, e);
+		// int c, int d and ^ d parsed
+		assertEquals(3, program.getDecsAndStatements().size());
+		// without recovery the first error is thrown
+		assertThrows(SyntaxException.class, () -> CompilerComponentFactory.getParser(input).parse());
+	}
+
+	@Test
+	void lexicalErrorsAreNotReportedTwice() throws Exception {
+		String input = """
+				int f(int a)
+				int b = a @ 1;
+				int c = 99999999999;
+				^ c;
+				""";
+		List<PLCException> errors = new ArrayList<>();
+		Program program = (Program) CompilerComponentFactory.getParser(input, errors).parse();
+		assertEquals(List.of(1, 2), lines(errors), errors.toString());
+		for (PLCException e : errors)
+			assertInstanceOf(LexicalException.class, e);
+		assertEquals(1, program.getDecsAndStatements().size());
+	}
+
+	@Test
+	void headerErrorStillReportsTheRest() throws Exception {
+		List<PLCException> errors = new ArrayList<>();
+		assertNull(CompilerComponentFactory.getParser("int (int a)\nint b = ;\n", errors).parse());
+		assertEquals(List.of(0, 1), lines(errors), errors.toString());
+	}
+
+	@Test
+	void typeCheckerReportsEveryTypeError() throws Exception {
+		String input = """
+				int f(int a, int a)
+				int b = "no";
+				int c = b + 1;
+				image[a, a] im;
+				im[x, y] = "string";
+				int x = 1;
+				boolean t = c;
+				^ x;
+				""";
+		List<PLCException> errors = new ArrayList<>();
+		Program program = (Program) CompilerComponentFactory.getParser(input).parse();
+		program.visit(CompilerComponentFactory.getTypeChecker(errors), null);
+		// the duplicate parameter, the string assigned to int, the string assigned to pixels and the int assigned
+		// to boolean.  b is initialized even though its declaration has an error, and x is not left in scope by the
+		// pixel assignment.
+		assertEquals(List.of(0, 1, 4, 6), lines(errors), errors.toString());
+		for (PLCException e : errors)
+			assertInstanceOf(TypeCheckException.class, e);
+	}
+
+	@Test
+	void diagnoseReportsAllPhases() throws Exception {
+		String input = """
+				int f(int a)
+				int b = a + ;
+				string s = a;
+				int c = 1 @ 2;
+				^ s;
+				""";
+		List<PLCException> errors = new PLCLangExec("cop4020sp22Package", false).diagnose(input);
+		assertEquals(List.of(1, 3, 2, 4), lines(errors), errors.toString());
+		assertInstanceOf(SyntaxException.class, errors.get(0));
+		assertInstanceOf(LexicalException.class, errors.get(1));
+		assertInstanceOf(TypeCheckException.class, errors.get(2));
+		assertInstanceOf(TypeCheckException.class, errors.get(3));
+	}
+}
@@ -0,0 +1,184 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.SymbolTable;
+import edu.ufl.cise.plc.TypeCheckException;
+import edu.ufl.cise.plc.ast.ASTNode;
+import edu.ufl.cise.plc.ast.ASTSerializer;
+import edu.ufl.cise.plc.ast.AssignmentStatement;
+import edu.ufl.cise.plc.ast.BinaryExpr;
+import edu.ufl.cise.plc.ast.ColorExpr;
+import edu.ufl.cise.plc.ast.ConditionalExpr;
+import edu.ufl.cise.plc.ast.Declaration;
+import edu.ufl.cise.plc.ast.Expr;
+import edu.ufl.cise.plc.ast.IdentExpr;
+import edu.ufl.cise.plc.ast.NameDef;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.ast.ReturnStatement;
+import edu.ufl.cise.plc.ast.UnaryExpr;
+import edu.ufl.cise.plc.ast.UnaryExprPostfix;
+import edu.ufl.cise.plc.ast.VarDeclaration;
+import edu.ufl.cise.plc.ast.WriteStatement;
+
+class SymbolTableTests {
+
+	String input = """
+			image f(int w, int h)
+			image[w, h] a;
+			int k = w / 2;
+			a[x, y] = if (x < k) <<x, y, 0>> else <<0, 0, y % 256>> fi;
+			float g = 1.5 + k;
+			a[y, x] = a[y, x] + <<k, 0, 0>>;
+			write g -> console;
+			^ a;
+			""";
+
+	static NameDef nameDef(String name) {
+		return new NameDef(null, "int", name);
+	}
+
+	@Test
+	void slotsAreDenseAndScopesShadow() {
+		SymbolTable table = new SymbolTable();
+		NameDef a = nameDef("a"), b = nameDef("b"), innerA = nameDef("a"), c = nameDef("c");
+		assertTrue(table.insert("f", null));
+		assertTrue(table.insert("a", a));
+		assertTrue(table.insert("b", b));
+		assertFalse(table.insert("a", nameDef("a")));
+		table.enterScope();
+		assertTrue(table.insert("a", innerA));
+		assertFalse(table.insert("a", nameDef("a")));
+		assertSame(innerA, table.lookup("a"));
+		assertSame(b, table.lookup("b"));
+		table.leaveScope();
+		assertSame(a, table.lookup("a"));
+		assertTrue(table.insert("c", c));
+		assertNull(table.lookup("f"));
+		assertTrue(table.contains("f"));
+		assertEquals(0, a.getSlot());
+		assertEquals(1, b.getSlot());
+		assertEquals(2, innerA.getSlot());
+		// the slot of a declaration whose scope was left is not given out again
+		assertEquals(3, c.getSlot());
+		assertEquals(4, table.getSlotCount());
+		assertThrows(IllegalStateException.class, table::leaveScope);
+	}
+
+	static void collectIdents(Expr e, List<IdentExpr> idents) {
+		if (e instanceof IdentExpr i)
+			idents.add(i);
+		else if (e instanceof BinaryExpr b) {
+			collectIdents(b.getLeft(), idents);
+			collectIdents(b.getRight(), idents);
+		}
+		else if (e instanceof UnaryExpr u)
+			collectIdents(u.getExpr(), idents);
+		else if (e instanceof UnaryExprPostfix p) {
+			collectIdents(p.getExpr(), idents);
+			collectIdents(p.getSelector().getX(), idents);
+			collectIdents(p.getSelector().getY(), idents);
+		}
+		else if (e instanceof ConditionalExpr c) {
+			collectIdents(c.getCondition(), idents);
+			collectIdents(c.getTrueCase(), idents);
+			collectIdents(c.getFalseCase(), idents);
+		}
+		else if (e instanceof ColorExpr c) {
+			collectIdents(c.getRed(), idents);
+			collectIdents(c.getGreen(), idents);
+			collectIdents(c.getBlue(), idents);
+		}
+	}
+
+	static List<IdentExpr> idents(Program program) {
+		List<IdentExpr> idents = new ArrayList<>();
+		for (ASTNode node : program.getDecsAndStatements()) {
+			if (node instanceof VarDeclaration d)
+				collectIdents(d.getExpr(), idents);
+			else if (node instanceof AssignmentStatement s)
+				collectIdents(s.getExpr(), idents);
+			else if (node instanceof WriteStatement s)
+				collectIdents(s.getSource(), idents);
+			else if (node instanceof ReturnStatement s)
+				collectIdents(s.getExpr(), idents);
+		}
+		return idents;
+	}
+
+	@Test
+	void typeCheckerStoresSlotsOnIdentExprs() throws Exception {
+		Program program = ASTSerializerTests.analyze(input);
+		// w, h, a, k, g, and x and y of each pixel assignment
+		assertEquals(9, program.getSlotCount());
+		Set<Integer> slots = new HashSet<>();
+		for (NameDef param : program.getParams())
+			assertTrue(slots.add(param.getSlot()));
+		for (ASTNode node : program.getDecsAndStatements())
+			if (node instanceof VarDeclaration d)
+				assertTrue(slots.add(d.getNameDef().getSlot()));
+		List<IdentExpr> idents = idents(program);
+		for (IdentExpr ident : idents) {
+			Declaration dec = ident.getDec();
+			assertEquals(dec.getSlot(), ident.getSlot(), ident.getText());
+			if (dec instanceof VarDeclaration selectorDec)
+				// x or y of a pixel assignment, which the selector declares
+				assertEquals(((IdentExpr) selectorDec.getExpr()).getSlot(), ident.getSlot());
+			slots.add(ident.getSlot());
+		}
+		assertEquals(program.getSlotCount(), slots.size());
+		for (int slot : slots)
+			assertTrue(slot >= 0 && slot < program.getSlotCount());
+		// the x of the second pixel assignment is a new variable
+		AssignmentStatement first = (AssignmentStatement) program.getDecsAndStatements().get(2);
+		AssignmentStatement second = (AssignmentStatement) program.getDecsAndStatements().get(4);
+		assertFalse(((IdentExpr) first.getSelector().getX()).getSlot() == ((IdentExpr) second.getSelector().getY()).getSlot());
+
+		Program copy = (Program) ASTSerializer.deserialize(ASTSerializer.serialize(program));
+		assertEquals(program.getSlotCount(), copy.getSlotCount());
+		List<IdentExpr> copied = idents(copy);
+		for (int i = 0; i < idents.size(); i++)
+			assertEquals(idents.get(i).getSlot(), copied.get(i).getSlot());
+	}
+
+	@Test
+	void pixelSelectorNamesAreScopedToTheirStatement() throws Exception {
+		// the names may not hide a variable, nor each other
+		for (String selector : new String[] { "w, y", "x, k", "x, x" }) {
+			String program = "image f(int w, int h)\nimage[w, h] a;\nint k = 1;\na[" + selector + "] = RED;\n^ a;\n";
+			assertThrows(TypeCheckException.class, () -> ASTSerializerTests.analyze(program), selector);
+		}
+		// and are not visible after it
+		assertThrows(TypeCheckException.class, () -> ASTSerializerTests.analyze(
+				"int f(int w)\nimage[w, w] a;\na[x, y] = RED;\n^ x;\n"));
+		// so they can be declared again
+		ASTSerializerTests.analyze("int f(int w)\nimage[w, w] a;\na[x, y] = RED;\nint x = 2;\n^ x;\n");
+	}
+
+	@Test
+	void interpreterReadsVariablesBySlot() throws Exception {
+		Object[] params = { 6, 4 };
+		BufferedImage image = (BufferedImage) CompilerComponentFactory.getInterpreter().interpret(
+				ASTSerializerTests.analyze(input), params);
+		// k is 3, and the second assignment adds 3 to the red of every pixel
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 6; x++) {
+				int expected = x < 3 ? (x + 3) << 16 | y << 8 : 3 << 16 | y;
+				assertEquals(expected, image.getRGB(x, y) & 0xFFFFFF, x + ", " + y);
+			}
+	}
+}
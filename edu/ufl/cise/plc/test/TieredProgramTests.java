@@ -0,0 +1,94 @@
+package edu.ufl.cise.plc.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ufl.cise.plc.CompilerComponentFactory;
+import edu.ufl.cise.plc.ast.Program;
+import edu.ufl.cise.plc.runtime.ImageOps;
+import edu.ufl.cise.plc.runtime.PLCRuntimeException;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.CompiledProgram;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.PLCLangExec;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.ProgramCache;
+import edu.ufl.cise.plc.runtime.javaCompilerClassLoader.TieredProgram;
+
+class TieredProgramTests {
+
+	String packageName = "cop4020sp22Package";
+
+	@Test
+	void interpretsUntilThresholdThenCompiles() throws Exception {
+		String input = """
+				int f(int a, int b)
+				int c = a * b;
+				^ if (c > 10) c - 10 else c fi;
+				""";
+		PLCLangExec exec = new PLCLangExec(packageName, false, new ProgramCache());
+		TieredProgram program = exec.load(input, 3);
+		assertEquals(6, program.invoke(new Object[] { 2, 3 }));
+		assertEquals(6, program.invoke(new Object[] { 4, 4 }));
+		assertFalse(program.isCompiled());
+		assertEquals(2, program.invoke(new Object[] { 3, 4 }));
+		CompiledProgram compiled = program.getPromotion().get(60, TimeUnit.SECONDS);
+		assertTrue(program.isCompiled());
+		assertEquals(15, program.invoke(new Object[] { 5, 5 }));
+		assertEquals(3, program.getInvocations());
+		// one lookup, by load, for the program and its background compilation
+		assertEquals(1, exec.getCache().getMisses());
+		// the compiled form is shared through the cache
+		assertSame(compiled, exec.compile(input));
+	}
+
+	@Test
+	void cachedProgramStartsCompiled() throws Exception {
+		String input = "float f(float a) ^ a / 2.0;";
+		PLCLangExec exec = new PLCLangExec(packageName, false, new ProgramCache());
+		exec.compile(input);
+		TieredProgram program = exec.load(input);
+		assertTrue(program.isCompiled());
+		assertEquals(1.5f, program.invoke(new Object[] { 3.0f }));
+		assertEquals(0, program.getInvocations());
+		assertEquals(1, exec.getCache().getHits());
+		assertEquals(1, exec.getCache().getMisses());
+	}
+
+	@Test
+	void interpreterMatchesCompiledImage() throws Exception {
+		String input = """
+				image f(int w, int h)
+				image[w, h] a;
+				a[x, y] = <<x, y, (x + y) % 256>>;
+				image[w, h] b = <<0.5, 0.25, 1.0>>;
+				color c = a[w / 2, h / 2] + <<10, 10, 10>>;
+				b[x, y] = if (x < y) c else b[x, y] fi;
+				image d = a - b * 2;
+				^ getGreen d;
+				""";
+		Object[] params = { 30, 20 };
+		BufferedImage compiled = (BufferedImage) new PLCLangExec(packageName, false, new ProgramCache()).exec(input, params);
+		Program program = (Program) CompilerComponentFactory.getParser(input).parse();
+		program.visit(CompilerComponentFactory.getTypeChecker(), null);
+		BufferedImage interpreted = (BufferedImage) CompilerComponentFactory.getInterpreter().interpret(program, params);
+		assertArrayEquals(ImageOps.getRGBPixels(compiled), ImageOps.getRGBPixels(interpreted));
+	}
+
+	@Test
+	void missingReturn() throws Exception {
+		String input = """
+				int f(int a)
+				int b = a;
+				""";
+		TieredProgram program = new PLCLangExec(packageName, false, new ProgramCache()).load(input);
+		assertThrows(PLCRuntimeException.class, () -> program.invoke(new Object[] { 1 }));
+	}
+
+}